@@ -0,0 +1,71 @@
+package ca.benow.transmission;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding metainfo of typical to very large torrents, into a string and
+ * streamed as for torrent-add.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+
+    @Param({ "102400", "1048576", "10485760" })
+    public int size;
+
+    private byte[] metainfo;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metainfo = new byte[size];
+        new Random(size).nextBytes(metainfo);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.encode(metainfo);
+    }
+
+    @Benchmark
+    public long encodeStream() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        Base64.encode(new ByteArrayInputStream(metainfo), out);
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
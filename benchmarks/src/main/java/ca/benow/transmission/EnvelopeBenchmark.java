@@ -0,0 +1,64 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.JSONStreamReader;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a small command: decoding the response envelope of a session-get,
+ * and the whole {@link TransmissionClient#sendCommand(String, JSONObject)}
+ * round trip against the in-process stand-in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeBenchmark {
+
+    private byte[] response;
+    private StandInServer server;
+    private TransmissionClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        response = Payloads.sessionGet();
+        server = new StandInServer(response);
+        client = new TransmissionClient(server.getUrl());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public JSONObject parse() throws IOException, JSONException {
+        JSONStreamReader in = new JSONStreamReader(new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8));
+        return TransmissionClient.readReply(in, TransmissionClient.JSON_ARGUMENTS).arguments;
+    }
+
+    @Benchmark
+    public JSONObject sendCommand() throws IOException, JSONException {
+        return client.sendCommand("session-get", null);
+    }
+}
@@ -0,0 +1,180 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Canned daemon responses for the benchmarks. Payloads are generated from a
+ * fixed seed, so every run decodes the same bytes.
+ */
+final class Payloads {
+
+    private static final Set<TorrentField> DOUBLES = EnumSet.of(TorrentField.metadataPercentComplete,
+            TorrentField.percentDone, TorrentField.recheckProgress, TorrentField.seedRatioLimit,
+            TorrentField.uploadRatio);
+    private static final Set<TorrentField> BOOLEANS = EnumSet.of(TorrentField.downloadLimited,
+            TorrentField.honorsSessionLimits, TorrentField.isFinished, TorrentField.isPrivate,
+            TorrentField.uploadLimited);
+
+    private Payloads() { }
+
+    /**
+     * @param fields
+     *          "default" or "all"
+     * @return the expanded fields of the given set
+     */
+    static TorrentField[] fields(String fields) {
+        if (fields.equals("default"))
+            return TransmissionClient.expandFields(null);
+        if (fields.equals("all"))
+            return TransmissionClient.expandFields(new TorrentField[] { TorrentField.all });
+        throw new IllegalArgumentException("Unknown field set " + fields);
+    }
+
+    /**
+     * @return a torrent-get response holding the given number of torrents with
+     *         the given fields
+     */
+    static byte[] torrentGet(int count, TorrentField[] fields) {
+        Random random = new Random(count);
+        StringBuilder out = new StringBuilder(count * fields.length * 24);
+        out.append("{\"arguments\":{\"torrents\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                out.append(',');
+            out.append('{');
+            for (int f = 0; f < fields.length; f++) {
+                if (f > 0)
+                    out.append(',');
+                out.append('"').append(TorrentStatus.fieldNameByFieldPos[fields[f].ordinal()]).append("\":");
+                appendValue(out, fields[f], i + 1, random);
+            }
+            out.append('}');
+        }
+        out.append("]},\"result\":\"success\",\"tag\":\"1\"}");
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a session-get response, the typical small envelope
+     */
+    static byte[] sessionGet() {
+        return ("{\"arguments\":{\"alt-speed-down\":50,\"alt-speed-enabled\":false,\"alt-speed-time-begin\":540,"
+                + "\"alt-speed-time-day\":127,\"alt-speed-time-enabled\":false,\"alt-speed-time-end\":1020,"
+                + "\"alt-speed-up\":50,\"blocklist-enabled\":false,\"blocklist-size\":0,"
+                + "\"blocklist-url\":\"http://www.example.com/blocklist\",\"cache-size-mb\":4,"
+                + "\"config-dir\":\"/var/lib/transmission-daemon\",\"dht-enabled\":true,"
+                + "\"download-dir\":\"/srv/downloads\",\"download-queue-enabled\":true,\"download-queue-size\":5,"
+                + "\"encryption\":\"preferred\",\"idle-seeding-limit\":30,\"idle-seeding-limit-enabled\":false,"
+                + "\"incomplete-dir\":\"/srv/incomplete\",\"incomplete-dir-enabled\":false,\"lpd-enabled\":false,"
+                + "\"peer-limit-global\":200,\"peer-limit-per-torrent\":50,\"peer-port\":51413,"
+                + "\"peer-port-random-on-start\":false,\"pex-enabled\":true,\"port-forwarding-enabled\":false,"
+                + "\"queue-stalled-enabled\":true,\"queue-stalled-minutes\":30,\"rename-partial-files\":true,"
+                + "\"rpc-version\":15,\"rpc-version-minimum\":1,\"script-torrent-done-enabled\":false,"
+                + "\"script-torrent-done-filename\":\"\",\"seed-queue-enabled\":false,\"seed-queue-size\":10,"
+                + "\"seedRatioLimit\":2,\"seedRatioLimited\":false,\"speed-limit-down\":100,"
+                + "\"speed-limit-down-enabled\":false,\"speed-limit-up\":100,\"speed-limit-up-enabled\":false,"
+                + "\"start-added-torrents\":true,\"trash-original-torrent-files\":false,"
+                + "\"units\":{\"memory-bytes\":1024,\"memory-units\":[\"KiB\",\"MiB\",\"GiB\",\"TiB\"],"
+                + "\"size-bytes\":1000,\"size-units\":[\"kB\",\"MB\",\"GB\",\"TB\"],\"speed-bytes\":1000,"
+                + "\"speed-units\":[\"kB/s\",\"MB/s\",\"GB/s\",\"TB/s\"]},\"utp-enabled\":true,"
+                + "\"version\":\"2.84 (14307)\"},\"result\":\"success\",\"tag\":\"1\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return ids 1 to count
+     */
+    static int[] ids(int count) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++)
+            result[i] = i + 1;
+        return result;
+    }
+
+    private static void appendValue(StringBuilder out, TorrentField field, int id, Random random) {
+        if (DOUBLES.contains(field)) {
+            out.append(random.nextInt(10001) / 10000.0);
+            return;
+        }
+        if (BOOLEANS.contains(field)) {
+            out.append(random.nextBoolean());
+            return;
+        }
+        switch (field) {
+        case id:
+            out.append(id);
+            break;
+        case name:
+            out.append("\"Some.Linux.Distribution.").append(id).append(".x86_64.DVD.iso\"");
+            break;
+        case comment:
+            out.append("\"Downloaded from the mirror network, see \\\"README\\\" for checksums\"");
+            break;
+        case creator:
+            out.append("\"mktorrent 1.1\"");
+            break;
+        case downloadDir:
+            out.append("\"/srv/downloads/complete\"");
+            break;
+        case errorString:
+        case torrentFile:
+            out.append("\"\"");
+            break;
+        case hashString:
+            out.append('"').append(String.format("%040x", (long) id * 2654435761L)).append('"');
+            break;
+        case magnetLink:
+            out.append("\"magnet:?xt=urn:btih:").append(String.format("%040x", (long) id * 2654435761L))
+                    .append("&dn=Some.Linux.Distribution.").append(id).append("\"");
+            break;
+        case pieces:
+            out.append("\"////////////////////////////////////////////AA==\"");
+            break;
+        case files:
+            out.append("[{\"bytesCompleted\":1048576,\"length\":1048576,\"name\":\"dist/README\"},")
+                    .append("{\"bytesCompleted\":").append(random.nextInt(1 << 30))
+                    .append(",\"length\":1073741824,\"name\":\"dist/image.iso\"}]");
+            break;
+        case fileStats:
+            out.append("[{\"bytesCompleted\":1048576,\"priority\":0,\"wanted\":true},")
+                    .append("{\"bytesCompleted\":").append(random.nextInt(1 << 30))
+                    .append(",\"priority\":0,\"wanted\":true}]");
+            break;
+        case peers:
+        case webseeds:
+            out.append("[]");
+            break;
+        case peersFrom:
+            out.append("{\"fromCache\":0,\"fromDht\":").append(random.nextInt(20))
+                    .append(",\"fromIncoming\":1,\"fromLpd\":0,\"fromLtep\":0,\"fromPex\":2,\"fromTracker\":")
+                    .append(random.nextInt(50)).append('}');
+            break;
+        case priorities:
+            out.append("[0,0]");
+            break;
+        case wanted:
+            out.append("[1,1]");
+            break;
+        case trackers:
+            out.append("[{\"announce\":\"http://tracker.example.com:6969/announce\",\"id\":0,")
+                    .append("\"scrape\":\"http://tracker.example.com:6969/scrape\",\"tier\":0}]");
+            break;
+        case trackerStats:
+            out.append("[{\"announce\":\"http://tracker.example.com:6969/announce\",\"announceState\":1,")
+                    .append("\"downloadCount\":").append(random.nextInt(1000))
+                    .append(",\"hasAnnounced\":true,\"hasScraped\":true,\"host\":\"http://tracker.example.com:6969\",")
+                    .append("\"id\":0,\"isBackup\":false,\"lastAnnounceResult\":\"Success\",")
+                    .append("\"lastAnnounceTime\":1322313588,\"leecherCount\":").append(random.nextInt(100))
+                    .append(",\"seederCount\":").append(random.nextInt(100)).append(",\"tier\":0}]");
+            break;
+        default:
+            out.append(random.nextInt(Integer.MAX_VALUE));
+            break;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing requests with large id arrays, from the ids to the bytes sent,
+ * as done for torrent-get and torrent-start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int ids;
+
+    private int[] torrentIds;
+    private TorrentField[] fields;
+    private TransmissionClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        torrentIds = Payloads.ids(ids);
+        fields = Payloads.fields("default");
+        // never connects, requests are only prepared
+        client = new TransmissionClient(new URL("http://127.0.0.1:9091/transmission/rpc"));
+    }
+
+    @Benchmark
+    public RequestBuffer torrentGet() throws IOException, JSONException {
+        JSONArray idAry = new JSONArray();
+        for (int id : torrentIds)
+            idAry.put(id);
+        return client.prepare("torrent-get", TransmissionClient.createTorrentGetArgs(idAry, fields), null, null);
+    }
+
+    @Benchmark
+    public RequestBuffer torrentStart() throws IOException, JSONException {
+        JSONArray idAry = new JSONArray();
+        for (int id : torrentIds)
+            idAry.put(id);
+        JSONObject args = new JSONObject();
+        args.put("ids", idAry);
+        return client.prepare("torrent-start", args, null, null);
+    }
+}
@@ -0,0 +1,89 @@
+package ca.benow.transmission;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process stand-in for the daemon's RPC endpoint, answering every request
+ * with the same canned response. Like the daemon it first answers 409 with a
+ * session id, and keeps connections alive.
+ */
+final class StandInServer implements AutoCloseable {
+
+    private static final String SESSION_HEADER = "X-Transmission-Session-Id";
+    private static final String SESSION_ID = "benchmark";
+
+    static {
+        // without it the server's delayed ACKs show up as 40ms calls
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile byte[] response;
+
+    /**
+     * @param response
+     *          response body to answer every request with
+     */
+    StandInServer(byte[] response) throws IOException {
+        this.response = response;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "stand-in-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/transmission/rpc", this::handle);
+        server.start();
+    }
+
+    void setResponse(byte[] response) {
+        this.response = response;
+    }
+
+    URL getUrl() {
+        try {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/transmission/rpc");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buf = new byte[8192];
+            while (in.read(buf) != -1) {
+                // drain, so the connection can be reused
+            }
+        }
+        if (!SESSION_ID.equals(exchange.getRequestHeaders().getFirst(SESSION_HEADER))) {
+            exchange.getResponseHeaders().add(SESSION_HEADER, SESSION_ID);
+            exchange.sendResponseHeaders(409, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = response;
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
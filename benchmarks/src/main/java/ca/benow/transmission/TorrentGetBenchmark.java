@@ -0,0 +1,75 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.JSONStreamReader;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding torrent-get responses into {@link TorrentStatus} objects, from a
+ * canned payload and through {@link TransmissionClient#getTorrents(int[], TorrentField[])}
+ * against the in-process stand-in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TorrentGetBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int torrents;
+
+    @Param({ "default", "all" })
+    public String fields;
+
+    private TorrentField[] requestedFields;
+    private byte[] response;
+    private StandInServer server;
+    private TransmissionClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        requestedFields = Payloads.fields(fields);
+        response = Payloads.torrentGet(torrents, requestedFields);
+        server = new StandInServer(response);
+        client = new TransmissionClient(server.getUrl());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public List<TorrentStatus> decode() throws IOException, JSONException {
+        JSONStreamReader in = new JSONStreamReader(new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8));
+        return TransmissionClient.readReply(in, new TorrentGetReader(requestedFields, true)).arguments.getTorrents();
+    }
+
+    @Benchmark
+    public List<TorrentStatus> getTorrents() throws IOException, JSONException {
+        return client.getTorrents(null, requestedFields);
+    }
+}
@@ -0,0 +1,85 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.JSONStreamReader;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accessor throughput of decoded torrents, per torrent: the typed getters a
+ * UI refresh uses, the generic field lookup and the legacy JSON view.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TorrentStatusBenchmark {
+
+    private static final int TORRENTS = 1000;
+
+    private TorrentStatus[] torrents;
+    private TorrentField[] fields;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JSONException {
+        fields = Payloads.fields("all");
+        byte[] response = Payloads.torrentGet(TORRENTS, fields);
+        JSONStreamReader in = new JSONStreamReader(new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8));
+        List<TorrentStatus> decoded = TransmissionClient.readReply(in, new TorrentGetReader(fields, true)).arguments.getTorrents();
+        torrents = decoded.toArray(new TorrentStatus[decoded.size()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TORRENTS)
+    public void typedGetters(Blackhole bh) throws JSONException {
+        for (TorrentStatus torrent : torrents) {
+            bh.consume(torrent.getId());
+            bh.consume(torrent.getName());
+            bh.consume(torrent.getStatus());
+            bh.consume(torrent.getPercentDone());
+            bh.consume(torrent.getLong(TorrentField.rateDownload));
+            bh.consume(torrent.getLong(TorrentField.rateUpload));
+            bh.consume(torrent.getLong(TorrentField.sizeWhenDone));
+            bh.consume(torrent.getDouble(TorrentField.uploadRatio));
+            bh.consume(torrent.getBoolean(TorrentField.isFinished));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TORRENTS)
+    public void getField(Blackhole bh) throws JSONException {
+        for (TorrentStatus torrent : torrents) {
+            for (TorrentField field : fields)
+                bh.consume(torrent.getField(field));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TORRENTS)
+    public void getJSONObject(Blackhole bh) {
+        for (TorrentStatus torrent : torrents)
+            bh.consume(torrent.getJSONObject());
+    }
+}
@@ -0,0 +1,84 @@
+package ca.benow.transmission.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event spanning one RPC, emitted by {@link RpcFlightRecorder}.
+ */
+@Name(RpcEvent.NAME)
+@Label("Transmission RPC")
+@Category({ "Transmission" })
+@Description("A JSON-RPC call to a transmission daemon")
+@Enabled(false)
+@StackTrace(false)
+final class RpcEvent extends jdk.jfr.Event {
+
+    static final String NAME = "ca.benow.transmission.Rpc";
+
+    @Label("Method")
+    String method;
+
+    @Label("URL")
+    String url;
+
+    @Label("Tag")
+    int tag;
+
+    @Label("Request Bytes")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Bytes")
+    @Description("Size of the response body as received")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Decoded Response Bytes")
+    @Description("Size of the response body after decompression")
+    @DataAmount
+    long decodedResponseBytes;
+
+    @Label("Content Encoding")
+    String contentEncoding;
+
+    @Label("Torrent Count")
+    @Description("Number of torrents in the response, -1 if it holds no torrent list")
+    int torrentCount;
+
+    @Label("Serialize")
+    @Timespan
+    long serializeTime;
+
+    @Label("Connect")
+    @Timespan
+    long connectTime;
+
+    @Label("Write")
+    @Timespan
+    long writeTime;
+
+    @Label("Wait")
+    @Timespan
+    long waitTime;
+
+    @Label("Parse")
+    @Timespan
+    long parseTime;
+
+    @Label("Session Retried")
+    @Description("The daemon answered 409 and the request was sent again with a new session id")
+    boolean sessionRetried;
+
+    @Label("Connection Retries")
+    int connectionRetries;
+
+    @Label("Error")
+    String error;
+}
@@ -0,0 +1,73 @@
+package ca.benow.transmission.jfr;
+
+import jdk.jfr.EventType;
+
+import ca.benow.transmission.RpcInstrumentation;
+import ca.benow.transmission.RpcSample;
+
+/**
+ * Emits a JDK Flight Recorder event for every RPC, so recordings show the
+ * calls next to GC, socket and thread events. The event,
+ * ca.benow.transmission.Rpc, is disabled by default and has to be enabled in
+ * the recording settings, e.g.
+ *
+ * <pre>
+ * client.setInstrumentation(new RpcFlightRecorder());
+ * try (Recording recording = new Recording()) {
+ *  recording.enable(&quot;ca.benow.transmission.Rpc&quot;);
+ *  recording.start();
+ *  ...
+ * }
+ * </pre>
+ *
+ * or with a .jfc file setting ca.benow.transmission.Rpc#enabled to true. While
+ * the event is disabled, an RPC costs a flag check and no allocation.
+ * <p/>
+ * Lives in the optional transmission-java-lib-jfr artifact, as the library
+ * itself builds for Java 8. Needs a JVM with the jdk.jfr module: Java 11 or
+ * later, or Java 8 from update 262.
+ */
+public class RpcFlightRecorder implements RpcInstrumentation {
+
+    private static final EventType TYPE = EventType.getEventType(RpcEvent.class);
+
+    private final ThreadLocal<RpcEvent> current = new ThreadLocal<>();
+
+    @Override
+    public void begin(RpcSample sample) {
+        if (!TYPE.isEnabled())
+            return;
+        RpcEvent event = new RpcEvent();
+        event.begin();
+        current.set(event);
+    }
+
+    @Override
+    public void record(RpcSample sample) {
+        RpcEvent event = current.get();
+        if (event == null)
+            return;
+        current.set(null);
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.method = sample.getMethod();
+        event.url = sample.getUrl();
+        event.tag = sample.getTag();
+        event.requestBytes = sample.getRequestBytes();
+        event.responseBytes = sample.getResponseBytes();
+        event.decodedResponseBytes = sample.getDecodedResponseBytes();
+        event.contentEncoding = sample.getContentEncoding();
+        event.torrentCount = sample.getTorrentCount();
+        event.serializeTime = sample.getSerializeNanos();
+        event.connectTime = sample.getConnectNanos();
+        event.writeTime = sample.getWriteNanos();
+        event.waitTime = sample.getWaitNanos();
+        event.parseTime = sample.getParseNanos();
+        event.sessionRetried = sample.getSessionRetries() > 0;
+        event.connectionRetries = sample.getConnectionRetries();
+        Throwable error = sample.getError();
+        event.error = error == null ? null : error.toString();
+        event.commit();
+    }
+}
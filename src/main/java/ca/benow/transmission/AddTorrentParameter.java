@@ -1,11 +1,13 @@
 package ca.benow.transmission;
 
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 public class AddTorrentParameter {
     String downloadDir;
     String torrentFileNameOrURL;
     InputStream metaInfo;
+    FileChannel metaInfoChannel;
     boolean paused;
     int peerLimit;
     int bandwidthPriority;
@@ -52,6 +54,16 @@ public class AddTorrentParameter {
         return this;
     }
 
+    /**
+     * @param value
+     *          channel the torrent file is read from, from its position to its
+     *          end
+     */
+    public AddTorrentParameter metaInfo(FileChannel value) {
+        metaInfoChannel = value;
+        return this;
+    }
+
     public AddTorrentParameter paused(Boolean value) {
         paused = value;
         return this;
@@ -0,0 +1,441 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.AddedTorrentInfo;
+import ca.benow.transmission.model.SessionStatus;
+import ca.benow.transmission.model.TorrentSettings;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import ca.benow.transmission.model.TorrentTable;
+import ca.benow.transmission.model.TrackerPair;
+import ca.benow.transmission.model.TransmissionSession.SessionField;
+import ca.benow.transmission.model.TransmissionSession.SessionPair;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking counterpart of {@link TransmissionClient}. Every operation is
+ * run on an executor and returns a {@link CompletableFuture}, which completes
+ * with the result or exceptionally with the IOException or JSONException the
+ * blocking call would have thrown.
+ * <p/>
+ * The executor is pluggable. On Java 21 or later, virtual threads let
+ * thousands of RPCs wait on the daemon without tying up platform threads:
+ *
+ * <pre>
+ * AsyncTransmissionClient async = new AsyncTransmissionClient(client,
+ *      Executors.newVirtualThreadPerTaskExecutor());
+ * async.withDeadline(2, TimeUnit.SECONDS).getAllTorrents()
+ *      .thenAccept(torrents -&gt; ...);
+ * </pre>
+ *
+ * Cancelling a returned future, or exceeding its deadline, breaks off the
+ * request by closing its connection.
+ */
+public class AsyncTransmissionClient {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadFactory DAEMON_THREADS = r -> {
+        Thread thread = new Thread(r, "transmission-async-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+    private static volatile ScheduledThreadPoolExecutor deadlineTimer;
+
+    private final TransmissionClient client;
+    private final Executor executor;
+    private final long deadlineNanos;
+
+    /**
+     * Creates an async client running calls on daemon threads of the client's
+     * connection pool, one per connection it may open. Calls beyond wait in a
+     * queue instead of each blocking a thread of its own.
+     *
+     * @param client
+     *          the client performing the calls
+     * @see ConnectionPool#setMaxConnections(int)
+     */
+    public AsyncTransmissionClient(TransmissionClient client) {
+        this(client, client.getConnectionPool().getAsyncExecutor(DAEMON_THREADS));
+    }
+
+    /**
+     * @param client
+     *          the client performing the calls
+     * @param executor
+     *          executor the blocking calls are run on
+     */
+    public AsyncTransmissionClient(TransmissionClient client, Executor executor) {
+        this(client, executor, 0);
+    }
+
+    private AsyncTransmissionClient(TransmissionClient client, Executor executor, long deadlineNanos) {
+        if (client == null || executor == null)
+            throw new NullPointerException("client and executor are required");
+        this.client = client;
+        this.executor = executor;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Returns a view of this client, whose calls fail with a
+     * {@link TimeoutException} and are aborted if they don't complete within the
+     * given time, measured from the moment the call is made.
+     *
+     * @param timeout
+     *          the deadline, 0 to remove a deadline
+     * @param unit
+     *          unit of timeout
+     * @return client sharing client and executor with this one
+     */
+    public AsyncTransmissionClient withDeadline(long timeout, TimeUnit unit) {
+        return new AsyncTransmissionClient(client, executor, unit.toNanos(timeout));
+    }
+
+    public TransmissionClient getClient() {
+        return client;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @see TransmissionClient#sendCommand(String, JSONObject)
+     */
+    public CompletableFuture<JSONObject> sendCommand(String name, JSONObject args) {
+        return submit(() -> client.sendCommand(name, args));
+    }
+
+    /**
+     * @see TransmissionClient#getTorrents(int[], TorrentField[])
+     */
+    public CompletableFuture<List<TorrentStatus>> getTorrents(int[] ids, TorrentField[] requestedFields) {
+        return submit(() -> client.getTorrents(ids, requestedFields));
+    }
+
+    /**
+     * The table is filled on an executor thread, don't read it before the
+     * future completes.
+     *
+     * @see TransmissionClient#getTorrentTable(int[], TorrentTable)
+     */
+    public CompletableFuture<TorrentTable> getTorrentTable(int[] ids, TorrentTable table) {
+        return submit(() -> client.getTorrentTable(ids, table));
+    }
+
+    /**
+     * @see TransmissionClient#getAllTorrents(TorrentField[])
+     */
+    public CompletableFuture<List<TorrentStatus>> getAllTorrents(TorrentField[] torrentFields) {
+        return submit(() -> client.getAllTorrents(torrentFields));
+    }
+
+    /**
+     * @see TransmissionClient#getAllTorrents()
+     */
+    public CompletableFuture<List<TorrentStatus>> getAllTorrents() {
+        return submit(client::getAllTorrents);
+    }
+
+    /**
+     * @see TransmissionClient#addTorrent(String, String, boolean, int, int,
+     *      int[], int[], int[], int[], int[])
+     */
+    public CompletableFuture<AddedTorrentInfo> addTorrent(String downloadDir, String torrentFileNameOrURL, boolean paused, int peerLimit, int bandwidthPriority, int[] filesWanted, int[] filesUnwanted, int[] priorityHigh, int[] priorityLow, int[] priorityNormal) {
+        return submit(() -> client.addTorrent(downloadDir, torrentFileNameOrURL, paused, peerLimit, bandwidthPriority, filesWanted, filesUnwanted, priorityHigh, priorityLow, priorityNormal));
+    }
+
+    /**
+     * @see TransmissionClient#addTorrent(String, InputStream, boolean, int, int,
+     *      int[], int[], int[], int[], int[])
+     */
+    public CompletableFuture<AddedTorrentInfo> addTorrent(String downloadDir, InputStream metaInfo, boolean paused, int peerLimit, int bandwidthPriority, int[] filesWanted, int[] filesUnwanted, int[] priorityHigh, int[] priorityLow, int[] priorityNormal) {
+        return submit(() -> client.addTorrent(downloadDir, metaInfo, paused, peerLimit, bandwidthPriority, filesWanted, filesUnwanted, priorityHigh, priorityLow, priorityNormal));
+    }
+
+    /**
+     * @see TransmissionClient#addTorrent(String)
+     */
+    public CompletableFuture<AddedTorrentInfo> addTorrent(String filenameOrUrl) {
+        return submit(() -> client.addTorrent(filenameOrUrl));
+    }
+
+    /**
+     * @see TransmissionClient#addTorrent(AddTorrentParameter)
+     */
+    public CompletableFuture<AddedTorrentInfo> addTorrent(AddTorrentParameter parameterObject) {
+        return submit(() -> client.addTorrent(parameterObject));
+    }
+
+    /**
+     * @see TransmissionClient#startTorrents(Object...)
+     */
+    public CompletableFuture<Void> startTorrents(Object... ids) {
+        return run(() -> client.startTorrents(ids));
+    }
+
+    /**
+     * @see TransmissionClient#stopTorrents(Object...)
+     */
+    public CompletableFuture<Void> stopTorrents(Object... ids) {
+        return run(() -> client.stopTorrents(ids));
+    }
+
+    /**
+     * @see TransmissionClient#verifyTorrents(Object...)
+     */
+    public CompletableFuture<Void> verifyTorrents(Object... ids) {
+        return run(() -> client.verifyTorrents(ids));
+    }
+
+    /**
+     * @see TransmissionClient#reannounceTorrents(Object...)
+     */
+    public CompletableFuture<Void> reannounceTorrents(Object... ids) {
+        return run(() -> client.reannounceTorrents(ids));
+    }
+
+    /**
+     * @see TransmissionClient#setTorrents(Object[], int, int, boolean, int[],
+     *      int[], boolean, String, int, int[], int[], int[], int, int, double,
+     *      int, String[], int[], TrackerPair[], int, boolean)
+     */
+    public CompletableFuture<Void> setTorrents(Object[] ids, int bandwidthPriority,
+            int downloadLimit, boolean downloadLimited, int[] filesWanted,
+            int[] filesUnwanted, boolean honorsSessionLimits, String location,
+            int peerLimit, int[] priorityHigh, int[] priorityLow,
+            int[] priorityNormal, int seedIdleLimit, int seedIdleMode,
+            double seedRatioLimit, int seedRatioMode, String[] trackerAdd,
+            int[] trackerRemove, TrackerPair[] trackerReplace, int uploadLimit,
+            boolean uploadLimited) {
+        return run(() -> client.setTorrents(ids, bandwidthPriority, downloadLimit, downloadLimited, filesWanted,
+                filesUnwanted, honorsSessionLimits, location, peerLimit, priorityHigh, priorityLow, priorityNormal,
+                seedIdleLimit, seedIdleMode, seedRatioLimit, seedRatioMode, trackerAdd, trackerRemove, trackerReplace,
+                uploadLimit, uploadLimited));
+    }
+
+    /**
+     * @see TransmissionClient#setTorrents(Object[], TorrentSettings)
+     */
+    public CompletableFuture<Void> setTorrents(Object[] ids, TorrentSettings settings) {
+        return run(() -> client.setTorrents(ids, settings));
+    }
+
+    /**
+     * @see TransmissionClient#removeTorrents(Object[], boolean)
+     */
+    public CompletableFuture<Void> removeTorrents(Object[] ids, boolean deleteLocalData) {
+        return run(() -> client.removeTorrents(ids, deleteLocalData));
+    }
+
+    /**
+     * @see TransmissionClient#moveTorrents(Object[], String, boolean)
+     */
+    public CompletableFuture<Void> moveTorrents(Object[] ids, String location, boolean move) {
+        return run(() -> client.moveTorrents(ids, location, move));
+    }
+
+    /**
+     * @see TransmissionClient#getRpcVersion()
+     */
+    public CompletableFuture<Integer> getRpcVersion() {
+        return submit(client::getRpcVersion);
+    }
+
+    /**
+     * @see TransmissionClient#setSession(SessionPair...)
+     */
+    public CompletableFuture<Void> setSession(SessionPair... pairs) {
+        return run(() -> client.setSession(pairs));
+    }
+
+    /**
+     * @see TransmissionClient#getSession()
+     */
+    public CompletableFuture<Map<SessionField, Object>> getSession() {
+        return submit(client::getSession);
+    }
+
+    /**
+     * @see TransmissionClient#getSessionStats()
+     */
+    public CompletableFuture<SessionStatus> getSessionStats() {
+        return submit(client::getSessionStats);
+    }
+
+    /**
+     * @see TransmissionClient#updateBlocklist()
+     */
+    public CompletableFuture<Integer> updateBlocklist() {
+        return submit(client::updateBlocklist);
+    }
+
+    /**
+     * @see TransmissionClient#isPortOpen()
+     */
+    public CompletableFuture<Boolean> isPortOpen() {
+        return submit(client::isPortOpen);
+    }
+
+    /**
+     * @see TransmissionClient#getFreeSpace(String)
+     */
+    public CompletableFuture<Long> getFreeSpace(String path) {
+        return submit(() -> client.getFreeSpace(path));
+    }
+
+    private CompletableFuture<Void> run(VoidCall call) {
+        return submit(() -> {
+            call.call();
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call) {
+        RpcFuture<T> future = new RpcFuture<>(client.getConnectionPool());
+        try {
+            executor.execute(() -> future.run(call));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (deadlineNanos > 0) {
+            ScheduledFuture<?> timer = getDeadlineTimer().schedule(future::expire, deadlineNanos, TimeUnit.NANOSECONDS);
+            future.whenComplete((result, error) -> timer.cancel(false));
+        }
+        return future;
+    }
+
+    /**
+     * @return the shared timer thread, for short non-blocking tasks only
+     */
+    static ScheduledExecutorService getTimer() {
+        return getDeadlineTimer();
+    }
+
+    /**
+     * Waits for a future and rethrows its failure the way the blocking call
+     * would have thrown it.
+     */
+    static <T> T await(Future<T> future) throws IOException, JSONException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a call");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof JSONException)
+                throw (JSONException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor getDeadlineTimer() {
+        ScheduledThreadPoolExecutor result = deadlineTimer;
+        if (result == null) {
+            synchronized (AsyncTransmissionClient.class) {
+                result = deadlineTimer;
+                if (result == null) {
+                    result = new ScheduledThreadPoolExecutor(1, DAEMON_THREADS);
+                    result.setRemoveOnCancelPolicy(true);
+                    deadlineTimer = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private interface Call<T> {
+        T call() throws IOException, JSONException;
+    }
+
+    private interface VoidCall {
+        void call() throws IOException, JSONException;
+    }
+
+    /**
+     * Future which knows the thread running its call, so cancellation and
+     * deadlines can abort the request in flight.
+     */
+    private static final class RpcFuture<T> extends CompletableFuture<T> {
+
+        private final ConnectionPool pool;
+        private Thread runner;
+        /** true if abort() interrupted the runner */
+        private boolean interrupted;
+
+        RpcFuture(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        void run(Call<T> call) {
+            synchronized (this) {
+                if (isDone())
+                    return;
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(call.call());
+            } catch (Throwable e) {
+                completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // don't leak an abort interrupt into the next task of a pooled
+                    // thread, but keep one from elsewhere, e.g. executor shutdown
+                    if (interrupted)
+                        Thread.interrupted();
+                }
+            }
+        }
+
+        void expire() {
+            if (completeExceptionally(new TimeoutException("Deadline exceeded")))
+                abort();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled)
+                abort();
+            return cancelled;
+        }
+
+        private synchronized void abort() {
+            if (runner != null) {
+                // interrupt first, so the failing call knows not to retry
+                if (!runner.isInterrupted()) {
+                    interrupted = true;
+                    runner.interrupt();
+                }
+                pool.abort(runner);
+            }
+        }
+    }
+}
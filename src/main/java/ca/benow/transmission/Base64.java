@@ -1,11 +1,18 @@
 package ca.benow.transmission;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
- * From http://www.wikihow.com/Encode-a-String-to-Base64-With-Java
+ * Base64 encoder without line breaks, as expected by transmission for the
+ * metainfo of torrent-add.
  * <p/>
- * With modificiations.
+ * Streams are encoded in blocks, so the input never has to be held in memory
+ * as a whole.
  * <p/>
  * Prevents dependance on sun jdk's Base64Encoder
  *
@@ -16,68 +23,112 @@ final class Base64 {
 
     private Base64() { }
 
-    private static final String BASE64CODE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
-            + "abcdefghijklmnopqrstuvwxyz" + "0123456789" + "+/";
+    private static final byte[] BASE64CODE = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz" + "0123456789" + "+/").getBytes(StandardCharsets.US_ASCII);
 
-    private static final int SPLITLINESAT = 76;
+    /** input bytes encoded per block, a multiple of 3 */
+    private static final int BLOCK = 3 * 4096;
 
-    private static byte[] zeroPad(int length, byte[] bytes) {
-        byte[] padded = new byte[length]; // initialized to zero by JVM
-        System.arraycopy(bytes, 0, padded, 0, bytes.length);
-        return padded;
+    public static String encode(String value) {
+        return encode(value.getBytes(StandardCharsets.UTF_8));
     }
 
-    public static String encode(String value) {
+    public static String encode(final byte[] bytesValue) {
+        byte[] encoded = new byte[encodedLength(bytesValue.length)];
+        int len = encode(bytesValue, 0, bytesValue.length, encoded);
+        return new String(encoded, 0, len, StandardCharsets.US_ASCII);
+    }
 
-        byte[] stringArray;
-        try {
-            stringArray = value.getBytes("UTF-8"); // use appropriate encoding
-            // string!
-        } catch (UnsupportedEncodingException ignored) {
-            stringArray = value.getBytes(); // use locale default rather than croak
-        }
-        return encode(stringArray);
+    /**
+     * @return number of chars the given number of bytes encode to
+     */
+    static int encodedLength(int len) {
+        return (len + 2) / 3 * 4;
     }
 
-    public static String encode(final byte[] bytesValue) {
-        String encoded = "";
-        // determine how many padding bytes to add to the output
-        int paddingCount = (3 - (bytesValue.length % 3)) % 3;
-        // add any necessary padding to the input
-        byte[] bytes = zeroPad(bytesValue.length + paddingCount, bytesValue);
-        // process 3 bytes at a time, churning out 4 output bytes
-        // worry about CRLF insertions later
-        for (int i = 0; i < bytes.length; i += 3) {
-            int j = ((bytes[i] & 0xff) << 16) + ((bytes[i + 1] & 0xff) << 8)
-                    + (bytes[i + 2] & 0xff);
-            encoded = encoded + BASE64CODE.charAt((j >> 18) & 0x3f)
-                    + BASE64CODE.charAt((j >> 12) & 0x3f)
-                    + BASE64CODE.charAt((j >> 6) & 0x3f) + BASE64CODE.charAt(j & 0x3f);
+    /**
+     * Encodes the given bytes, padding the last group if len isn't a multiple
+     * of 3.
+     *
+     * @return number of bytes written to dst
+     */
+    private static int encode(byte[] src, int off, int len, byte[] dst) {
+        int end = off + len - len % 3;
+        int d = 0;
+        for (int i = off; i < end; i += 3) {
+            int j = ((src[i] & 0xff) << 16) | ((src[i + 1] & 0xff) << 8) | (src[i + 2] & 0xff);
+            dst[d++] = BASE64CODE[(j >>> 18) & 0x3f];
+            dst[d++] = BASE64CODE[(j >>> 12) & 0x3f];
+            dst[d++] = BASE64CODE[(j >>> 6) & 0x3f];
+            dst[d++] = BASE64CODE[j & 0x3f];
+        }
+        int rest = len % 3;
+        if (rest > 0) {
+            int j = (src[end] & 0xff) << 16;
+            if (rest == 2)
+                j |= (src[end + 1] & 0xff) << 8;
+            dst[d++] = BASE64CODE[(j >>> 18) & 0x3f];
+            dst[d++] = BASE64CODE[(j >>> 12) & 0x3f];
+            dst[d++] = rest == 2 ? BASE64CODE[(j >>> 6) & 0x3f] : (byte) '=';
+            dst[d++] = '=';
         }
-        // replace encoded padding nulls with "="
-        return splitLines(encoded.substring(0, encoded.length() - paddingCount)
-                + "==".substring(0, paddingCount));
+        return d;
     }
 
-    private static String splitLines(String string) {
-        String lines = "";
-        for (int i = 0; i < string.length(); i += SPLITLINESAT) {
-            lines += string.substring(i, Math.min(string.length(), i + SPLITLINESAT));
+    /**
+     * Encodes the stream to its end, block by block.
+     */
+    public static void encode(InputStream in, OutputStream out) throws IOException {
+        byte[] src = new byte[BLOCK];
+        byte[] dst = new byte[encodedLength(BLOCK)];
+        int filled = 0;
+        int read;
+        while ((read = in.read(src, filled, src.length - filled)) != -1) {
+            filled += read;
+            if (filled == src.length) {
+                out.write(dst, 0, encode(src, 0, filled, dst));
+                filled = 0;
+            }
         }
-        return lines;
+        if (filled > 0)
+            out.write(dst, 0, encode(src, 0, filled, dst));
     }
 
-
-    public static void encode(InputStream in, OutputStream out) throws IOException {
-        ByteArrayOutputStream tout = new ByteArrayOutputStream();
-        byte[] buff = new byte[512];
-        int read = in.read(buff);
-        while (read > 0) {
-            tout.write(buff, 0, read);
-            read = in.read(buff);
+    /**
+     * Encodes the channel from its position to its end, block by block.
+     */
+    public static void encode(ReadableByteChannel in, OutputStream out) throws IOException {
+        ByteBuffer src = ByteBuffer.allocate(BLOCK);
+        byte[] dst = new byte[encodedLength(BLOCK)];
+        while (in.read(src) != -1) {
+            if (!src.hasRemaining()) {
+                out.write(dst, 0, encode(src.array(), 0, src.position(), dst));
+                src.clear();
+            }
         }
-        String result = encode(tout.toByteArray());
-        out.write(result.getBytes());
+        if (src.position() > 0)
+            out.write(dst, 0, encode(src.array(), 0, src.position(), dst));
     }
 
+    /**
+     * Encodes the remaining bytes of the buffer, e.g. a mapped file.
+     */
+    public static void encode(ByteBuffer in, OutputStream out) throws IOException {
+        if (in.hasArray()) {
+            byte[] dst = new byte[encodedLength(Math.min(BLOCK, in.remaining()))];
+            while (in.hasRemaining()) {
+                int len = Math.min(BLOCK, in.remaining());
+                out.write(dst, 0, encode(in.array(), in.arrayOffset() + in.position(), len, dst));
+                in.position(in.position() + len);
+            }
+            return;
+        }
+        byte[] src = new byte[BLOCK];
+        byte[] dst = new byte[encodedLength(BLOCK)];
+        while (in.hasRemaining()) {
+            int len = Math.min(BLOCK, in.remaining());
+            in.get(src, 0, len);
+            out.write(dst, 0, encode(src, 0, len, dst));
+        }
+    }
 }
@@ -0,0 +1,275 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentSettings;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies individual settings to many torrents with as few torrent-set calls
+ * as possible. Torrents are grouped by the settings they need, settings a
+ * torrent already has are left out, and each group is sent in chunks of ids.
+ * Giving 5000 torrents one of three download limits takes three calls, not
+ * 5000.
+ * <p/>
+ * The setter remembers the settings it applied, and can {@link #learn(Collection)}
+ * the current ones from a torrent-get of {@link TorrentSettings#getFields()}.
+ * Torrents can be referred to by numeric id or hash; an id and hash only
+ * share their known settings once both were learned together.
+ *
+ * <pre>
+ * BulkTorrentSetter setter = new BulkTorrentSetter(client);
+ * setter.learn(client.getAllTorrents(TorrentSettings.getFields()));
+ * Map&lt;Integer, TorrentSettings&gt; wanted = new HashMap&lt;&gt;();
+ * for (TorrentStatus torrent : torrents)
+ *  wanted.put(torrent.getId(), new TorrentSettings().downloadLimit(limitFor(torrent)).downloadLimited(true));
+ * BulkTorrentSetter.Result result = setter.apply(wanted, null);
+ * </pre>
+ */
+public class BulkTorrentSetter {
+
+    private static Logger logger = LoggerFactory.getLogger(BulkTorrentSetter.class);
+
+    /**
+     * Follows the progress of an {@link BulkTorrentSetter#apply(Map, Listener)}.
+     */
+    public interface Listener {
+
+        /**
+         * Called after every chunk.
+         *
+         * @param done
+         *          number of torrents whose chunk was sent, failed or not
+         * @param total
+         *          number of torrents needing a change
+         */
+        void progress(int done, int total);
+
+        void failed(Failure failure);
+    }
+
+    private final TransmissionClient client;
+    private int chunkSize = 500;
+    private final Map<Object, TorrentSettings> known = new ConcurrentHashMap<>();
+    /** the hash of each learned id and the id of each learned hash */
+    private final Map<Object, Object> aliases = new ConcurrentHashMap<>();
+
+    /**
+     * @param client
+     *          client to send the torrent-set calls with
+     */
+    public BulkTorrentSetter(TransmissionClient client) {
+        this.client = client;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize
+     *          maximum number of ids per torrent-set call, defaults to 500
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Records the current settings of the given torrents, under their id and,
+     * if fetched, their hash. Torrents with both are kept in step afterwards,
+     * whichever of the two an apply uses.
+     */
+    public void learn(Collection<TorrentStatus> torrents) throws JSONException {
+        for (TorrentStatus torrent : torrents) {
+            TorrentSettings settings = TorrentSettings.of(torrent);
+            Object id = torrent.has(TorrentField.id) ? torrent.getId() : null;
+            Object hash = torrent.has(TorrentField.hashString) ? torrent.getString(TorrentField.hashString) : null;
+            if (id != null)
+                known.put(id, settings);
+            if (hash != null)
+                known.put(hash, settings);
+            if (id != null && hash != null) {
+                aliases.put(id, hash);
+                aliases.put(hash, id);
+            }
+        }
+    }
+
+    /**
+     * Forgets all known settings, so the next apply sends every setting.
+     */
+    public void forget() {
+        known.clear();
+        aliases.clear();
+    }
+
+    /**
+     * @return the last known settings of the torrent, null if none are known
+     */
+    public TorrentSettings getKnown(Object id) {
+        return known.get(id);
+    }
+
+    /**
+     * Brings the given torrents to the given settings. Chunks are sent one
+     * after the other; a failing chunk is reported and the rest still sent.
+     *
+     * @param settings
+     *          wanted settings by numeric id or hash
+     * @param listener
+     *          receives progress and failures, may be null
+     * @return what was sent and what failed
+     */
+    public Result apply(Map<?, TorrentSettings> settings, Listener listener) {
+        Map<TorrentSettings, List<Object>> groups = new LinkedHashMap<>();
+        int unchanged = 0;
+        for (Map.Entry<?, TorrentSettings> entry : settings.entrySet()) {
+            TorrentSettings changes = entry.getValue().changedFrom(known.get(entry.getKey()));
+            if (changes.isEmpty()) {
+                unchanged++;
+                continue;
+            }
+            List<Object> ids = groups.get(changes);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                groups.put(changes, ids);
+            }
+            ids.add(entry.getKey());
+        }
+        int total = settings.size() - unchanged;
+        logger.debug("Setting {} torrents in {} groups, {} unchanged", total, groups.size(), unchanged);
+
+        Result result = new Result(unchanged);
+        int done = 0;
+        for (Map.Entry<TorrentSettings, List<Object>> group : groups.entrySet()) {
+            List<Object> ids = group.getValue();
+            for (int from = 0; from < ids.size(); from += chunkSize) {
+                List<Object> chunk = ids.subList(from, Math.min(ids.size(), from + chunkSize));
+                send(chunk, group.getKey(), result, listener);
+                done += chunk.size();
+                if (listener != null)
+                    listener.progress(done, total);
+            }
+        }
+        return result;
+    }
+
+    private void send(List<Object> chunk, TorrentSettings changes, Result result, Listener listener) {
+        result.calls++;
+        try {
+            client.setTorrents(chunk.toArray(), changes);
+        } catch (IOException | JSONException | RuntimeException e) {
+            Failure failure = new Failure(new ArrayList<>(chunk), changes, e);
+            result.failures.add(failure);
+            logger.debug("Setting {} on {} torrents failed: {}", changes, chunk.size(), e.toString());
+            if (listener != null)
+                listener.failed(failure);
+            return;
+        }
+        result.updated += chunk.size();
+        for (Object id : chunk) {
+            TorrentSettings before = known.get(id);
+            TorrentSettings after = before == null ? changes : before.merge(changes);
+            known.put(id, after);
+            Object alias = aliases.get(id);
+            if (alias != null)
+                known.put(alias, after);
+        }
+    }
+
+    /**
+     * A torrent-set call that failed.
+     */
+    public static final class Failure {
+
+        private final List<Object> ids;
+        private final TorrentSettings settings;
+        private final Exception error;
+
+        Failure(List<Object> ids, TorrentSettings settings, Exception error) {
+            this.ids = Collections.unmodifiableList(ids);
+            this.settings = settings;
+            this.error = error;
+        }
+
+        public List<Object> getIds() {
+            return ids;
+        }
+
+        /**
+         * @return the settings that were to be changed
+         */
+        public TorrentSettings getSettings() {
+            return settings;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return ids.size() + " torrents " + settings + ": " + error;
+        }
+    }
+
+    /**
+     * Outcome of one {@link BulkTorrentSetter#apply(Map, Listener)}.
+     */
+    public static final class Result {
+
+        private final int unchanged;
+        private int updated;
+        private int calls;
+        private final List<Failure> failures = new ArrayList<>();
+
+        Result(int unchanged) {
+            this.unchanged = unchanged;
+        }
+
+        /**
+         * @return number of torrents which already had their settings
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        /**
+         * @return number of torrent-set calls sent
+         */
+        public int getCalls() {
+            return calls;
+        }
+
+        public List<Failure> getFailures() {
+            return Collections.unmodifiableList(failures);
+        }
+
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return updated + " updated, " + unchanged + " unchanged, " + failures.size() + " failed chunks in " + calls
+                    + " calls";
+        }
+    }
+}
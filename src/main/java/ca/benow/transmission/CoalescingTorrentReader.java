@@ -0,0 +1,233 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares torrent-get calls between threads asking for the same thing at the
+ * same time. The first caller for a set of ids and fields sends the request,
+ * callers arriving while it is in flight wait for it and get the same result
+ * instead of sending their own. Optionally the result is kept for a short
+ * freshness window, so bursts of identical reads cost one round trip.
+ * <p/>
+ * Results are shared: the returned lists are unmodifiable and the statuses
+ * in them must not be modified. Failures are passed to every waiting caller
+ * but never kept.
+ *
+ * <pre>
+ * CoalescingTorrentReader reader = new CoalescingTorrentReader(client);
+ * reader.setFreshness(500, TimeUnit.MILLISECONDS);
+ * // in every request handler
+ * List&lt;TorrentStatus&gt; torrents = reader.getAllTorrents(fields);
+ * </pre>
+ */
+public class CoalescingTorrentReader {
+
+    private static Logger logger = LoggerFactory.getLogger(CoalescingTorrentReader.class);
+
+    /** number of kept results after which expired ones are swept */
+    private static final int SWEEP_THRESHOLD = 64;
+
+    private final TransmissionClient client;
+    private final ConcurrentHashMap<Key, Flight> flights = new ConcurrentHashMap<>();
+    private volatile long freshnessNanos;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+
+    /**
+     * @param client
+     *          client to read from
+     */
+    public CoalescingTorrentReader(TransmissionClient client) {
+        this.client = client;
+    }
+
+    public TransmissionClient getClient() {
+        return client;
+    }
+
+    public long getFreshnessMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(freshnessNanos);
+    }
+
+    /**
+     * @param freshness
+     *          how long a result is handed out after it arrived, 0 (the
+     *          default) to only share requests still in flight
+     */
+    public void setFreshness(long freshness, TimeUnit unit) {
+        if (freshness < 0)
+            throw new IllegalArgumentException("freshness must not be negative");
+        this.freshnessNanos = unit.toNanos(freshness);
+        if (freshness == 0)
+            flights.clear();
+    }
+
+    /**
+     * @return number of calls made on this reader
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of torrent-get requests actually sent
+     */
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    /**
+     * @see TransmissionClient#getTorrents(int[], TorrentField[])
+     */
+    public List<TorrentStatus> getTorrents(int[] ids, TorrentField[] requestedFields) throws IOException, JSONException {
+        requests.incrementAndGet();
+        TorrentField[] fields = TransmissionClient.expandFields(requestedFields);
+        Key key = new Key(ids, fields);
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight != null && !flight.isUsable(freshnessNanos)) {
+                flights.remove(key, flight);
+                flight = null;
+            }
+            if (flight == null) {
+                Flight mine = new Flight();
+                flight = flights.putIfAbsent(key, mine);
+                if (flight == null)
+                    return fetch(key, mine, ids, fields);
+                continue;
+            }
+            return await(flight);
+        }
+    }
+
+    /**
+     * @see TransmissionClient#getAllTorrents(TorrentField[])
+     */
+    public List<TorrentStatus> getAllTorrents(TorrentField[] torrentFields) throws IOException, JSONException {
+        return getTorrents(null, torrentFields);
+    }
+
+    /**
+     * Forgets all kept results, so the next read of each goes to the daemon.
+     */
+    public void invalidate() {
+        flights.clear();
+    }
+
+    private List<TorrentStatus> fetch(Key key, Flight flight, int[] ids, TorrentField[] fields) throws IOException, JSONException {
+        fetches.incrementAndGet();
+        List<TorrentStatus> result;
+        try {
+            result = Collections.unmodifiableList(client.getTorrents(ids, fields));
+        } catch (IOException | JSONException | RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.future.completeExceptionally(e);
+            throw e;
+        }
+        flight.completedAt = System.nanoTime();
+        flight.future.complete(result);
+        if (freshnessNanos == 0)
+            flights.remove(key, flight);
+        else if (flights.size() > SWEEP_THRESHOLD)
+            sweep();
+        return result;
+    }
+
+    private List<TorrentStatus> await(Flight flight) throws IOException, JSONException {
+        try {
+            return flight.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shared torrent-get");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof JSONException)
+                throw (JSONException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void sweep() {
+        long freshness = freshnessNanos;
+        for (Iterator<Flight> it = flights.values().iterator(); it.hasNext();) {
+            if (!it.next().isUsable(freshness))
+                it.remove();
+        }
+        logger.trace("Swept kept results, {} left", flights.size());
+    }
+
+    /**
+     * A torrent-get in flight or its kept result.
+     */
+    private static final class Flight {
+
+        final CompletableFuture<List<TorrentStatus>> future = new CompletableFuture<>();
+        /** nanoTime the result arrived, valid once future is done */
+        volatile long completedAt;
+
+        boolean isUsable(long freshnessNanos) {
+            if (!future.isDone())
+                return true;
+            return !future.isCompletedExceptionally() && System.nanoTime() - completedAt < freshnessNanos;
+        }
+    }
+
+    /**
+     * Identifies a request by its ids, in any order, and its set of fields.
+     */
+    private static final class Key {
+
+        private final int[] ids;
+        private final Set<TorrentField> fields;
+        private final int hash;
+
+        Key(int[] ids, TorrentField[] fields) {
+            if (ids != null && ids.length > 0) {
+                this.ids = ids.clone();
+                Arrays.sort(this.ids);
+            } else {
+                this.ids = null;
+            }
+            this.fields = fields.length == 0 ? EnumSet.noneOf(TorrentField.class)
+                    : EnumSet.copyOf(Arrays.asList(fields));
+            this.hash = 31 * Arrays.hashCode(this.ids) + this.fields.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return hash == other.hash && Arrays.equals(ids, other.ids) && fields.equals(other.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package ca.benow.transmission;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Keeps persistent HTTP connections to a single transmission daemon, so
+ * consecutive RPCs skip the TCP (and TLS) handshake. Each
+ * {@link TransmissionClient} owns one pool, which also remembers the
+ * X-Transmission-Session-Id last handed out by the daemon, so that requests on
+ * any pooled connection go out with a valid id.
+ * <p/>
+ * Idle connections are closed once they exceed the idle timeout and are
+ * checked for a server-side close before being reused.
+ * <p/>
+ * Connections are plain sockets speaking HTTP/1.1, not HttpURLConnection.
+ * Proxies are taken from {@link ProxySelector#getDefault()}, which follows the
+ * http(s).proxyHost and socksProxyHost system properties unless replaced, with
+ * the first proxy it offers for a new connection. Plain requests go to an HTTP
+ * proxy with the daemon's absolute URL, https ones through a CONNECT tunnel.
+ * Other behaviour of HttpURLConnection is not available:
+ * <ul>
+ * <li>proxies asking for authentication (407) fail the call, and a proxy
+ * which can't be reached isn't skipped for the next one offered</li>
+ * <li>redirects are not followed, a 3xx fails the call</li>
+ * <li>only preemptive Basic authentication from the URL's user info is sent,
+ * an Authenticator is not consulted</li>
+ * <li>the http.keepAlive and http.maxConnections properties, CookieHandler
+ * and ResponseCache are ignored, use {@link #setMaxConnections(int)} and
+ * {@link #setIdleTimeout(long)} instead</li>
+ * </ul>
+ *
+ * <pre>
+ * TransmissionClient client = new TransmissionClient(&quot;seedbox&quot;);
+ * client.getConnectionPool().setMaxConnections(2);
+ * client.getConnectionPool().setIdleTimeout(10000);
+ * </pre>
+ */
+public class ConnectionPool {
+
+    private static Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    /** connections idle for less are reused without probing the socket */
+    private static final long PROBE_AFTER_IDLE = 1000;
+
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    /** the daemon as the ProxySelector is asked about it */
+    private final URI proxyUri;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Condition sessionSettled = lock.newCondition();
+    private final Deque<HttpConnection> idle = new ArrayDeque<>();
+    private final ConcurrentHashMap<Thread, HttpConnection> inUse = new ConcurrentHashMap<>();
+    private int leased;
+    private boolean closed;
+
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
+    private volatile SSLSocketFactory sslSocketFactory;
+    private volatile String sessionId;
+    /** true once a response showed which session id (if any) the daemon wants */
+    private volatile boolean sessionKnown;
+    /** guarded by lock, the thread finding out the session id */
+    private Thread handshaker;
+    /** guarded by lock, runs AsyncTransmissionClient calls */
+    private ThreadPoolExecutor asyncExecutor;
+
+    /**
+     * Creates a pool for the daemon behind the given rpc url.
+     *
+     * @param url
+     *          http or https url of the rpc endpoint
+     */
+    public ConnectionPool(URL url) {
+        String protocol = url.getProtocol();
+        if (!"http".equals(protocol) && !"https".equals(protocol))
+            throw new IllegalArgumentException("Unsupported protocol: " + protocol);
+        this.secure = "https".equals(protocol);
+        this.host = url.getHost();
+        this.port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        try {
+            this.proxyUri = new URI(protocol, null, host, port, "/", null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid host: " + host, e);
+        }
+    }
+
+    /**
+     * Borrows a connection, opening a new one if no healthy idle connection is
+     * available. Blocks while the maximum number of connections is in use.
+     *
+     * @return a connection, which must be handed back with
+     *         {@link #release(HttpConnection, boolean)}
+     * @throws IOException
+     *           if no connection could be established
+     */
+    HttpConnection lease() throws IOException {
+        HttpConnection candidate;
+        lock.lock();
+        try {
+            while (leased >= maxConnections && !closed)
+                released.await();
+            if (closed)
+                throw new IOException("Connection pool closed");
+            leased++;
+            candidate = idle.pollFirst();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection");
+        } finally {
+            lock.unlock();
+        }
+
+        long now = System.currentTimeMillis();
+        while (candidate != null) {
+            long idleFor = now - candidate.getLastUsed();
+            if (idleFor <= idleTimeout && !candidate.isStale(idleFor > PROBE_AFTER_IDLE)) {
+                inUse.put(Thread.currentThread(), candidate);
+                return candidate;
+            }
+            logger.trace("Discarding stale connection to {}:{}", host, port);
+            candidate.close();
+            lock.lock();
+            try {
+                candidate = idle.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        try {
+            Proxy proxy = selectProxy();
+            logger.trace("Opening connection to {}:{} via {}", host, port, proxy);
+            HttpConnection conn;
+            try {
+                conn = HttpConnection.open(host, port, proxy, secure ? getSslSocketFactory() : null, connectTimeout, readTimeout);
+            } catch (IOException e) {
+                ProxySelector selector = ProxySelector.getDefault();
+                if (selector != null && proxy.type() != Proxy.Type.DIRECT)
+                    selector.connectFailed(proxyUri, proxy.address(), e);
+                throw e;
+            }
+            inUse.put(Thread.currentThread(), conn);
+            return conn;
+        } catch (IOException | RuntimeException e) {
+            release(null, false);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the first proxy the default ProxySelector offers for the
+     *         daemon, {@link Proxy#NO_PROXY} if there is none
+     */
+    private Proxy selectProxy() {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null)
+            return Proxy.NO_PROXY;
+        List<Proxy> proxies = selector.select(proxyUri);
+        if (proxies == null || proxies.isEmpty())
+            return Proxy.NO_PROXY;
+        Proxy proxy = proxies.get(0);
+        if (proxy.type() != Proxy.Type.DIRECT && !(proxy.address() instanceof InetSocketAddress))
+            return Proxy.NO_PROXY;
+        return proxy;
+    }
+
+    /**
+     * Hands a connection back to the pool.
+     *
+     * @param conn
+     *          the leased connection
+     * @param reusable
+     *          false if the connection is in an unknown state and must be closed
+     */
+    void release(HttpConnection conn, boolean reusable) {
+        if (conn != null)
+            inUse.remove(Thread.currentThread(), conn);
+        lock.lock();
+        try {
+            leased--;
+            if (conn != null) {
+                if (reusable && !closed) {
+                    conn.touch();
+                    idle.addFirst(conn);
+                    evictExpired(System.currentTimeMillis());
+                } else {
+                    conn.close();
+                }
+            }
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Breaks off the request the given thread is currently performing by
+     * closing its connection, which makes any blocked read or write fail.
+     *
+     * @param thread
+     *          thread running the request
+     * @return true if the thread held a connection
+     */
+    boolean abort(Thread thread) {
+        HttpConnection conn = inUse.get(thread);
+        if (conn == null)
+            return false;
+        conn.close();
+        return true;
+    }
+
+    /**
+     * Closes idle connections which exceeded the idle timeout. This happens
+     * implicitly whenever a connection is returned, so it is only needed to
+     * free sockets of a pool which is not used any more.
+     */
+    public void closeIdleConnections() {
+        lock.lock();
+        try {
+            evictExpired(System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<HttpConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            HttpConnection curr = it.next();
+            if (now - curr.getLastUsed() > idleTimeout || idle.size() > maxConnections) {
+                it.remove();
+                curr.close();
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections and refuses further leases. Connections
+     * currently in use are closed when they are released.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (asyncExecutor != null)
+                asyncExecutor.shutdown();
+            for (HttpConnection curr : idle) {
+                curr.close();
+            }
+            idle.clear();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the executor of async calls without one of their own, with a
+     *         thread per connection, which end when idle
+     */
+    ThreadPoolExecutor getAsyncExecutor(ThreadFactory threads) {
+        lock.lock();
+        try {
+            if (asyncExecutor == null) {
+                asyncExecutor = new ThreadPoolExecutor(maxConnections, maxConnections, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), threads);
+                asyncExecutor.allowCoreThreadTimeOut(true);
+                if (closed)
+                    asyncExecutor.shutdown();
+            }
+            return asyncExecutor;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns the session id to send. Until the daemon answered a first
+     * request, only one thread is let through to find out the id, while the
+     * others wait for it instead of all collecting a 409.
+     *
+     * @return the current session id, null if unknown or not required
+     * @throws InterruptedIOException
+     *           if interrupted while waiting for the handshake
+     */
+    String awaitSessionId() throws InterruptedIOException {
+        if (sessionKnown)
+            return sessionId;
+        lock.lock();
+        try {
+            while (!sessionKnown && handshaker != null && handshaker != Thread.currentThread())
+                sessionSettled.await();
+            if (!sessionKnown)
+                handshaker = Thread.currentThread();
+            return sessionId;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for session id");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the id from a 409 response. If another thread renewed the id in
+     * the meantime, the newer id is kept.
+     *
+     * @param rejectedId
+     *          the id the rejected request was sent with
+     * @param newId
+     *          the id the daemon handed out
+     */
+    void renewSessionId(String rejectedId, String newId) {
+        lock.lock();
+        try {
+            if (!sessionKnown || eq(sessionId, rejectedId))
+                sessionId = newId;
+            settle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a request was accepted with the id it was sent with.
+     */
+    void confirmSessionId() {
+        if (sessionKnown)
+            return;
+        lock.lock();
+        try {
+            settle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the handshake to a waiting thread if the current thread failed to
+     * get any answer.
+     */
+    void abandonHandshake() {
+        if (sessionKnown)
+            return;
+        lock.lock();
+        try {
+            if (handshaker == Thread.currentThread()) {
+                handshaker = null;
+                sessionSettled.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void settle() {
+        sessionKnown = true;
+        handshaker = null;
+        sessionSettled.signalAll();
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections
+     *          maximum number of simultaneous connections to the daemon
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("At least one connection is required");
+        lock.lock();
+        try {
+            this.maxConnections = maxConnections;
+            if (asyncExecutor != null) {
+                // the core size must never exceed the maximum
+                if (maxConnections > asyncExecutor.getMaximumPoolSize()) {
+                    asyncExecutor.setMaximumPoolSize(maxConnections);
+                    asyncExecutor.setCorePoolSize(maxConnections);
+                } else {
+                    asyncExecutor.setCorePoolSize(maxConnections);
+                    asyncExecutor.setMaximumPoolSize(maxConnections);
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout
+     *          milliseconds after which an unused connection is closed
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param timeout
+     *          the timeout
+     * @param unit
+     *          unit of timeout
+     */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        setIdleTimeout(unit.toMillis(timeout));
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout
+     *          milliseconds to wait for a connection to be established, 0 for
+     *          no limit
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Applies to connections opened afterwards.
+     *
+     * @param readTimeout
+     *          milliseconds to wait for response data, 0 for no limit
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return factory https connections are opened with, the JVM's default
+     *         unless set
+     */
+    public SSLSocketFactory getSslSocketFactory() {
+        SSLSocketFactory result = sslSocketFactory;
+        return result != null ? result : (SSLSocketFactory) SSLSocketFactory.getDefault();
+    }
+
+    /**
+     * Applies to connections opened afterwards. The daemon's certificate is
+     * still checked against its host name.
+     *
+     * @param sslSocketFactory
+     *          factory for https connections, e.g. from an SSLContext trusting
+     *          a self-signed daemon certificate; null for the JVM's default
+     */
+    public void setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    /**
+     * @return number of connections currently handed out
+     */
+    public int getLeasedCount() {
+        lock.lock();
+        try {
+            return leased;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of open connections waiting for reuse
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
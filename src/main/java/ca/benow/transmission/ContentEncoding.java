@@ -0,0 +1,116 @@
+package ca.benow.transmission;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content codings of message bodies: gzip and deflate encoded responses are
+ * decoded while they are read, requests can be sent gzip encoded.
+ */
+final class ContentEncoding {
+
+    /** value of the Accept-Encoding header */
+    static final String ACCEPT = "gzip, deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private ContentEncoding() { }
+
+    /**
+     * @param encoding
+     *          value of the Content-Encoding header, may be null
+     * @param body
+     *          the body as received
+     * @return a stream decoding the body, the body itself if it isn't encoded.
+     *         Closing it releases the decoder but not the body.
+     * @throws IOException
+     *           if the coding is unknown or the header malformed
+     */
+    static InputStream decode(String encoding, InputStream body) throws IOException {
+        if (encoding == null)
+            return body;
+        String coding = encoding.trim().toLowerCase(Locale.ROOT);
+        if (coding.isEmpty() || coding.equals("identity"))
+            return body;
+        if (coding.equals("gzip") || coding.equals("x-gzip"))
+            return new GZIPInputStream(body, BUFFER_SIZE);
+        if (coding.equals("deflate"))
+            return inflate(body);
+        throw new IOException("Unsupported Content-Encoding: " + encoding);
+    }
+
+    /**
+     * Deflate is meant to be zlib wrapped, but some servers send raw deflate
+     * data, so the wrapping is detected from the first two bytes.
+     */
+    private static InputStream inflate(InputStream body) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        byte[] head = new byte[2];
+        int read = 0;
+        while (read < 2) {
+            int curr = in.read(head, read, 2 - read);
+            if (curr == -1)
+                break;
+            read += curr;
+        }
+        in.unread(head, 0, read);
+        boolean zlib = read == 2 && (head[0] & 0x0f) == 8 && (((head[0] & 0xff) << 8) | (head[1] & 0xff)) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                // the inflater isn't ours to end by default
+                inflater.end();
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * @return the given bytes gzip compressed
+     */
+    static RequestBuffer gzip(byte[] buf, int len) {
+        RequestBuffer result = new RequestBuffer();
+        try (GZIPOutputStream out = new GZIPOutputStream(result, BUFFER_SIZE)) {
+            out.write(buf, 0, len);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    static final class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1)
+                count++;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                count += read;
+            return read;
+        }
+    }
+}
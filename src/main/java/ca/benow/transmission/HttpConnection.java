@@ -0,0 +1,261 @@
+package ca.benow.transmission;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A single persistent HTTP/1.1 connection to a transmission daemon. Instances
+ * are handed out by a {@link ConnectionPool} and returned to it once the
+ * response has been read completely.
+ */
+final class HttpConnection {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final Socket socket;
+    /** prepended to the path, with the Host header, when talking to an HTTP proxy */
+    private final String requestTargetPrefix;
+    private final InputStream in;
+    private final OutputStream out;
+    private long lastUsed;
+    private int requestCount;
+    private boolean responseStarted;
+
+    private HttpConnection(Socket socket, String requestTargetPrefix) throws IOException {
+        this.socket = socket;
+        this.requestTargetPrefix = requestTargetPrefix;
+        this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Connects to the daemon, doing the TLS handshake right away for secure
+     * connections. The certificate must be valid for the host, as with
+     * HttpsURLConnection.
+     * <p/>
+     * Through an HTTP proxy, plain requests are sent to the proxy with the
+     * daemon's absolute URL, secure ones go through a CONNECT tunnel. SOCKS
+     * proxies are left to the socket.
+     *
+     * @param proxy
+     *          proxy to connect through, {@link Proxy#NO_PROXY} to connect
+     *          directly
+     * @param sslSocketFactory
+     *          factory layering TLS over the socket, null for plain http
+     * @throws javax.net.ssl.SSLException
+     *           if the handshake fails or the certificate doesn't match the
+     *           host
+     */
+    static HttpConnection open(String host, int port, Proxy proxy, SSLSocketFactory sslSocketFactory, int connectTimeout, int readTimeout) throws IOException {
+        boolean httpProxy = proxy.type() == Proxy.Type.HTTP;
+        Socket socket = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            if (httpProxy)
+                socket.connect(proxy.address(), connectTimeout);
+            else if (proxy.type() == Proxy.Type.SOCKS)
+                socket.connect(InetSocketAddress.createUnresolved(host, port), connectTimeout);
+            else
+                socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket.setSoTimeout(readTimeout);
+            if (sslSocketFactory != null) {
+                if (httpProxy)
+                    tunnel(socket, host, port);
+                SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+                socket = ssl;
+                SSLParameters params = ssl.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                if (!isIpLiteral(host))
+                    params.setServerNames(Collections.<SNIServerName>singletonList(new SNIHostName(host)));
+                ssl.setSSLParameters(params);
+                ssl.startHandshake();
+            }
+            return new HttpConnection(socket, httpProxy && sslSocketFactory == null ? "http://" : null);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Asks an HTTP proxy for a tunnel to the daemon. The response is read
+     * unbuffered, the TLS handshake follows on the same stream.
+     */
+    private static void tunnel(Socket socket, String host, int port) throws IOException {
+        String authority = (host.indexOf(':') != -1 && !host.startsWith("[") ? "[" + host + "]" : host) + ":" + port;
+        OutputStream out = socket.getOutputStream();
+        out.write(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        StringBuilder statusLine = new StringBuilder();
+        boolean inStatusLine = true;
+        // the last four bytes read, the head ends with CRLF CRLF
+        int last = 0;
+        while (last != 0x0d0a0d0a) {
+            int b = in.read();
+            if (b == -1)
+                throw new IOException("Proxy closed the connection while tunnelling to " + authority);
+            if (b == '\r' || b == '\n')
+                inStatusLine = false;
+            else if (inStatusLine)
+                statusLine.append((char) b);
+            last = (last << 8) | b;
+        }
+        String[] parts = statusLine.toString().split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/") || !parts[1].equals("200"))
+            throw new IOException("Unable to tunnel through proxy. Proxy returns \"" + statusLine + "\"");
+    }
+
+    /**
+     * SNI only takes host names, addresses are verified against the
+     * certificate's IP entries instead.
+     */
+    static boolean isIpLiteral(String host) {
+        if (host.indexOf(':') != -1 || host.startsWith("["))
+            return true;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes a POST request with the given body.
+     *
+     * @param path
+     *          request path, including query
+     * @param hostHeader
+     *          value of the Host header
+     * @param headers
+     *          additional header name/value pairs, null values are skipped
+     * @param body
+     *          request body
+     * @param len
+     *          number of body bytes to send
+     * @throws IOException
+     *           on problem writing to the socket
+     */
+    void post(String path, String hostHeader, String[] headers, byte[] body, int len) throws IOException {
+        requestCount++;
+        responseStarted = false;
+        if (requestTargetPrefix == null)
+            writeAscii("POST " + path + " HTTP/1.1");
+        else
+            writeAscii("POST " + requestTargetPrefix + hostHeader + path + " HTTP/1.1");
+        writeAscii("Host: " + hostHeader);
+        writeAscii("Connection: keep-alive");
+        writeAscii("Content-Type: application/json");
+        writeAscii("Content-Length: " + len);
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            if (headers[i + 1] != null)
+                writeAscii(headers[i] + ": " + headers[i + 1]);
+        }
+        out.write(CRLF);
+        out.write(body, 0, len);
+        out.flush();
+    }
+
+    HttpResponse readResponse() throws IOException {
+        in.mark(1);
+        if (in.read() != -1)
+            responseStarted = true;
+        in.reset();
+        return HttpResponse.read(in);
+    }
+
+    /**
+     * Tells whether a failed exchange may be sent again on a new connection.
+     * That is only the case if it failed while the request was written or
+     * before any byte of the response arrived, but not on a read timeout, as
+     * a slow daemon may still be working on the request.
+     *
+     * @param e
+     *          the failure of the current exchange
+     */
+    boolean isRetryable(IOException e) {
+        return !responseStarted && !(e instanceof SocketTimeoutException);
+    }
+
+    /**
+     * @return true if this connection has served at least one request before
+     *         the current one
+     */
+    boolean isReused() {
+        return requestCount > 1;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Checks whether an idle connection is still usable. The daemon closes
+     * keep-alive connections on its own schedule, which only shows as an EOF
+     * (or stray data) on the otherwise quiet socket.
+     *
+     * @param probe
+     *          if true, briefly block on the socket to detect a close which
+     *          hasn't been noticed yet
+     * @return true if the connection must not be reused
+     */
+    boolean isStale(boolean probe) {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown())
+            return true;
+        try {
+            if (in.available() > 0)
+                return true;
+            if (!probe)
+                return false;
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                // either EOF or bytes nobody asked for, both mean the peer moved on
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+
+    private void writeAscii(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(CRLF);
+    }
+}
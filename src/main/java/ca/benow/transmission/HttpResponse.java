@@ -0,0 +1,280 @@
+package ca.benow.transmission;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Status, headers and body of a HTTP/1.1 response read from a
+ * {@link HttpConnection}. The body stream is bounded by the response framing
+ * (Content-Length or chunked), so closing it leaves the connection positioned
+ * at the next response.
+ */
+final class HttpResponse {
+
+    /** bodies up to this size are drained on close to keep the connection */
+    private static final long MAX_DRAIN = 64 * 1024;
+
+    final int status;
+    final String reason;
+    private final Map<String, String> headers;
+    private final BodyInputStream body;
+    private final boolean keepAlive;
+
+    private HttpResponse(int status, String reason, Map<String, String> headers, BodyInputStream body, boolean keepAlive) {
+        this.status = status;
+        this.reason = reason;
+        this.headers = headers;
+        this.body = body;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Reads the next final response. Interim 1xx responses, such as the 100
+     * Continue some proxies send unasked, are skipped.
+     *
+     * @throws IOException
+     *           if the response is malformed or the connection closed within
+     *           its head
+     */
+    static HttpResponse read(InputStream in) throws IOException {
+        for (;;) {
+            HttpResponse response = readHead(in);
+            if (response.status == 101)
+                throw new IOException("Unexpected protocol switch: " + response.status + " " + response.reason);
+            if (response.status >= 200)
+                return response;
+        }
+    }
+
+    private static HttpResponse readHead(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null)
+            throw new EOFException("Connection closed before response");
+        // HTTP/1.1 200 OK
+        int sp1 = statusLine.indexOf(' ');
+        if (sp1 < 0 || !statusLine.startsWith("HTTP/"))
+            throw new IOException("Malformed status line: " + statusLine);
+        int sp2 = statusLine.indexOf(' ', sp1 + 1);
+        int status;
+        try {
+            status = Integer.parseInt(statusLine.substring(sp1 + 1, sp2 < 0 ? statusLine.length() : sp2).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        if (status < 100 || status > 999)
+            throw new IOException("Malformed status line: " + statusLine);
+        String reason = sp2 < 0 ? "" : statusLine.substring(sp2 + 1);
+
+        Map<String, String> headers = new HashMap<>();
+        String line = readLine(in);
+        while (line != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            line = readLine(in);
+        }
+        if (line == null)
+            throw new EOFException("Connection closed within response headers");
+
+        boolean http10 = statusLine.startsWith("HTTP/1.0");
+        String connection = headers.get("connection");
+        boolean keepAlive = http10 ? "keep-alive".equalsIgnoreCase(connection) : !"close".equalsIgnoreCase(connection);
+
+        BodyInputStream body;
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLength = headers.get("content-length");
+        if (status == 204 || status == 304 || (status >= 100 && status < 200)) {
+            body = new LengthInputStream(in, 0);
+        } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            body = new ChunkedInputStream(in);
+        } else if (contentLength != null) {
+            try {
+                body = new LengthInputStream(in, Long.parseLong(contentLength));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + contentLength);
+            }
+        } else {
+            // delimited by connection close
+            body = new LengthInputStream(in, Long.MAX_VALUE);
+            keepAlive = false;
+        }
+        return new HttpResponse(status, reason, headers, body, keepAlive);
+    }
+
+    /**
+     * @param name
+     *          header name, case insensitive
+     * @return header value or null if absent
+     */
+    String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * @return number of body bytes read so far
+     */
+    long getBodyBytes() {
+        return body.bytesRead;
+    }
+
+    /**
+     * Skips what is left of a small body, so the connection can be reused.
+     *
+     * @return true if the connection may serve another request
+     */
+    boolean finish() {
+        if (!keepAlive)
+            return false;
+        try {
+            return body.drain(MAX_DRAIN);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int c = in.read();
+        if (c == -1)
+            return null;
+        while (c != -1 && c != '\n') {
+            if (c != '\r')
+                line.write(c);
+            c = in.read();
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private abstract static class BodyInputStream extends InputStream {
+
+        protected final InputStream in;
+        long bytesRead;
+
+        BodyInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int read = read(one, 0, 1);
+            return read == -1 ? -1 : one[0] & 0xff;
+        }
+
+        /**
+         * @return true if the end of the body was reached within the limit
+         */
+        boolean drain(long limit) throws IOException {
+            byte[] buff = new byte[4096];
+            long skipped = 0;
+            int read = read(buff, 0, buff.length);
+            while (read != -1) {
+                skipped += read;
+                if (skipped > limit)
+                    return false;
+                read = read(buff, 0, buff.length);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // the underlying stream belongs to the connection
+        }
+    }
+
+    private static final class LengthInputStream extends BodyInputStream {
+
+        private long remaining;
+
+        LengthInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                if (remaining != Long.MAX_VALUE)
+                    throw new EOFException("Connection closed with " + remaining + " bytes of body outstanding");
+                remaining = 0;
+                return -1;
+            }
+            if (remaining != Long.MAX_VALUE)
+                remaining -= read;
+            bytesRead += read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+
+    private static final class ChunkedInputStream extends BodyInputStream {
+
+        private long chunkRemaining;
+        private boolean eof;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof)
+                return -1;
+            if (chunkRemaining == 0) {
+                nextChunk();
+                if (eof)
+                    return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (read == -1)
+                throw new EOFException("Connection closed within chunk");
+            chunkRemaining -= read;
+            bytesRead += read;
+            if (chunkRemaining == 0)
+                readLine(in); // CRLF after chunk data
+            return read;
+        }
+
+        private void nextChunk() throws IOException {
+            String line = readLine(in);
+            if (line == null)
+                throw new EOFException("Connection closed before chunk header");
+            int ext = line.indexOf(';');
+            try {
+                chunkRemaining = Long.parseLong((ext < 0 ? line : line.substring(0, ext)).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk header: " + line);
+            }
+            if (chunkRemaining == 0) {
+                eof = true;
+                // trailers end with an empty line
+                String trailer = readLine(in);
+                while (trailer != null && trailer.length() > 0)
+                    trailer = readLine(in);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return eof ? 0 : (int) Math.min(in.available(), chunkRemaining);
+        }
+    }
+}
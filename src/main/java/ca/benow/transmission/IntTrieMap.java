@@ -0,0 +1,219 @@
+package ca.benow.transmission;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map with int keys, updated by copying only the nodes on the path
+ * to the changed key. It is a trie of 32-way nodes, each level indexed by 5
+ * bits of the key, only as deep as the largest key needs, so small dense keys
+ * like torrent ids take two or three levels. Keys compare unsigned and are
+ * iterated in ascending order. Null values are not supported.
+ */
+final class IntTrieMap<V> extends AbstractMap<Integer, V> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final IntTrieMap<Object> EMPTY = new IntTrieMap<>(null, 0, 0);
+
+    /** null when empty */
+    private final Object[] root;
+    /** key bits below the root level */
+    private final int shift;
+    private final int size;
+
+    private IntTrieMap(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> IntTrieMap<V> empty() {
+        return (IntTrieMap<V>) EMPTY;
+    }
+
+    private static boolean fits(int key, int shift) {
+        return shift + BITS >= Integer.SIZE || key >>> (shift + BITS) == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        if (root == null || !fits(key, shift))
+            return null;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(key >>> level) & MASK];
+            if (node == null)
+                return null;
+        }
+        return (V) node[key & MASK];
+    }
+
+    /**
+     * @return a map with the key set to the value, sharing all nodes off the
+     *         key's path with this one
+     */
+    IntTrieMap<V> with(int key, V value) {
+        if (value == null)
+            throw new NullPointerException("value");
+        Object[] node = root;
+        int level = shift;
+        if (node == null) {
+            while (!fits(key, level))
+                level += BITS;
+        } else {
+            // the old root becomes the first child, its keys have zeros above it
+            while (!fits(key, level)) {
+                Object[] parent = new Object[WIDTH];
+                parent[0] = node;
+                node = parent;
+                level += BITS;
+            }
+        }
+        boolean[] added = new boolean[1];
+        Object[] updated = put(node, level, key, value, added);
+        return new IntTrieMap<>(updated, level, added[0] ? size + 1 : size);
+    }
+
+    private static Object[] put(Object[] node, int level, int key, Object value, boolean[] added) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int index = (key >>> level) & MASK;
+        if (level == 0) {
+            added[0] = copy[index] == null;
+            copy[index] = value;
+        } else {
+            copy[index] = put((Object[]) copy[index], level - BITS, key, value, added);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a map without the key, this one if it doesn't have the key
+     */
+    IntTrieMap<V> without(int key) {
+        if (root == null || !fits(key, shift))
+            return this;
+        Object[] updated = remove(root, shift, key);
+        if (updated == root)
+            return this;
+        if (updated == null)
+            return empty();
+        return new IntTrieMap<>(updated, shift, size - 1);
+    }
+
+    /**
+     * @return the node itself if the key is missing, null if the node became
+     *         empty
+     */
+    private static Object[] remove(Object[] node, int level, int key) {
+        int index = (key >>> level) & MASK;
+        Object child = node[index];
+        if (child == null)
+            return node;
+        Object replacement = level == 0 ? null : remove((Object[]) child, level - BITS, key);
+        if (replacement == child)
+            return node;
+        Object[] copy = node.clone();
+        copy[index] = replacement;
+        for (Object curr : copy) {
+            if (curr != null)
+                return copy;
+        }
+        return null;
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, V>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Depth first walk, keeping the node and next child index of each level.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<Integer, V>> {
+
+        private final Object[][] nodes = new Object[shift / BITS + 1][];
+        private final int[] indexes = new int[nodes.length];
+        private int depth;
+        private Map.Entry<Integer, V> next;
+
+        EntryIterator() {
+            if (root == null)
+                depth = -1;
+            else
+                nodes[0] = root;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                if (indexes[depth] == WIDTH) {
+                    depth--;
+                    continue;
+                }
+                Object child = nodes[depth][indexes[depth]++];
+                if (child == null)
+                    continue;
+                if (depth == nodes.length - 1) {
+                    int key = 0;
+                    for (int level = 0; level < nodes.length; level++) {
+                        key |= (indexes[level] - 1) << (shift - level * BITS);
+                    }
+                    next = new SimpleImmutableEntry<>(key, (V) child);
+                    return;
+                }
+                depth++;
+                nodes[depth] = (Object[]) child;
+                indexes[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<Integer, V> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Map.Entry<Integer, V> result = next;
+            advance();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.TransmissionCluster.Node;
+
+/**
+ * Load of one daemon as last sampled by a {@link TorrentPlacement}.
+ * Instances are immutable.
+ */
+public final class NodeMetrics {
+
+    private final Node node;
+    private final int torrentCount;
+    private final int activeTorrentCount;
+    private final long downloadSpeed;
+    private final long uploadSpeed;
+    private final int peerLimitGlobal;
+    private final long freeSpace;
+    private final long sampledAt;
+
+    NodeMetrics(Node node, int torrentCount, int activeTorrentCount, long downloadSpeed, long uploadSpeed,
+            int peerLimitGlobal, long freeSpace, long sampledAt) {
+        this.node = node;
+        this.torrentCount = torrentCount;
+        this.activeTorrentCount = activeTorrentCount;
+        this.downloadSpeed = downloadSpeed;
+        this.uploadSpeed = uploadSpeed;
+        this.peerLimitGlobal = peerLimitGlobal;
+        this.freeSpace = freeSpace;
+        this.sampledAt = sampledAt;
+    }
+
+    /**
+     * @return metrics accounting for one more active torrent, until the next
+     *         sample replaces them
+     */
+    NodeMetrics withAddedTorrent() {
+        return new NodeMetrics(node, torrentCount + 1, activeTorrentCount + 1, downloadSpeed, uploadSpeed,
+                peerLimitGlobal, freeSpace, sampledAt);
+    }
+
+    public Node getNode() {
+        return node;
+    }
+
+    public int getTorrentCount() {
+        return torrentCount;
+    }
+
+    public int getActiveTorrentCount() {
+        return activeTorrentCount;
+    }
+
+    /**
+     * @return download speed in bytes per second
+     */
+    public long getDownloadSpeed() {
+        return downloadSpeed;
+    }
+
+    /**
+     * @return upload speed in bytes per second
+     */
+    public long getUploadSpeed() {
+        return uploadSpeed;
+    }
+
+    /**
+     * @return the daemon's peer-limit-global, 0 if unknown
+     */
+    public int getPeerLimitGlobal() {
+        return peerLimitGlobal;
+    }
+
+    /**
+     * @return free bytes in the daemon's download dir, -1 if unknown
+     */
+    public long getFreeSpace() {
+        return freeSpace;
+    }
+
+    /**
+     * @return time of the sample in milliseconds since the epoch
+     */
+    public long getSampledAt() {
+        return sampledAt;
+    }
+
+    @Override
+    public String toString() {
+        return node + ": " + activeTorrentCount + "/" + torrentCount + " active, down " + downloadSpeed + " B/s, up "
+                + uploadSpeed + " B/s, peer limit " + peerLimitGlobal + ", free " + freeSpace;
+    }
+}
@@ -0,0 +1,175 @@
+package ca.benow.transmission;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Decides which daemon of a cluster gets a new torrent, see
+ * {@link TorrentPlacement}.
+ */
+public interface PlacementStrategy {
+
+    /**
+     * @param candidates
+     *          metrics of the nodes which may take the torrent, never empty
+     * @param key
+     *          placement key of the torrent, usually its info hash; null if
+     *          unknown
+     * @return the chosen node's metrics, one of candidates
+     */
+    NodeMetrics select(List<NodeMetrics> candidates, String key);
+
+    /**
+     * Picks the node with the fewest active torrents, on a tie the one with
+     * the least traffic.
+     */
+    final class LeastLoaded implements PlacementStrategy {
+
+        @Override
+        public NodeMetrics select(List<NodeMetrics> candidates, String key) {
+            NodeMetrics best = null;
+            for (NodeMetrics curr : candidates) {
+                if (best == null || curr.getActiveTorrentCount() < best.getActiveTorrentCount()
+                        || (curr.getActiveTorrentCount() == best.getActiveTorrentCount()
+                        && traffic(curr) < traffic(best)))
+                    best = curr;
+            }
+            return best;
+        }
+
+        private static long traffic(NodeMetrics metrics) {
+            return metrics.getDownloadSpeed() + metrics.getUploadSpeed();
+        }
+    }
+
+    /**
+     * Places torrents on nodes by consistent hashing of their key, so the same
+     * torrent always lands on the same node and adding or losing a node only
+     * moves the torrents of that node. Torrents without key are placed
+     * least-loaded.
+     */
+    final class ConsistentHash implements PlacementStrategy {
+
+        private final int virtualNodes;
+        private final PlacementStrategy fallback = new LeastLoaded();
+        private volatile Ring ring;
+
+        public ConsistentHash() {
+            this(128);
+        }
+
+        /**
+         * @param virtualNodes
+         *          points per node on the hash ring, more spread the keys more
+         *          evenly
+         */
+        public ConsistentHash(int virtualNodes) {
+            if (virtualNodes < 1)
+                throw new IllegalArgumentException("virtualNodes must be positive");
+            this.virtualNodes = virtualNodes;
+        }
+
+        @Override
+        public NodeMetrics select(List<NodeMetrics> candidates, String key) {
+            if (key == null)
+                return fallback.select(candidates, null);
+            String[] names = new String[candidates.size()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = candidates.get(i).getNode().getName();
+            Arrays.sort(names);
+            Ring curr = ring;
+            if (curr == null || !Arrays.equals(curr.names, names))
+                ring = curr = new Ring(names, virtualNodes);
+            String name = curr.lookup(hash(key.toLowerCase()));
+            for (NodeMetrics candidate : candidates) {
+                if (candidate.getNode().getName().equals(name))
+                    return candidate;
+            }
+            throw new IllegalStateException("Ring out of sync with candidates");
+        }
+
+        private static long hash(String value) {
+            try {
+                byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+                long result = 0;
+                for (int i = 0; i < 8; i++)
+                    result = (result << 8) | (digest[i] & 0xff);
+                return result;
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static final class Ring {
+
+            final String[] names;
+            final TreeMap<Long, String> points = new TreeMap<>();
+
+            Ring(String[] names, int virtualNodes) {
+                this.names = names;
+                for (String name : names) {
+                    for (int i = 0; i < virtualNodes; i++)
+                        points.put(hash(name + "#" + i), name);
+                }
+            }
+
+            String lookup(long hash) {
+                Map.Entry<Long, String> entry = points.ceilingEntry(hash);
+                return entry != null ? entry.getValue() : points.firstEntry().getValue();
+            }
+        }
+    }
+
+    /**
+     * Spreads active torrents in proportion to per-node weights, picking the
+     * node with the fewest active torrents per unit of weight. Nodes without
+     * configured weight are weighted by their peer-limit-global.
+     */
+    final class Weighted implements PlacementStrategy {
+
+        private final Map<String, Double> weights;
+
+        public Weighted() {
+            this(Collections.<String, Double>emptyMap());
+        }
+
+        /**
+         * @param weights
+         *          weight by node name
+         */
+        public Weighted(Map<String, Double> weights) {
+            this.weights = new HashMap<>(weights);
+        }
+
+        @Override
+        public NodeMetrics select(List<NodeMetrics> candidates, String key) {
+            NodeMetrics best = null;
+            double bestScore = Double.MAX_VALUE;
+            for (NodeMetrics curr : candidates) {
+                double weight = weight(curr);
+                if (weight <= 0)
+                    continue;
+                double score = (curr.getActiveTorrentCount() + 1) / weight;
+                if (score < bestScore) {
+                    best = curr;
+                    bestScore = score;
+                }
+            }
+            return best != null ? best : candidates.get(0);
+        }
+
+        private double weight(NodeMetrics metrics) {
+            Double weight = weights.get(metrics.getNode().getName());
+            if (weight != null)
+                return weight;
+            return Math.max(1, metrics.getPeerLimitGlobal());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ca.benow.transmission;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Holds the serialized body of a single RPC request. The body is written once
+ * as compact UTF-8 and can then be sent any number of times, e.g. again after
+ * the daemon asked for a new session id.
+ */
+final class RequestBuffer extends ByteArrayOutputStream {
+
+    /** RPC method of the request, for instrumentation */
+    String method;
+    int tag;
+    long serializeNanos;
+    private RequestBuffer gzipped;
+
+    RequestBuffer() {
+        super(512);
+    }
+
+    /**
+     * Serializes the given command without indentation.
+     *
+     * @param command
+     *          the request envelope
+     * @return the buffer holding the serialized request
+     * @throws JSONException
+     *           if the command holds values which can't be serialized
+     */
+    static RequestBuffer of(JSONObject command) throws JSONException {
+        RequestBuffer buffer = new RequestBuffer();
+        Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+        command.write(writer);
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return buffer;
+    }
+
+    /**
+     * Serializes a command whose arguments hold one member too large to be
+     * built as String first. The member's value is written straight into the
+     * buffer.
+     *
+     * @param command
+     *          the request envelope without arguments
+     * @param args
+     *          the arguments, without the streamed member
+     * @param member
+     *          name of the streamed member
+     * @param value
+     *          writes the member's value
+     * @return the buffer holding the serialized request
+     * @throws IOException
+     *           if the value can't be read
+     * @throws JSONException
+     *           if the command holds values which can't be serialized
+     */
+    static RequestBuffer of(JSONObject command, JSONObject args, String member, StreamedValue value) throws IOException, JSONException {
+        RequestBuffer buffer = new RequestBuffer();
+        Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+        command.write(writer);
+        writer.flush();
+        // reopen the envelope and then the arguments, compact output ends with '}'
+        buffer.count--;
+        writer.write(command.length() > 0 ? ",\"arguments\":" : "\"arguments\":");
+        args.write(writer);
+        writer.flush();
+        buffer.count--;
+        if (args.length() > 0)
+            writer.write(',');
+        writer.write(JSONObject.quote(member));
+        writer.write(":\"");
+        writer.flush();
+        value.writeTo(buffer);
+        writer.write("\"}}");
+        writer.flush();
+        return buffer;
+    }
+
+    /**
+     * Writes the content of a JSON string, which must not need any escaping.
+     */
+    interface StreamedValue {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * @return the backing array, valid up to {@link #size()}
+     */
+    byte[] array() {
+        return buf;
+    }
+
+    /**
+     * @return the body gzip compressed, compressed only once however often the
+     *         request is sent
+     */
+    synchronized RequestBuffer gzipped() {
+        if (gzipped == null)
+            gzipped = ContentEncoding.gzip(buf, count);
+        return gzipped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new String(buf, 0, count, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+package ca.benow.transmission;
+
+/**
+ * Receives a {@link RpcSample} for every RPC a {@link TransmissionClient}
+ * makes, installed with
+ * {@link TransmissionClient#setInstrumentation(RpcInstrumentation)}. Nothing
+ * is measured while no instrumentation is installed.
+ * <p/>
+ * {@link #record(RpcSample)} is called on the thread that made the call, right
+ * after it finished or failed, and must be fast and thread-safe.
+ * {@link RpcMetrics} aggregates the samples per method, RpcFlightRecorder of
+ * the optional transmission-java-lib-jfr artifact turns them into JFR events.
+ */
+public interface RpcInstrumentation {
+
+    /**
+     * Called on the calling thread right before the request is sent. Only the
+     * method, tag, URL and request size of the sample are set.
+     *
+     * @param sample
+     *          the sample which will be passed to {@link #record(RpcSample)}
+     */
+    default void begin(RpcSample sample) {
+    }
+
+    /**
+     * @param sample
+     *          measurements of the call, only valid during this method
+     */
+    void record(RpcSample sample);
+
+    /**
+     * @return instrumentation handing each sample to all of the given ones in
+     *         turn
+     */
+    static RpcInstrumentation compose(final RpcInstrumentation... instrumentations) {
+        final RpcInstrumentation[] copy = instrumentations.clone();
+        return new RpcInstrumentation() {
+            @Override
+            public void begin(RpcSample sample) {
+                for (RpcInstrumentation curr : copy) {
+                    curr.begin(sample);
+                }
+            }
+
+            @Override
+            public void record(RpcSample sample) {
+                for (RpcInstrumentation curr : copy) {
+                    curr.record(sample);
+                }
+            }
+        };
+    }
+}
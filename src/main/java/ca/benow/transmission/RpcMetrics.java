@@ -0,0 +1,419 @@
+package ca.benow.transmission;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Aggregates the RPCs of a client per method: call, error and retry counts,
+ * and histograms of the phase latencies, message sizes and torrent counts.
+ * Recording a sample only increments counters, it doesn't allocate once a
+ * method has been seen, so the metrics can stay on in production.
+ *
+ * <pre>
+ * RpcMetrics metrics = new RpcMetrics();
+ * client.setInstrumentation(metrics);
+ * metrics.registerMBean(&quot;nas&quot;);
+ * ...
+ * RpcMetrics.MethodSnapshot get = metrics.snapshot().get(&quot;torrent-get&quot;);
+ * System.out.println(get.getCalls() + &quot; calls, p99 &quot; + get.getTotalNanos().getP99() / 1000000 + &quot;ms&quot;);
+ * </pre>
+ *
+ * Histograms have power-of-two buckets, so percentiles are exact to within a
+ * factor of two.
+ */
+public class RpcMetrics implements RpcInstrumentation, RpcMetricsMXBean {
+
+    private final ConcurrentHashMap<String, MethodStats> methods = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(RpcSample sample) {
+        String method = sample.method;
+        MethodStats stats = methods.get(method);
+        if (stats == null)
+            stats = methods.computeIfAbsent(method, name -> new MethodStats());
+        stats.record(sample);
+    }
+
+    /**
+     * @return snapshots of all methods called so far, by method name
+     */
+    public Map<String, MethodSnapshot> snapshot() {
+        Map<String, MethodSnapshot> result = new TreeMap<>();
+        for (Map.Entry<String, MethodStats> entry : methods.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, MethodSnapshot> getMethods() {
+        return snapshot();
+    }
+
+    @Override
+    public long getCalls() {
+        long result = 0;
+        for (MethodStats curr : methods.values()) {
+            result += curr.calls.get();
+        }
+        return result;
+    }
+
+    @Override
+    public long getErrors() {
+        long result = 0;
+        for (MethodStats curr : methods.values()) {
+            result += curr.errors.get();
+        }
+        return result;
+    }
+
+    @Override
+    public long getSessionRetries() {
+        long result = 0;
+        for (MethodStats curr : methods.values()) {
+            result += curr.sessionRetries.get();
+        }
+        return result;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    @Override
+    public void reset() {
+        methods.clear();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * ca.benow.transmission:type=RpcMetrics,name=<i>name</i>.
+     *
+     * @param name
+     *          name telling clients apart, e.g. the daemon's host
+     * @return the name the MBean was registered under
+     * @throws JMException
+     *           if registration fails, e.g. because the name is taken
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("ca.benow.transmission:type=RpcMetrics,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Counters of one method.
+     */
+    private static final class MethodStats {
+
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong sessionRetries = new AtomicLong();
+        final AtomicLong connectionRetries = new AtomicLong();
+        final Histogram totalNanos = new Histogram();
+        final Histogram serializeNanos = new Histogram();
+        final Histogram connectNanos = new Histogram();
+        final Histogram writeNanos = new Histogram();
+        final Histogram waitNanos = new Histogram();
+        final Histogram parseNanos = new Histogram();
+        final Histogram requestBytes = new Histogram();
+        final Histogram requestWireBytes = new Histogram();
+        final Histogram responseBytes = new Histogram();
+        final Histogram decodedResponseBytes = new Histogram();
+        final Histogram torrents = new Histogram();
+
+        void record(RpcSample sample) {
+            calls.incrementAndGet();
+            if (sample.error != null)
+                errors.incrementAndGet();
+            if (sample.sessionRetries > 0)
+                sessionRetries.addAndGet(sample.sessionRetries);
+            if (sample.connectionRetries > 0)
+                connectionRetries.addAndGet(sample.connectionRetries);
+            totalNanos.record(sample.totalNanos);
+            serializeNanos.record(sample.serializeNanos);
+            connectNanos.record(sample.connectNanos);
+            writeNanos.record(sample.writeNanos);
+            waitNanos.record(sample.waitNanos);
+            requestBytes.record(sample.requestBytes);
+            requestWireBytes.record(sample.requestWireBytes);
+            if (sample.error == null) {
+                parseNanos.record(sample.parseNanos);
+                responseBytes.record(sample.responseBytes);
+                decodedResponseBytes.record(sample.decodedResponseBytes);
+                if (sample.torrentCount >= 0)
+                    torrents.record(sample.torrentCount);
+            }
+        }
+
+        MethodSnapshot snapshot(String method) {
+            return new MethodSnapshot(method, calls.get(), errors.get(), sessionRetries.get(), connectionRetries.get(),
+                    totalNanos.snapshot(), serializeNanos.snapshot(), connectNanos.snapshot(), writeNanos.snapshot(),
+                    waitNanos.snapshot(), parseNanos.snapshot(), requestBytes.snapshot(), requestWireBytes.snapshot(),
+                    responseBytes.snapshot(), decodedResponseBytes.snapshot(), torrents.snapshot());
+        }
+    }
+
+    /**
+     * Lock-free histogram of non-negative values with one bucket per power of
+     * two.
+     */
+    static final class Histogram {
+
+        /** bucket i holds values below 2^i, bucket 0 the zeros */
+        private final AtomicLongArray buckets = new AtomicLongArray(65);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0)
+                value = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long curr = max.get();
+            while (value > curr && !max.compareAndSet(curr, value))
+                curr = max.get();
+        }
+
+        HistogramSnapshot snapshot() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new HistogramSnapshot(counts, count.get(), sum.get(), max.get());
+        }
+    }
+
+    /**
+     * State of a histogram at one point in time.
+     */
+    public static final class HistogramSnapshot {
+
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        HistogramSnapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        public long getP50() {
+            return percentile(0.5);
+        }
+
+        public long getP90() {
+            return percentile(0.9);
+        }
+
+        public long getP99() {
+            return percentile(0.99);
+        }
+
+        /**
+         * @param quantile
+         *          between 0 and 1
+         * @return upper bound of the bucket holding the quantile, at most the
+         *         maximum recorded value
+         */
+        public long percentile(double quantile) {
+            if (count == 0)
+                return 0;
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    long upper = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count " + count + ", mean " + (long) getMean() + ", p50 " + getP50() + ", p99 " + getP99()
+                    + ", max " + max;
+        }
+    }
+
+    /**
+     * Metrics of one method at one point in time. Latencies are in
+     * nanoseconds, sizes in bytes.
+     */
+    public static final class MethodSnapshot {
+
+        private final String method;
+        private final long calls;
+        private final long errors;
+        private final long sessionRetries;
+        private final long connectionRetries;
+        private final HistogramSnapshot totalNanos;
+        private final HistogramSnapshot serializeNanos;
+        private final HistogramSnapshot connectNanos;
+        private final HistogramSnapshot writeNanos;
+        private final HistogramSnapshot waitNanos;
+        private final HistogramSnapshot parseNanos;
+        private final HistogramSnapshot requestBytes;
+        private final HistogramSnapshot requestWireBytes;
+        private final HistogramSnapshot responseBytes;
+        private final HistogramSnapshot decodedResponseBytes;
+        private final HistogramSnapshot torrents;
+
+        MethodSnapshot(String method, long calls, long errors, long sessionRetries, long connectionRetries,
+                HistogramSnapshot totalNanos, HistogramSnapshot serializeNanos, HistogramSnapshot connectNanos,
+                HistogramSnapshot writeNanos, HistogramSnapshot waitNanos, HistogramSnapshot parseNanos,
+                HistogramSnapshot requestBytes, HistogramSnapshot requestWireBytes, HistogramSnapshot responseBytes,
+                HistogramSnapshot decodedResponseBytes, HistogramSnapshot torrents) {
+            this.method = method;
+            this.calls = calls;
+            this.errors = errors;
+            this.sessionRetries = sessionRetries;
+            this.connectionRetries = connectionRetries;
+            this.totalNanos = totalNanos;
+            this.serializeNanos = serializeNanos;
+            this.connectNanos = connectNanos;
+            this.writeNanos = writeNanos;
+            this.waitNanos = waitNanos;
+            this.parseNanos = parseNanos;
+            this.requestBytes = requestBytes;
+            this.requestWireBytes = requestWireBytes;
+            this.responseBytes = responseBytes;
+            this.decodedResponseBytes = decodedResponseBytes;
+            this.torrents = torrents;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getSessionRetries() {
+            return sessionRetries;
+        }
+
+        public long getConnectionRetries() {
+            return connectionRetries;
+        }
+
+        public HistogramSnapshot getTotalNanos() {
+            return totalNanos;
+        }
+
+        public HistogramSnapshot getSerializeNanos() {
+            return serializeNanos;
+        }
+
+        public HistogramSnapshot getConnectNanos() {
+            return connectNanos;
+        }
+
+        public HistogramSnapshot getWriteNanos() {
+            return writeNanos;
+        }
+
+        public HistogramSnapshot getWaitNanos() {
+            return waitNanos;
+        }
+
+        /**
+         * @return parse times of successful calls
+         */
+        public HistogramSnapshot getParseNanos() {
+            return parseNanos;
+        }
+
+        public HistogramSnapshot getRequestBytes() {
+            return requestBytes;
+        }
+
+        /**
+         * @return request sizes as sent, after compression
+         */
+        public HistogramSnapshot getRequestWireBytes() {
+            return requestWireBytes;
+        }
+
+        /**
+         * @return response sizes of successful calls, as received
+         */
+        public HistogramSnapshot getResponseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         * @return response sizes of successful calls after decoding
+         */
+        public HistogramSnapshot getDecodedResponseBytes() {
+            return decodedResponseBytes;
+        }
+
+        /**
+         * @return decoded by received bytes of all successful responses, 1
+         *         if none was compressed
+         */
+        public double getCompressionRatio() {
+            return responseBytes.getSum() == 0 ? 1 : (double) decodedResponseBytes.getSum() / responseBytes.getSum();
+        }
+
+        /**
+         * @return serialized by sent bytes of all requests, 1 if none was
+         *         compressed
+         */
+        public double getRequestCompressionRatio() {
+            return requestWireBytes.getSum() == 0 ? 1 : (double) requestBytes.getSum() / requestWireBytes.getSum();
+        }
+
+        /**
+         * @return torrent counts of successful calls returning torrents
+         */
+        public HistogramSnapshot getTorrents() {
+            return torrents;
+        }
+
+        @Override
+        public String toString() {
+            return method + ": " + calls + " calls, " + errors + " errors, " + sessionRetries
+                    + " session retries, total [" + totalNanos + "], wait [" + waitNanos + "], parse [" + parseNanos
+                    + "], response bytes [" + responseBytes + "], compression " + String.format("%.1f", getCompressionRatio());
+        }
+    }
+}
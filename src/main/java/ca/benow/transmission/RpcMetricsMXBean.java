@@ -0,0 +1,22 @@
+package ca.benow.transmission;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link RpcMetrics}, see {@link RpcMetrics#registerMBean(String)}.
+ */
+public interface RpcMetricsMXBean {
+
+    /**
+     * @return metrics by method name
+     */
+    Map<String, RpcMetrics.MethodSnapshot> getMethods();
+
+    long getCalls();
+
+    long getErrors();
+
+    long getSessionRetries();
+
+    void reset();
+}
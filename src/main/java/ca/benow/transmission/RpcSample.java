@@ -0,0 +1,205 @@
+package ca.benow.transmission;
+
+/**
+ * Measurements of one RPC, handed to an {@link RpcInstrumentation} when the
+ * call is done. Samples are reused per thread, so they are only valid during
+ * {@link RpcInstrumentation#record(RpcSample)}; copy what needs to be kept.
+ * <p/>
+ * Durations are in nanoseconds. Phases repeated on retries (connect, write,
+ * wait) add up over all attempts.
+ */
+public final class RpcSample {
+
+    String method;
+    String url;
+    int tag;
+    long serializeNanos;
+    long connectNanos;
+    long writeNanos;
+    long waitNanos;
+    long parseNanos;
+    long totalNanos;
+    long requestBytes;
+    long requestWireBytes;
+    long responseBytes;
+    long decodedResponseBytes;
+    String contentEncoding;
+    int torrentCount;
+    int sessionRetries;
+    int connectionRetries;
+    Throwable error;
+
+    RpcSample() {
+    }
+
+    RpcSample begin(RequestBuffer body, String url) {
+        this.method = body.method;
+        this.url = url;
+        this.tag = body.tag;
+        this.serializeNanos = body.serializeNanos;
+        this.connectNanos = 0;
+        this.writeNanos = 0;
+        this.waitNanos = 0;
+        this.parseNanos = 0;
+        this.totalNanos = 0;
+        this.requestBytes = body.size();
+        this.requestWireBytes = body.size();
+        this.responseBytes = 0;
+        this.decodedResponseBytes = 0;
+        this.contentEncoding = null;
+        this.torrentCount = -1;
+        this.sessionRetries = 0;
+        this.connectionRetries = 0;
+        this.error = null;
+        return this;
+    }
+
+    /**
+     * @return the RPC method, e.g. torrent-get
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the daemon's URL, without user info
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    public int getTag() {
+        return tag;
+    }
+
+    /**
+     * @return time spent serializing the request, including streamed members
+     */
+    public long getSerializeNanos() {
+        return serializeNanos;
+    }
+
+    /**
+     * @return time spent leasing a connection, including opening it
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * @return time spent writing the request to the socket
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * @return time from the request being written until the response headers
+     *         were read
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * @return time spent reading and decoding the response body
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return time of the call from sending to decoded result, without
+     *         serialization
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return size of the serialized request, before compression
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @return size of the request as sent, smaller than
+     *         {@link #getRequestBytes()} if it was compressed
+     */
+    public long getRequestWireBytes() {
+        return requestWireBytes;
+    }
+
+    /**
+     * @return size of the final response body, as received
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return size of the final response body after decoding, the same as
+     *         {@link #getResponseBytes()} if it wasn't compressed
+     */
+    public long getDecodedResponseBytes() {
+        return decodedResponseBytes;
+    }
+
+    /**
+     * @return Content-Encoding of the final response, null if it wasn't
+     *         compressed
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return decoded by received size of the response, 1 if it wasn't
+     *         compressed
+     */
+    public double getCompressionRatio() {
+        return responseBytes == 0 ? 1 : (double) decodedResponseBytes / responseBytes;
+    }
+
+    /**
+     * @return number of torrents in the response, -1 if it holds no torrent
+     *         list
+     */
+    public int getTorrentCount() {
+        return torrentCount;
+    }
+
+    /**
+     * @return number of times the daemon answered 409 with a new session id
+     */
+    public int getSessionRetries() {
+        return sessionRetries;
+    }
+
+    /**
+     * @return number of times the request was repeated on a new connection
+     *         because the daemon closed a kept-alive one
+     */
+    public int getConnectionRetries() {
+        return connectionRetries;
+    }
+
+    /**
+     * @return why the call failed, null on success
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return method + "#" + tag + " " + (error == null ? "ok" : error.toString()) + " in " + totalNanos / 1000
+                + "us, " + requestWireBytes + "/" + responseBytes + " bytes"
+                + (contentEncoding == null ? "" : " (" + contentEncoding + ", " + decodedResponseBytes + " decoded)");
+    }
+}
@@ -0,0 +1,268 @@
+package ca.benow.transmission;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches start, stop, verify and reannounce calls. Calls made within a short
+ * window are buffered and merged into one request per action with the union
+ * of their ids; each caller's future completes when the request carrying its
+ * ids returns.
+ * <p/>
+ * Order is kept per torrent: a call is only merged into an earlier request of
+ * the same action if no call in between touched one of its ids, so a stop
+ * following a start is sent after it, never merged away. Merged requests are
+ * sent one after the other, in the order of their first call. Ids are
+ * compared by value, so refer to each torrent consistently by either its
+ * numeric id or its hash.
+ *
+ * <pre>
+ * TorrentActionBatcher batcher = new TorrentActionBatcher(new AsyncTransmissionClient(client));
+ * for (TorrentStatus torrent : stalled)
+ *  batcher.reannounceTorrents(torrent.getId());
+ * batcher.flush();
+ * </pre>
+ */
+public class TorrentActionBatcher {
+
+    private static Logger logger = LoggerFactory.getLogger(TorrentActionBatcher.class);
+
+    /**
+     * Actions which can be batched.
+     */
+    public enum Action {
+        START("torrent-start"), STOP("torrent-stop"), VERIFY("torrent-verify"), REANNOUNCE("torrent-reannounce");
+
+        private final String method;
+
+        Action(String method) {
+            this.method = method;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    private final AsyncTransmissionClient async;
+    private volatile long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private volatile int maxBatchSize = 1000;
+
+    /** guarded by this */
+    private List<Group> pending = new ArrayList<>();
+    /** guarded by this */
+    private int pendingIds;
+    /** guarded by this */
+    private ScheduledFuture<?> timer;
+    /** completes once every request sent so far returned, guarded by this */
+    private CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param async
+     *          client the merged requests are sent with
+     */
+    public TorrentActionBatcher(AsyncTransmissionClient async) {
+        this.async = async;
+    }
+
+    public long getMaxDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxDelayNanos);
+    }
+
+    /**
+     * @param maxDelay
+     *          how long a call is buffered for others to join, defaults to 5
+     *          milliseconds
+     */
+    public void setMaxDelay(long maxDelay, TimeUnit unit) {
+        if (maxDelay < 0)
+            throw new IllegalArgumentException("maxDelay must not be negative");
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize
+     *          number of buffered ids after which the buffer is sent right
+     *          away, defaults to 1000
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @see TransmissionClient#startTorrents(Object...)
+     */
+    public CompletableFuture<Void> startTorrents(Object... ids) {
+        return submit(Action.START, ids);
+    }
+
+    /**
+     * @see TransmissionClient#stopTorrents(Object...)
+     */
+    public CompletableFuture<Void> stopTorrents(Object... ids) {
+        return submit(Action.STOP, ids);
+    }
+
+    /**
+     * @see TransmissionClient#verifyTorrents(Object...)
+     */
+    public CompletableFuture<Void> verifyTorrents(Object... ids) {
+        return submit(Action.VERIFY, ids);
+    }
+
+    /**
+     * @see TransmissionClient#reannounceTorrents(Object...)
+     */
+    public CompletableFuture<Void> reannounceTorrents(Object... ids) {
+        return submit(Action.REANNOUNCE, ids);
+    }
+
+    /**
+     * Buffers an action on the given torrents.
+     *
+     * @param ids
+     *          numerical ids or string hashes
+     * @return future completing when the request carrying the ids returned
+     */
+    public CompletableFuture<Void> submit(Action action, Object... ids) {
+        if (ids == null || ids.length == 0)
+            throw new NullPointerException("At least one id is required");
+        for (Object id : ids) {
+            if (TransmissionClient.ID_RECENTLY_ACTIVE.equals(id))
+                throw new IllegalArgumentException("recently-active can't be batched");
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean full;
+        synchronized (this) {
+            Group target = null;
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                Group curr = pending.get(i);
+                if (curr.action == action) {
+                    target = curr;
+                    break;
+                }
+                if (curr.touchesAny(ids))
+                    break;
+            }
+            if (target == null) {
+                target = new Group(action);
+                pending.add(target);
+            }
+            pendingIds += target.add(ids, future);
+            full = pendingIds >= maxBatchSize;
+            if (!full && timer == null)
+                timer = AsyncTransmissionClient.getTimer().schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+        }
+        if (full)
+            flush();
+        return future;
+    }
+
+    /**
+     * Sends the buffered calls now.
+     *
+     * @return future completing once every request sent so far returned
+     */
+    public CompletableFuture<Void> flush() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            if (pending.isEmpty())
+                return sent;
+            List<Group> groups = pending;
+            pending = new ArrayList<>();
+            pendingIds = 0;
+            for (Group group : groups) {
+                sent = sent.thenCompose(ignored -> send(group));
+            }
+            return sent;
+        }
+    }
+
+    /**
+     * @return future completing, never exceptionally, once the group's
+     *         request returned
+     */
+    private CompletableFuture<Void> send(Group group) {
+        JSONObject args = new JSONObject();
+        try {
+            args.put("ids", new JSONArray(group.ids));
+        } catch (JSONException e) {
+            group.fail(e);
+            return CompletableFuture.completedFuture(null);
+        }
+        logger.trace("Sending {} for {} torrents, {} calls merged", group.action.method, group.ids.size(),
+                group.waiters.size());
+        return async.sendCommand(group.action.method, args).handle((result, error) -> {
+            if (error != null)
+                group.fail(error);
+            else
+                group.complete();
+            return null;
+        });
+    }
+
+    /**
+     * Calls of one action merged into one request.
+     */
+    private static final class Group {
+
+        final Action action;
+        final Set<Object> ids = new LinkedHashSet<>();
+        final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+
+        Group(Action action) {
+            this.action = action;
+        }
+
+        /**
+         * @return number of ids new to this group
+         */
+        int add(Object[] add, CompletableFuture<Void> future) {
+            int before = ids.size();
+            Collections.addAll(ids, add);
+            waiters.add(future);
+            return ids.size() - before;
+        }
+
+        boolean touchesAny(Object[] other) {
+            for (Object id : other) {
+                if (ids.contains(id))
+                    return true;
+            }
+            return false;
+        }
+
+        void complete() {
+            for (CompletableFuture<Void> curr : waiters) {
+                curr.complete(null);
+            }
+        }
+
+        void fail(Throwable error) {
+            for (CompletableFuture<Void> curr : waiters) {
+                curr.completeExceptionally(error);
+            }
+        }
+    }
+}
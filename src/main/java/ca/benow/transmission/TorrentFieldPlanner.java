@@ -0,0 +1,308 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.Layout;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import ca.benow.transmission.model.TorrentView;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fetches torrents while keeping each torrent-get response within a byte
+ * budget. Fields are classified by cost: the cheap ones are fetched for all
+ * torrents in one go, the heavy ones (files, peers, pieces, tracker stats...)
+ * only for the torrents that need them, in chunks of ids sized from an
+ * estimate of their bytes per torrent. A fetch whose heavy part is estimated
+ * beyond the total budget fails before anything heavy is requested.
+ *
+ * <pre>
+ * TorrentFieldPlanner planner = new TorrentFieldPlanner(client);
+ * List&lt;TorrentStatus&gt; rows = planner.getTorrents(null, TorrentView.LIST);
+ * // files only of the torrents still downloading
+ * List&lt;TorrentStatus&gt; files = planner.getTorrents(null, TorrentView.FILES.plus(TorrentField.status),
+ *         t -&gt; t.getStatus() == TorrentStatus.STATUS_DOWNLOADING);
+ * </pre>
+ */
+public class TorrentFieldPlanner {
+
+    private static Logger logger = LoggerFactory.getLogger(TorrentFieldPlanner.class);
+
+    private static final Set<TorrentField> HEAVY = EnumSet.of(TorrentField.files, TorrentField.fileStats,
+            TorrentField.peers, TorrentField.pieces, TorrentField.priorities, TorrentField.wanted,
+            TorrentField.trackers, TorrentField.trackerStats, TorrentField.torrentFile, TorrentField.webseeds);
+
+    private static final int[] DEFAULT_ESTIMATES = new int[TorrentField.values().length];
+
+    static {
+        // bytes per torrent as sent in the object format, name included
+        for (TorrentField curr : TorrentField.values()) {
+            DEFAULT_ESTIMATES[curr.ordinal()] = 24;
+        }
+        DEFAULT_ESTIMATES[TorrentField.comment.ordinal()] = 120;
+        DEFAULT_ESTIMATES[TorrentField.creator.ordinal()] = 40;
+        DEFAULT_ESTIMATES[TorrentField.downloadDir.ordinal()] = 60;
+        DEFAULT_ESTIMATES[TorrentField.errorString.ordinal()] = 40;
+        DEFAULT_ESTIMATES[TorrentField.hashString.ordinal()] = 56;
+        DEFAULT_ESTIMATES[TorrentField.magnetLink.ordinal()] = 240;
+        DEFAULT_ESTIMATES[TorrentField.name.ordinal()] = 80;
+        DEFAULT_ESTIMATES[TorrentField.peersFrom.ordinal()] = 140;
+        DEFAULT_ESTIMATES[TorrentField.files.ordinal()] = 4096;
+        DEFAULT_ESTIMATES[TorrentField.fileStats.ordinal()] = 2048;
+        DEFAULT_ESTIMATES[TorrentField.peers.ordinal()] = 8192;
+        DEFAULT_ESTIMATES[TorrentField.pieces.ordinal()] = 16384;
+        DEFAULT_ESTIMATES[TorrentField.priorities.ordinal()] = 256;
+        DEFAULT_ESTIMATES[TorrentField.wanted.ordinal()] = 256;
+        DEFAULT_ESTIMATES[TorrentField.trackers.ordinal()] = 512;
+        DEFAULT_ESTIMATES[TorrentField.trackerStats.ordinal()] = 2048;
+        DEFAULT_ESTIMATES[TorrentField.torrentFile.ordinal()] = 128;
+        DEFAULT_ESTIMATES[TorrentField.webseeds.ordinal()] = 128;
+    }
+
+    /**
+     * Decides from the cheap fields which torrents the heavy ones are
+     * fetched for.
+     */
+    public interface Filter {
+        boolean accept(TorrentStatus torrent) throws JSONException;
+    }
+
+    /**
+     * Thrown when the heavy fields of a fetch are estimated to exceed the
+     * total budget.
+     */
+    public static class BudgetExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long estimatedBytes;
+        private final long budgetBytes;
+
+        public BudgetExceededException(long estimatedBytes, long budgetBytes) {
+            super("Estimated " + estimatedBytes + " bytes exceed the budget of " + budgetBytes
+                    + " bytes, ask for fewer fields or torrents");
+            this.estimatedBytes = estimatedBytes;
+            this.budgetBytes = budgetBytes;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public long getBudgetBytes() {
+            return budgetBytes;
+        }
+    }
+
+    private final TransmissionClient client;
+    private final int[] estimates = DEFAULT_ESTIMATES.clone();
+    private volatile long maxResponseBytes = 4L << 20;
+    private volatile long maxTotalBytes = 64L << 20;
+
+    /**
+     * @param client
+     *          client the torrent-get requests are sent with
+     */
+    public TorrentFieldPlanner(TransmissionClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return whether the field's size grows with the torrent's files, peers,
+     *         pieces or trackers
+     */
+    public static boolean isHeavy(TorrentField field) {
+        return HEAVY.contains(field);
+    }
+
+    /**
+     * @return estimated bytes the field takes per torrent in a response
+     */
+    public int getEstimate(TorrentField field) {
+        return estimates[field.ordinal()];
+    }
+
+    /**
+     * @param bytes
+     *          estimated bytes the field takes per torrent, for daemons whose
+     *          torrents are much larger or smaller than usual. The pieces
+     *          estimate is only used when the piece count is unknown.
+     */
+    public void setEstimate(TorrentField field, int bytes) {
+        if (field == TorrentField.all)
+            throw new IllegalArgumentException("TorrentField.all has no estimate");
+        if (bytes < 0)
+            throw new IllegalArgumentException("bytes must not be negative");
+        estimates[field.ordinal()] = bytes;
+    }
+
+    public long getMaxResponseBytes() {
+        return maxResponseBytes;
+    }
+
+    /**
+     * @param maxResponseBytes
+     *          estimated size chunks of ids are cut at, defaults to 4 MB. A
+     *          torrent estimated beyond it is fetched alone.
+     */
+    public void setMaxResponseBytes(long maxResponseBytes) {
+        if (maxResponseBytes < 1)
+            throw new IllegalArgumentException("maxResponseBytes must be positive");
+        this.maxResponseBytes = maxResponseBytes;
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    /**
+     * @param maxTotalBytes
+     *          estimated size of the heavy fields of one fetch beyond which it
+     *          fails with {@link BudgetExceededException}, defaults to 64 MB
+     */
+    public void setMaxTotalBytes(long maxTotalBytes) {
+        if (maxTotalBytes < 1)
+            throw new IllegalArgumentException("maxTotalBytes must be positive");
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * @see #getTorrents(int[], TorrentField[], Filter)
+     */
+    public List<TorrentStatus> getTorrents(int[] ids, TorrentView view) throws IOException, JSONException {
+        return getTorrents(ids, view.getFields(), null);
+    }
+
+    /**
+     * @see #getTorrents(int[], TorrentField[], Filter)
+     */
+    public List<TorrentStatus> getTorrents(int[] ids, TorrentView view, Filter filter) throws IOException, JSONException {
+        return getTorrents(ids, view.getFields(), filter);
+    }
+
+    /**
+     * Fetches torrents in as many requests as the budgets need. Torrents
+     * removed while their heavy fields are fetched, or rejected by the
+     * filter, come without the heavy fields.
+     *
+     * @param ids
+     *          optional ids of torrents to fetch, all torrents if not given
+     * @param requestedFields
+     *          fields to fetch, null for the default fields
+     * @param filter
+     *          optional filter on the cheap fields, heavy fields are only
+     *          fetched for torrents it accepts
+     * @return status for requested torrents, in the daemon's order
+     * @throws BudgetExceededException
+     *           if the heavy fields are estimated beyond the total budget
+     * @throws IOException
+     * @throws JSONException
+     */
+    public List<TorrentStatus> getTorrents(int[] ids, TorrentField[] requestedFields, Filter filter)
+            throws IOException, JSONException {
+        TorrentField[] fields = TransmissionClient.expandFields(requestedFields);
+        Set<TorrentField> light = EnumSet.of(TorrentField.id);
+        Set<TorrentField> heavy = EnumSet.noneOf(TorrentField.class);
+        for (TorrentField curr : fields) {
+            (isHeavy(curr) ? heavy : light).add(curr);
+        }
+        if (heavy.isEmpty())
+            return fetch(ids, fields);
+        if (heavy.contains(TorrentField.pieces))
+            light.add(TorrentField.pieceCount);
+        heavy.add(TorrentField.id);
+        List<TorrentStatus> base = fetch(ids, light.toArray(new TorrentField[light.size()]));
+
+        TorrentField[] heavyFields = heavy.toArray(new TorrentField[heavy.size()]);
+        List<TorrentStatus> needed = new ArrayList<>(base.size());
+        long[] costs = new long[base.size()];
+        long total = 0;
+        for (TorrentStatus curr : base) {
+            if (filter != null && !filter.accept(curr))
+                continue;
+            costs[needed.size()] = estimate(curr, heavyFields);
+            total += costs[needed.size()];
+            needed.add(curr);
+        }
+        if (total > maxTotalBytes)
+            throw new BudgetExceededException(total, maxTotalBytes);
+
+        Map<Integer, TorrentStatus> details = new HashMap<>();
+        long limit = maxResponseBytes;
+        int requests = 0;
+        for (int start = 0; start < needed.size(); requests++) {
+            int end = start;
+            long bytes = 0;
+            while (end < needed.size() && (end == start || bytes + costs[end] <= limit)) {
+                bytes += costs[end++];
+            }
+            int[] chunk = new int[end - start];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = needed.get(start + i).getId();
+            }
+            for (TorrentStatus curr : client.getTorrents(chunk, heavyFields)) {
+                details.put(curr.getId(), curr);
+            }
+            start = end;
+        }
+        logger.debug("Fetched {} of {} torrents in {} requests, estimated {} bytes", heavy, needed.size(),
+                requests, total);
+
+        Layout layout = Layout.of(fields);
+        List<TorrentStatus> result = new ArrayList<>(base.size());
+        for (TorrentStatus curr : base) {
+            TorrentStatus detail = details.get(curr.getId());
+            result.add(detail == null ? TorrentStatus.combine(layout, curr)
+                    : TorrentStatus.combine(layout, curr, detail));
+        }
+        return result;
+    }
+
+    /**
+     * Fetches cheap fields, chunked when the ids are known and many.
+     */
+    private List<TorrentStatus> fetch(int[] ids, TorrentField[] fields) throws IOException, JSONException {
+        if (ids == null || ids.length == 0)
+            return client.getTorrents(ids, fields);
+        long perTorrent = 0;
+        for (TorrentField curr : fields) {
+            perTorrent += estimates[curr.ordinal()];
+        }
+        int chunkSize = (int) Math.max(1, Math.min(ids.length, maxResponseBytes / Math.max(1, perTorrent)));
+        if (chunkSize == ids.length)
+            return client.getTorrents(ids, fields);
+        List<TorrentStatus> result = new ArrayList<>(ids.length);
+        for (int start = 0; start < ids.length; start += chunkSize) {
+            int[] chunk = new int[Math.min(chunkSize, ids.length - start)];
+            System.arraycopy(ids, start, chunk, 0, chunk.length);
+            result.addAll(client.getTorrents(chunk, fields));
+        }
+        return result;
+    }
+
+    /**
+     * @return estimated bytes of the given fields of the torrent, pieces
+     *         sized from its piece count when known
+     */
+    long estimate(TorrentStatus torrent, TorrentField[] fields) throws JSONException {
+        long bytes = 0;
+        for (TorrentField curr : fields) {
+            if (curr == TorrentField.pieces && torrent.has(TorrentField.pieceCount)) {
+                // a bit per piece, base64 encoded
+                long bitfield = (torrent.getLong(TorrentField.pieceCount) + 7) / 8;
+                bytes += (bitfield + 2) / 3 * 4 + 12;
+            } else {
+                bytes += estimates[curr.ordinal()];
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,118 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.JSONStreamReader;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the arguments of a torrent-get response into {@link TorrentStatus}
+ * objects. Typed torrents are read without building a JSON tree first and
+ * share the same {@link TorrentStatus.Layout}, the others wrap a JSONObject
+ * as they always did. Torrents may come as objects or in table format, a row
+ * of field names followed by one row of values per torrent.
+ */
+final class TorrentGetReader implements TransmissionClient.ArgumentsReader<TorrentGetReader> {
+
+    /** null when reading torrents wrapping a JSONObject */
+    private final TorrentStatus.Layout layout;
+    private final List<TorrentStatus> torrents = new ArrayList<>();
+    private int[] removed = new int[0];
+    private int removedCount;
+
+    /**
+     * @param fields
+     *          the requested fields, already expanded
+     * @param typed
+     *          true to read typed torrents
+     */
+    TorrentGetReader(TorrentField[] fields, boolean typed) {
+        this.layout = typed ? TorrentStatus.Layout.of(fields) : null;
+    }
+
+    @Override
+    public TorrentGetReader read(JSONStreamReader in) throws IOException, JSONException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("torrents")) {
+                if (layout == null)
+                    readWrapped(in);
+                else
+                    readTyped(in);
+            } else if (name.equals("removed")) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    if (removedCount == removed.length)
+                        removed = Arrays.copyOf(removed, Math.max(8, removedCount * 2));
+                    removed[removedCount++] = in.nextInt();
+                }
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return this;
+    }
+
+    private void readTyped(JSONStreamReader in) throws IOException, JSONException {
+        TorrentField[] header = null;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() != JSONStreamReader.Token.BEGIN_ARRAY)
+                torrents.add(TorrentStatus.read(in, layout));
+            else if (header == null)
+                header = TorrentStatus.readTableHeader(in);
+            else
+                torrents.add(TorrentStatus.readTableRow(in, layout, header));
+        }
+        in.endArray();
+    }
+
+    private void readWrapped(JSONStreamReader in) throws IOException, JSONException {
+        List<String> header = null;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() != JSONStreamReader.Token.BEGIN_ARRAY) {
+                torrents.add(new TorrentStatus(in.readObject()));
+            } else if (header == null) {
+                header = new ArrayList<>();
+                in.beginArray();
+                while (in.hasNext()) {
+                    header.add(in.nextString());
+                }
+                in.endArray();
+            } else {
+                JSONObject torrent = new JSONObject();
+                in.beginArray();
+                for (int column = 0; in.hasNext(); column++) {
+                    if (column < header.size())
+                        torrent.put(header.get(column), in.readValue());
+                    else
+                        in.skipValue();
+                }
+                in.endArray();
+                torrents.add(new TorrentStatus(torrent));
+            }
+        }
+        in.endArray();
+    }
+
+    List<TorrentStatus> getTorrents() {
+        return torrents;
+    }
+
+    /**
+     * @return ids reported as removed, only sent for recently-active requests
+     */
+    int[] getRemoved() {
+        return Arrays.copyOf(removed, removedCount);
+    }
+}
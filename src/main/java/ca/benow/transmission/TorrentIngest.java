@@ -0,0 +1,282 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.AddedTorrentInfo;
+import ca.benow.transmission.model.DuplicateTorrentInfo;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds many .torrent files to a daemon, e.g. when restoring a seedbox. Files
+ * are read through NIO (large ones memory-mapped) and base64 encoded into
+ * their requests on a pool of encoder threads, while a configurable number of
+ * torrent-add calls is in flight. Encoding runs at most a few files ahead of
+ * the daemon, so memory stays bounded however many files are ingested.
+ *
+ * <pre>
+ * TorrentIngest ingest = new TorrentIngest(client);
+ * ingest.setTemplate(AddTorrentParameter.builder().downloadDir(&quot;/data&quot;).paused(true));
+ * TorrentIngest.Summary summary = ingest.ingest(new File(&quot;/backup/torrents&quot;), new TorrentIngest.Listener() {
+ *  public void added(File file, AddedTorrentInfo info) { ... }
+ *  public void failed(File file, Exception error) { ... }
+ * });
+ * </pre>
+ */
+public class TorrentIngest {
+
+    private static Logger logger = LoggerFactory.getLogger(TorrentIngest.class);
+
+    /** files below this size are read, larger ones mapped */
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadFactory DAEMON_THREADS = r -> {
+        Thread thread = new Thread(r, "transmission-ingest-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    /**
+     * Receives the result of every file as soon as it is known. Called from
+     * the ingest's worker threads.
+     */
+    public interface Listener {
+
+        /**
+         * @param info
+         *          the added torrent, a DuplicateTorrentInfo if the daemon
+         *          already had it
+         */
+        void added(File file, AddedTorrentInfo info);
+
+        void failed(File file, Exception error);
+    }
+
+    private final TransmissionClient client;
+    private int encoders = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int maxInFlight;
+    private AddTorrentParameter template = AddTorrentParameter.builder();
+
+    /**
+     * @param client
+     *          client to add the torrents with
+     */
+    public TorrentIngest(TransmissionClient client) {
+        this.client = client;
+        this.maxInFlight = client.getConnectionPool().getMaxConnections();
+    }
+
+    public int getEncoders() {
+        return encoders;
+    }
+
+    /**
+     * @param encoders
+     *          number of threads reading and encoding files, defaults to the
+     *          number of processors
+     */
+    public void setEncoders(int encoders) {
+        if (encoders < 1)
+            throw new IllegalArgumentException("encoders must be positive");
+        this.encoders = encoders;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @param maxInFlight
+     *          number of concurrent torrent-add calls, defaults to the client's
+     *          connection limit; more than that only queue for a connection
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        this.maxInFlight = maxInFlight;
+    }
+
+    public AddTorrentParameter getTemplate() {
+        return template;
+    }
+
+    /**
+     * @param template
+     *          options applied to every torrent, like download dir or paused;
+     *          its file name and metainfo are ignored
+     */
+    public void setTemplate(AddTorrentParameter template) {
+        this.template = template;
+    }
+
+    /**
+     * Adds every *.torrent file of a directory, in name order.
+     *
+     * @return counts of the results, once every file is done
+     * @throws IOException
+     *           if the directory can't be listed
+     * @throws InterruptedException
+     *           if interrupted while waiting, outstanding files are abandoned
+     */
+    public Summary ingest(File directory, Listener listener) throws IOException, InterruptedException, JSONException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".torrent"));
+        if (files == null)
+            throw new IOException("Not a readable directory: " + directory);
+        Arrays.sort(files);
+        return ingest(Arrays.asList(files), listener);
+    }
+
+    /**
+     * Adds the given files. The iterable is consumed lazily, as capacity frees
+     * up.
+     *
+     * @return counts of the results, once every file is done
+     * @throws InterruptedException
+     *           if interrupted while waiting, outstanding files are abandoned
+     */
+    public Summary ingest(Iterable<File> files, Listener listener) throws InterruptedException, JSONException {
+        final JSONObject args = TransmissionClient.createTorrentAddArgs(template);
+        final int permitCount = maxInFlight + encoders;
+        // one permit per file being encoded, waiting to be sent or in flight
+        final Semaphore permits = new Semaphore(permitCount);
+        final Summary summary = new Summary();
+        final ExecutorService encodePool = Executors.newFixedThreadPool(encoders, DAEMON_THREADS);
+        final ExecutorService rpcPool = Executors.newFixedThreadPool(maxInFlight, DAEMON_THREADS);
+        try {
+            for (final File file : files) {
+                permits.acquire();
+                try {
+                    encodePool.execute(() -> encodeAndQueue(file, args, summary, listener, permits, rpcPool));
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            permits.acquire(permitCount);
+            permits.release(permitCount);
+        } finally {
+            encodePool.shutdownNow();
+            rpcPool.shutdownNow();
+        }
+        logger.debug("Ingested {}", summary);
+        return summary;
+    }
+
+    /**
+     * Encodes a file and queues its request. Unless the request was queued,
+     * the file's permit is released here, whatever went wrong.
+     */
+    private void encodeAndQueue(File file, JSONObject args, Summary summary, Listener listener, Semaphore permits,
+            ExecutorService rpcPool) {
+        boolean queued = false;
+        try {
+            RequestBuffer body = client.prepare("torrent-add", args, "metainfo", out -> encode(file, out));
+            rpcPool.execute(() -> send(file, body, summary, listener, permits));
+            queued = true;
+        } catch (IOException | JSONException | RuntimeException e) {
+            summary.failed(file, e, listener);
+        } catch (Error e) {
+            // e.g. out of memory encoding a huge file, the other files may still fit
+            summary.failed(file, new ExecutionException(e), listener);
+            throw e;
+        } finally {
+            if (!queued)
+                permits.release();
+        }
+    }
+
+    private void send(File file, RequestBuffer body, Summary summary, Listener listener, Semaphore permits) {
+        // released after the result is counted, so the summary is complete once all permits are back
+        try {
+            AddedTorrentInfo info;
+            try {
+                info = TransmissionClient.toAddedTorrentInfo(client.execute(body, TransmissionClient.JSON_ARGUMENTS));
+            } catch (IOException | JSONException | RuntimeException e) {
+                summary.failed(file, e, listener);
+                return;
+            } catch (Error e) {
+                summary.failed(file, new ExecutionException(e), listener);
+                throw e;
+            }
+            summary.added(file, info, listener);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void encode(File file, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD)
+                Base64.encode(channel, out);
+            else
+                Base64.encode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), out);
+        }
+    }
+
+    /**
+     * Counts of the results of one ingest.
+     */
+    public static final class Summary {
+
+        private final AtomicInteger added = new AtomicInteger();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        private void added(File file, AddedTorrentInfo info, Listener listener) {
+            if (info instanceof DuplicateTorrentInfo)
+                duplicates.incrementAndGet();
+            else
+                added.incrementAndGet();
+            try {
+                listener.added(file, info);
+            } catch (RuntimeException e) {
+                logger.warn("Listener failed for " + file, e);
+            }
+        }
+
+        private void failed(File file, Exception error, Listener listener) {
+            failed.incrementAndGet();
+            logger.debug("Adding {} failed: {}", file, error.toString());
+            try {
+                listener.failed(file, error);
+            } catch (RuntimeException e) {
+                logger.warn("Listener failed for " + file, e);
+            }
+        }
+
+        /**
+         * @return number of torrents the daemon didn't have before
+         */
+        public int getAdded() {
+            return added.get();
+        }
+
+        public int getDuplicates() {
+            return duplicates.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        @Override
+        public String toString() {
+            return added + " added, " + duplicates + " duplicates, " + failed + " failed";
+        }
+    }
+}
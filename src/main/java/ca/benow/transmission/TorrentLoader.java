@@ -0,0 +1,243 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches lookups of single torrents. Lookups made within a short window are
+ * collected and sent as one torrent-get for the union of their ids and
+ * fields, whose result is split back to the callers by id. A batch is sent
+ * when the window closes or when it reaches the maximum batch size, whichever
+ * comes first.
+ * <p/>
+ * Because fields are merged, a returned status may hold more fields than
+ * were asked for. Callers asking for the same torrent in one window share
+ * its status, which must not be modified.
+ *
+ * <pre>
+ * TorrentLoader loader = new TorrentLoader(new AsyncTransmissionClient(client));
+ * // from many threads
+ * TorrentStatus torrent = loader.getTorrent(id, new TorrentField[] { TorrentField.name, TorrentField.status });
+ * </pre>
+ */
+public class TorrentLoader {
+
+    private static Logger logger = LoggerFactory.getLogger(TorrentLoader.class);
+
+    private final AsyncTransmissionClient async;
+    private volatile long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(2);
+    private volatile int maxBatchSize = 200;
+
+    /** guarded by this */
+    private Batch pending;
+
+    /**
+     * @param async
+     *          client the batches are sent with, its deadline applies to each
+     *          batch
+     */
+    public TorrentLoader(AsyncTransmissionClient async) {
+        this.async = async;
+    }
+
+    public long getMaxDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxDelayNanos);
+    }
+
+    /**
+     * @param maxDelay
+     *          how long a lookup waits for others to join its batch, defaults
+     *          to 2 milliseconds
+     */
+    public void setMaxDelay(long maxDelay, TimeUnit unit) {
+        if (maxDelay < 0)
+            throw new IllegalArgumentException("maxDelay must not be negative");
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize
+     *          number of distinct ids after which a batch is sent right away,
+     *          defaults to 200
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Looks up a torrent as part of the next batch.
+     *
+     * @param id
+     *          id of the torrent
+     * @param requestedFields
+     *          fields to fetch, null for the default fields
+     * @return future completing with the torrent's status, or with null if
+     *         the daemon has no torrent with that id
+     */
+    public CompletableFuture<TorrentStatus> load(int id, TorrentField[] requestedFields) {
+        TorrentField[] fields = TransmissionClient.expandFields(requestedFields);
+        CompletableFuture<TorrentStatus> future = new CompletableFuture<>();
+        Batch full = null;
+        synchronized (this) {
+            if (pending == null) {
+                final Batch batch = new Batch();
+                pending = batch;
+                batch.timer = AsyncTransmissionClient.getTimer().schedule(() -> expire(batch), maxDelayNanos,
+                        TimeUnit.NANOSECONDS);
+            }
+            pending.add(id, fields, future);
+            if (pending.waiters.size() >= maxBatchSize) {
+                full = pending;
+                pending = null;
+            }
+        }
+        if (full != null) {
+            full.timer.cancel(false);
+            send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Blocking variant of {@link #load(int, TorrentField[])}.
+     *
+     * @return the torrent's status, null if the daemon has no torrent with
+     *         that id
+     * @throws IOException
+     * @throws JSONException
+     */
+    public TorrentStatus getTorrent(int id, TorrentField[] requestedFields) throws IOException, JSONException {
+        return AsyncTransmissionClient.await(load(id, requestedFields));
+    }
+
+    /**
+     * Looks up several torrents, batched together with concurrent lookups.
+     * Like {@link TransmissionClient#getTorrents(int[], TorrentField[])}, null
+     * or no ids fetch all torrents; that is sent right away as a torrent-get of
+     * its own.
+     *
+     * @param ids
+     *          ids of the torrents, null or empty for all torrents
+     * @return the statuses of the torrents the daemon has, in order of ids
+     * @throws IOException
+     * @throws JSONException
+     */
+    public List<TorrentStatus> getTorrents(int[] ids, TorrentField[] requestedFields) throws IOException, JSONException {
+        if (ids == null || ids.length == 0)
+            return AsyncTransmissionClient.await(async.getTorrents(null, requestedFields));
+        List<CompletableFuture<TorrentStatus>> futures = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            futures.add(load(id, requestedFields));
+        }
+        List<TorrentStatus> result = new ArrayList<>(ids.length);
+        for (CompletableFuture<TorrentStatus> curr : futures) {
+            TorrentStatus status = AsyncTransmissionClient.await(curr);
+            if (status != null)
+                result.add(status);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the pending batch now instead of when its window closes.
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = pending;
+            pending = null;
+        }
+        if (batch != null) {
+            batch.timer.cancel(false);
+            send(batch);
+        }
+    }
+
+    private void expire(Batch batch) {
+        synchronized (this) {
+            if (pending != batch)
+                return;
+            pending = null;
+        }
+        send(batch);
+    }
+
+    private void send(final Batch batch) {
+        int[] ids = new int[batch.waiters.size()];
+        int i = 0;
+        for (Integer id : batch.waiters.keySet()) {
+            ids[i++] = id;
+        }
+        TorrentField[] fields = batch.fields.toArray(new TorrentField[batch.fields.size()]);
+        logger.trace("Loading {} torrents with fields {}", ids.length, batch.fields);
+        async.getTorrents(ids, fields).whenComplete((torrents, error) -> {
+            if (error == null) {
+                try {
+                    complete(batch, torrents);
+                    return;
+                } catch (JSONException | RuntimeException e) {
+                    error = e;
+                }
+            }
+            for (List<CompletableFuture<TorrentStatus>> waiters : batch.waiters.values()) {
+                for (CompletableFuture<TorrentStatus> curr : waiters) {
+                    curr.completeExceptionally(error);
+                }
+            }
+        });
+    }
+
+    private static void complete(Batch batch, List<TorrentStatus> torrents) throws JSONException {
+        Map<Integer, TorrentStatus> byId = new HashMap<>(torrents.size() * 2);
+        for (TorrentStatus curr : torrents) {
+            byId.put(curr.getId(), curr);
+        }
+        for (Map.Entry<Integer, List<CompletableFuture<TorrentStatus>>> entry : batch.waiters.entrySet()) {
+            TorrentStatus status = byId.get(entry.getKey());
+            for (CompletableFuture<TorrentStatus> curr : entry.getValue()) {
+                curr.complete(status);
+            }
+        }
+    }
+
+    /**
+     * Lookups collected for one torrent-get.
+     */
+    private static final class Batch {
+
+        final Map<Integer, List<CompletableFuture<TorrentStatus>>> waiters = new LinkedHashMap<>();
+        final EnumSet<TorrentField> fields = EnumSet.of(TorrentField.id);
+        ScheduledFuture<?> timer;
+
+        void add(int id, TorrentField[] requested, CompletableFuture<TorrentStatus> future) {
+            Collections.addAll(fields, requested);
+            List<CompletableFuture<TorrentStatus>> list = waiters.get(id);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                waiters.put(id, list);
+            }
+            list.add(future);
+        }
+    }
+}
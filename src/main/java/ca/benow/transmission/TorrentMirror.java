@@ -0,0 +1,211 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local in-memory copy of the torrents of a daemon, kept current by polling
+ * only what changed. The first {@link #sync()} loads every torrent, later
+ * calls ask for the "recently-active" torrents and apply them together with
+ * the ids transmission reports as removed, so the payload of a poll grows
+ * with activity instead of library size. Snapshots share the unchanged
+ * torrents with each other, so publishing one costs as little as the poll,
+ * and carry the changes that produced them.
+ * <p/>
+ * Transmission only reports torrents active within the last minute or so.
+ * Sync more often than that, or call {@link #resync()} after a longer pause.
+ *
+ * <pre>
+ * TorrentMirror mirror = new TorrentMirror(client, new TorrentField[] {
+ *      TorrentField.name, TorrentField.status, TorrentField.percentDone });
+ * while (running) {
+ *  TorrentMirror.Snapshot snapshot = mirror.sync();
+ *  ...
+ * }
+ * </pre>
+ */
+public class TorrentMirror {
+
+    private static Logger logger = LoggerFactory.getLogger(TorrentMirror.class);
+
+    private final TransmissionClient client;
+    private final TorrentField[] fields;
+
+    private static final int[] NONE = new int[0];
+
+    /** guarded by this */
+    private boolean loaded;
+    private volatile Snapshot snapshot = new Snapshot(IntTrieMap.<TorrentStatus> empty(), 0,
+            Collections.<TorrentStatus> emptyList(), NONE);
+
+    /**
+     * @param client
+     *          client to poll
+     * @param fields
+     *          fields to mirror, the id field is always included
+     */
+    public TorrentMirror(TransmissionClient client, TorrentField[] fields) {
+        this.client = client;
+        this.fields = withId(TransmissionClient.expandFields(fields));
+    }
+
+    private static TorrentField[] withId(TorrentField[] fields) {
+        for (TorrentField field : fields) {
+            if (field == TorrentField.id)
+                return fields;
+        }
+        TorrentField[] result = new TorrentField[fields.length + 1];
+        result[0] = TorrentField.id;
+        System.arraycopy(fields, 0, result, 1, fields.length);
+        return result;
+    }
+
+    /**
+     * Brings the mirror up to date, with a full load on first use and a
+     * recently-active delta afterwards.
+     *
+     * @return the snapshot after applying the changes
+     * @throws IOException
+     * @throws JSONException
+     */
+    public synchronized Snapshot sync() throws IOException, JSONException {
+        if (!loaded)
+            return resync();
+
+        JSONObject args = client.torrentGetArgs(TransmissionClient.ID_RECENTLY_ACTIVE, fields);
+        TorrentGetReader result = client.sendCommand("torrent-get", args, new TorrentGetReader(fields, client.isTypedTorrents()));
+        if (result == null)
+            throw new JSONException("JSONObject[\"arguments\"] not found.");
+        List<TorrentStatus> changed = result.getTorrents();
+        int[] removed = result.getRemoved();
+        logger.debug("{} torrents changed, {} removed", changed.size(), removed.length);
+        if (changed.isEmpty() && removed.length == 0)
+            return snapshot;
+
+        IntTrieMap<TorrentStatus> torrents = snapshot.byId;
+        for (TorrentStatus curr : changed) {
+            torrents = torrents.with(curr.getId(), curr);
+        }
+        int[] gone = new int[removed.length];
+        int count = 0;
+        for (int id : removed) {
+            IntTrieMap<TorrentStatus> without = torrents.without(id);
+            if (without != torrents)
+                gone[count++] = id;
+            torrents = without;
+        }
+        return publish(torrents, changed, Arrays.copyOf(gone, count));
+    }
+
+    /**
+     * Discards the local state and loads every torrent again.
+     *
+     * @return the fresh snapshot
+     * @throws IOException
+     * @throws JSONException
+     */
+    public synchronized Snapshot resync() throws IOException, JSONException {
+        List<TorrentStatus> all = client.getTorrents(null, fields);
+        IntTrieMap<TorrentStatus> torrents = IntTrieMap.empty();
+        for (TorrentStatus curr : all) {
+            torrents = torrents.with(curr.getId(), curr);
+        }
+        IntTrieMap<TorrentStatus> previous = snapshot.byId;
+        int[] gone = new int[previous.size()];
+        int count = 0;
+        for (Integer id : previous.keySet()) {
+            if (torrents.get(id.intValue()) == null)
+                gone[count++] = id;
+        }
+        loaded = true;
+        return publish(torrents, all, Arrays.copyOf(gone, count));
+    }
+
+    private Snapshot publish(IntTrieMap<TorrentStatus> torrents, List<TorrentStatus> changed, int[] removed) {
+        snapshot = new Snapshot(torrents, snapshot.generation + 1, Collections.unmodifiableList(changed), removed);
+        return snapshot;
+    }
+
+    /**
+     * @return the state after the last sync, without contacting the daemon
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Immutable view of the mirrored torrents at one point in time, ordered by
+     * id.
+     */
+    public static final class Snapshot {
+
+        private final IntTrieMap<TorrentStatus> byId;
+        private final long generation;
+        private final List<TorrentStatus> changed;
+        private final int[] removed;
+
+        Snapshot(IntTrieMap<TorrentStatus> byId, long generation, List<TorrentStatus> changed, int[] removed) {
+            this.byId = byId;
+            this.generation = generation;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        /**
+         * @param id
+         *          torrent id
+         * @return status of the torrent or null if unknown
+         */
+        public TorrentStatus getTorrent(int id) {
+            return byId.get(id);
+        }
+
+        /**
+         * @return torrents added or updated by the sync that made this
+         *         snapshot, all torrents after a full load
+         */
+        public List<TorrentStatus> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return ids of the torrents the sync that made this snapshot removed
+         */
+        public int[] getRemoved() {
+            return removed.clone();
+        }
+
+        /**
+         * @return the torrents by id, unmodifiable
+         */
+        public Map<Integer, TorrentStatus> getTorrentsById() {
+            return byId;
+        }
+
+        public List<TorrentStatus> getTorrents() {
+            return Collections.unmodifiableList(new ArrayList<>(byId.values()));
+        }
+
+        public int size() {
+            return byId.size();
+        }
+
+        /**
+         * @return counter increased whenever a sync changed the mirror
+         */
+        public long getGeneration() {
+            return generation;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import ca.benow.transmission.model.TorrentTable;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pages through all torrents of the daemon. The ids are fetched on first
+ * use, then the requested fields in chunks of ids as the consumer advances,
+ * so only one chunk, two when prefetching, is held at a time. Torrents come
+ * in order of ids. Torrents removed before their chunk is fetched are
+ * skipped, torrents added later are not seen.
+ * <p/>
+ * As an {@link Iterator} it throws {@link UncheckedIOException} for failed
+ * requests and {@link IllegalStateException} for malformed responses; use
+ * {@link #nextChunk()} to get the checked exceptions instead.
+ *
+ * @see TransmissionClient#streamTorrents(TorrentField[], int, boolean)
+ */
+public class TorrentPager implements Iterator<TorrentStatus>, AutoCloseable {
+
+    private static Logger logger = LoggerFactory.getLogger(TorrentPager.class);
+
+    private final TransmissionClient client;
+    private final TorrentField[] fields;
+    private final int chunkSize;
+    private final AsyncTransmissionClient prefetch;
+
+    private int[] ids;
+    private int position;
+    private CompletableFuture<List<TorrentStatus>> next;
+    private Iterator<TorrentStatus> chunk = Collections.emptyIterator();
+    private boolean closed;
+
+    /**
+     * @param client
+     *          client the torrent-get requests are sent with
+     * @param fields
+     *          fields to fetch, null for the default fields
+     * @param chunkSize
+     *          number of torrents fetched per request
+     * @param prefetch
+     *          whether to fetch the next chunk in the background while the
+     *          current one is consumed
+     */
+    public TorrentPager(TransmissionClient client, TorrentField[] fields, int chunkSize, boolean prefetch) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        this.client = client;
+        this.fields = TransmissionClient.expandFields(fields);
+        this.chunkSize = chunkSize;
+        this.prefetch = prefetch ? new AsyncTransmissionClient(client) : null;
+    }
+
+    /**
+     * @return the number of torrents the daemon had when paging started,
+     *         fetching the ids if not done yet
+     * @throws IOException
+     * @throws JSONException
+     */
+    public int getTorrentCount() throws IOException, JSONException {
+        return ids().length;
+    }
+
+    /**
+     * @return the torrents of the next chunk, null when all chunks are
+     *         consumed or the pager is closed. Iteration continues after the
+     *         returned chunk.
+     * @throws IOException
+     * @throws JSONException
+     */
+    public List<TorrentStatus> nextChunk() throws IOException, JSONException {
+        if (closed)
+            return null;
+        int[] all = ids();
+        List<TorrentStatus> result;
+        if (next != null) {
+            CompletableFuture<List<TorrentStatus>> pending = next;
+            next = null;
+            result = AsyncTransmissionClient.await(pending);
+        } else if (position < all.length) {
+            result = client.getTorrents(chunkIds(), fields);
+        } else {
+            return null;
+        }
+        if (prefetch != null && position < all.length)
+            next = prefetch.getTorrents(chunkIds(), fields);
+        chunk = Collections.emptyIterator();
+        return result;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (!chunk.hasNext()) {
+                List<TorrentStatus> torrents = nextChunk();
+                if (torrents == null)
+                    return false;
+                chunk = torrents.iterator();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public TorrentStatus next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return chunk.next();
+    }
+
+    /**
+     * Drops the current chunk and cancels waiting for a prefetched one. The
+     * pager has no more torrents afterwards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        chunk = Collections.emptyIterator();
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    private int[] ids() throws IOException, JSONException {
+        if (ids == null) {
+            TorrentTable table = client.getTorrentTable(null, new TorrentTable(TorrentField.id));
+            ids = Arrays.copyOf(table.ints(TorrentField.id), table.size());
+            // the daemon lists them in its own order, e.g. after a restart
+            Arrays.sort(ids);
+            logger.debug("Paging {} torrents in chunks of {}", ids.length, chunkSize);
+        }
+        return ids;
+    }
+
+    private int[] chunkIds() {
+        int end = Math.min(ids.length, position + chunkSize);
+        int[] result = Arrays.copyOfRange(ids, position, end);
+        position = end;
+        return result;
+    }
+}
@@ -0,0 +1,425 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.TransmissionCluster.Node;
+import ca.benow.transmission.TransmissionCluster.NodeResult;
+import ca.benow.transmission.TransmissionCluster.Tagged;
+import ca.benow.transmission.model.AddedTorrentInfo;
+import ca.benow.transmission.model.DuplicateTorrentInfo;
+import ca.benow.transmission.model.SessionStatus;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Picks the daemon of a {@link TransmissionCluster} new torrents are added to.
+ * Decisions are made by a {@link PlacementStrategy} from cached
+ * {@link NodeMetrics}: torrent counts and speeds from session-stats, the
+ * peer-limit-global from session-get and the free space of the download dir.
+ * The metrics are sampled by {@link #refresh()}, usually in the background via
+ * {@link #start(long, TimeUnit)}, so adding a torrent costs no more round
+ * trips than adding it to a fixed daemon.
+ *
+ * <pre>
+ * TorrentPlacement placement = new TorrentPlacement(cluster, new PlacementStrategy.ConsistentHash());
+ * placement.setMinFreeSpace(10L &lt;&lt; 30);
+ * placement.start(30, TimeUnit.SECONDS);
+ * Tagged&lt;AddedTorrentInfo&gt; added = placement.addTorrent(AddTorrentParameter.builder().torrentFileNameOrURL(magnet));
+ * System.out.println(added.getValue().getName() + &quot; added to &quot; + added.getNode().getName());
+ * </pre>
+ */
+public class TorrentPlacement {
+
+    private static Logger logger = LoggerFactory.getLogger(TorrentPlacement.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String BASE32 = "abcdefghijklmnopqrstuvwxyz234567";
+
+    private final TransmissionCluster cluster;
+    private final PlacementStrategy strategy;
+    private final Map<String, NodeMetrics> metrics = new ConcurrentHashMap<>();
+    private volatile long maxAgeMillis = TimeUnit.MINUTES.toMillis(5);
+    private volatile long refreshTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile long minFreeSpace;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param cluster
+     *          the daemons to place torrents on
+     * @param strategy
+     *          how to pick one of them
+     */
+    public TorrentPlacement(TransmissionCluster cluster, PlacementStrategy strategy) {
+        this.cluster = cluster;
+        this.strategy = strategy;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @param maxAge
+     *          age after which a node's metrics are too old to place on it,
+     *          e.g. because it stopped answering; defaults to 5 minutes
+     */
+    public void setMaxAge(long maxAge, TimeUnit unit) {
+        this.maxAgeMillis = unit.toMillis(maxAge);
+    }
+
+    public long getRefreshTimeoutMillis() {
+        return refreshTimeoutMillis;
+    }
+
+    /**
+     * @param timeout
+     *          how long {@link #select(String)} waits for the first refresh
+     *          and the periodic refresh for each run, defaults to 30 seconds.
+     *          A sample takes up to three calls, each bounded by the node's
+     *          timeout.
+     */
+    public void setRefreshTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout must not be negative");
+        this.refreshTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    public long getMinFreeSpace() {
+        return minFreeSpace;
+    }
+
+    /**
+     * @param minFreeSpace
+     *          bytes a node's download dir needs free to get new torrents;
+     *          nodes whose free space is unknown are not excluded
+     */
+    public void setMinFreeSpace(long minFreeSpace) {
+        this.minFreeSpace = minFreeSpace;
+    }
+
+    /**
+     * Samples the metrics of every node. Nodes that fail keep their previous
+     * metrics until those exceed the max age.
+     *
+     * @return future completing once every node answered or timed out
+     */
+    public CompletableFuture<List<NodeMetrics>> refresh() {
+        return cluster.call(TorrentPlacement::sample).thenApply(results -> {
+            List<NodeMetrics> sampled = new ArrayList<>();
+            for (NodeResult<NodeMetrics> curr : results.getResults()) {
+                if (curr.isSuccess()) {
+                    NodeMetrics bound = bind(curr.getValue(), curr.getNode());
+                    metrics.put(curr.getNode().getName(), bound);
+                    sampled.add(bound);
+                } else {
+                    logger.debug("Sampling {} failed: {}", curr.getNode(), curr.getError().toString());
+                }
+            }
+            return sampled;
+        });
+    }
+
+    private static CompletableFuture<NodeMetrics> sample(AsyncTransmissionClient client) {
+        JSONObject args = new JSONObject();
+        try {
+            args.put("fields", new JSONArray().put("peer-limit-global").put("download-dir"));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        CompletableFuture<SessionStatus> stats = client.getSessionStats();
+        return client.sendCommand("session-get", args).thenCompose(session -> {
+            String downloadDir = session.optString("download-dir", null);
+            CompletableFuture<Long> freeSpace = downloadDir == null ? CompletableFuture.completedFuture(-1L)
+                    : client.getFreeSpace(downloadDir).exceptionally(e -> -1L);
+            return stats.thenCombine(freeSpace, (status, free) -> {
+                try {
+                    return new NodeMetrics(null, status.getTorrentCount(), status.getActiveTorrentCount(),
+                            status.getDownloadSpeed(), status.getUploadSpeed(),
+                            session.optInt("peer-limit-global", 0), free, System.currentTimeMillis());
+                } catch (JSONException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Refreshes the metrics periodically on a daemon thread, starting now.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null)
+            throw new IllegalStateException("Already started");
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "transmission-placement");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                awaitRefresh();
+            } catch (InterruptedIOException e) {
+                // closed
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Refreshing node metrics failed", e);
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops the periodic refresh.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the cached metrics of all nodes of the cluster, stale ones
+     *         included
+     */
+    public List<NodeMetrics> getMetrics() {
+        List<NodeMetrics> result = new ArrayList<>();
+        for (Node node : cluster.getNodes()) {
+            NodeMetrics curr = metrics.get(node.getName());
+            if (curr != null)
+                result.add(bind(curr, node));
+        }
+        return result;
+    }
+
+    /**
+     * Refreshes and waits for it, at most the refresh timeout.
+     *
+     * @throws IOException
+     *           if the refresh timed out, failed or the wait was interrupted
+     */
+    private void awaitRefresh() throws IOException {
+        try {
+            refresh().get(refreshTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while refreshing node metrics");
+        } catch (TimeoutException e) {
+            throw new IOException("Refreshing node metrics took more than " + refreshTimeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            throw new IOException("Refreshing node metrics failed", e.getCause());
+        }
+    }
+
+    /**
+     * Picks the node for a torrent. If no metrics were sampled yet, samples
+     * them first, waiting at most the refresh timeout.
+     *
+     * @param key
+     *          info hash of the torrent, null if unknown
+     * @return the chosen node
+     * @throws IOException
+     *           if no node has fresh metrics and enough free space, or the
+     *           first refresh didn't finish in time
+     */
+    public Node select(String key) throws IOException {
+        if (metrics.isEmpty())
+            awaitRefresh();
+        List<NodeMetrics> candidates = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (NodeMetrics curr : getMetrics()) {
+            if (now - curr.getSampledAt() > maxAgeMillis)
+                continue;
+            if (curr.getFreeSpace() >= 0 && curr.getFreeSpace() < minFreeSpace)
+                continue;
+            candidates.add(curr);
+        }
+        if (candidates.isEmpty())
+            throw new IOException("No node available for placement, metrics: " + getMetrics());
+        return strategy.select(candidates, key).getNode();
+    }
+
+    /**
+     * Adds a torrent to the node chosen for it, keyed by its info hash if it
+     * can be told from the parameter (a magnet link or a metainfo channel).
+     *
+     * @return the added torrent, tagged with the node it was added to
+     * @throws IOException
+     *           if no node is available or adding failed
+     * @throws JSONException
+     */
+    public Tagged<AddedTorrentInfo> addTorrent(AddTorrentParameter parameter) throws IOException, JSONException {
+        String key = null;
+        if (parameter.torrentFileNameOrURL != null)
+            key = magnetInfoHash(parameter.torrentFileNameOrURL);
+        else if (parameter.metaInfoChannel != null)
+            key = infoHash(parameter.metaInfoChannel);
+        return addTorrent(parameter, key);
+    }
+
+    /**
+     * Adds a torrent to the node chosen for the given key.
+     *
+     * @param key
+     *          placement key, usually the info hash; null if unknown
+     * @return the added torrent, tagged with the node it was added to
+     * @throws IOException
+     *           if no node is available or adding failed
+     * @throws JSONException
+     */
+    public Tagged<AddedTorrentInfo> addTorrent(AddTorrentParameter parameter, String key) throws IOException, JSONException {
+        Node node = select(key);
+        AddedTorrentInfo info = node.getClient().addTorrent(parameter);
+        if (!(info instanceof DuplicateTorrentInfo))
+            metrics.computeIfPresent(node.getName(), (name, curr) -> curr.withAddedTorrent());
+        logger.debug("Placed torrent {} on {}", key, node);
+        return new Tagged<>(node, info);
+    }
+
+    private static NodeMetrics bind(NodeMetrics metrics, Node node) {
+        if (metrics.getNode() == node)
+            return metrics;
+        return new NodeMetrics(node, metrics.getTorrentCount(), metrics.getActiveTorrentCount(),
+                metrics.getDownloadSpeed(), metrics.getUploadSpeed(), metrics.getPeerLimitGlobal(),
+                metrics.getFreeSpace(), metrics.getSampledAt());
+    }
+
+    /**
+     * @return the info hash of a magnet link as 40 lowercase hex digits, null
+     *         if the value isn't a magnet link with a btih
+     */
+    public static String magnetInfoHash(String magnet) {
+        if (!magnet.regionMatches(true, 0, "magnet:", 0, 7))
+            return null;
+        String lower = magnet.toLowerCase(Locale.ROOT);
+        int start = lower.indexOf("xt=urn:btih:");
+        if (start < 0)
+            return null;
+        start += 12;
+        int end = start;
+        while (end < lower.length() && lower.charAt(end) != '&')
+            end++;
+        String hash = lower.substring(start, end);
+        if (hash.length() == 40)
+            return hash;
+        if (hash.length() != 32)
+            return null;
+        byte[] bytes = new byte[20];
+        long buffer = 0;
+        int bits = 0;
+        int b = 0;
+        for (int i = 0; i < 32; i++) {
+            int value = BASE32.indexOf(hash.charAt(i));
+            if (value < 0)
+                return null;
+            buffer = (buffer << 5) | value;
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[b++] = (byte) (buffer >>> bits);
+            }
+        }
+        return hex(bytes);
+    }
+
+    /**
+     * Reads the info hash of the torrent file in the channel, from its
+     * position to its end. The position is left unchanged.
+     *
+     * @return the info hash as 40 lowercase hex digits, null if the file isn't
+     *         a valid torrent
+     */
+    public static String infoHash(FileChannel channel) throws IOException {
+        long position = channel.position();
+        long size = channel.size() - position;
+        if (size > Integer.MAX_VALUE)
+            return null;
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                break;
+        }
+        return infoHash(buffer.array());
+    }
+
+    /**
+     * @return the SHA-1 of the bencoded info dictionary of the metainfo as 40
+     *         lowercase hex digits, null if it isn't a valid torrent
+     */
+    public static String infoHash(byte[] metainfo) {
+        try {
+            if (metainfo.length == 0 || metainfo[0] != 'd')
+                return null;
+            int pos = 1;
+            while (metainfo[pos] != 'e') {
+                int keyEnd = skip(metainfo, pos);
+                boolean info = keyEnd - pos == 6 && metainfo[pos] == '4' && metainfo[pos + 1] == ':'
+                        && new String(metainfo, pos + 2, 4, StandardCharsets.US_ASCII).equals("info");
+                int valueEnd = skip(metainfo, keyEnd);
+                if (info) {
+                    MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                    sha1.update(metainfo, keyEnd, valueEnd - keyEnd);
+                    return hex(sha1.digest());
+                }
+                pos = valueEnd;
+            }
+            return null;
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return index after the bencoded value at pos
+     */
+    private static int skip(byte[] data, int pos) {
+        byte type = data[pos];
+        if (type == 'i') {
+            while (data[pos] != 'e')
+                pos++;
+            return pos + 1;
+        }
+        if (type == 'l' || type == 'd') {
+            pos++;
+            while (data[pos] != 'e')
+                pos = skip(data, pos);
+            return pos + 1;
+        }
+        int colon = pos;
+        while (data[colon] != ':')
+            colon++;
+        int len = Integer.parseInt(new String(data, pos, colon - pos, StandardCharsets.US_ASCII));
+        if (len < 0 || colon + 1 + len > data.length)
+            throw new IndexOutOfBoundsException();
+        return colon + 1 + len;
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >>> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -2,9 +2,12 @@ package ca.benow.transmission;
 
 import ca.benow.transmission.model.AddedTorrentInfo;
 import ca.benow.transmission.model.DuplicateTorrentInfo;
+import ca.benow.transmission.model.JSONStreamReader;
 import ca.benow.transmission.model.SessionStatus;
+import ca.benow.transmission.model.TorrentSettings;
 import ca.benow.transmission.model.TorrentStatus;
 import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import ca.benow.transmission.model.TorrentTable;
 import ca.benow.transmission.model.TrackerPair;
 import ca.benow.transmission.model.TransmissionSession;
 import ca.benow.transmission.model.TransmissionSession.SessionField;
@@ -12,28 +15,31 @@ import ca.benow.transmission.model.TransmissionSession.SessionPair;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The main class for interacting with transmission. Create an instance with
  * appropriate parameters and call the methods. If possible, re-use the instance
- * to avoid slight network overhead.
+ * to avoid slight network overhead: each instance keeps its connections to the
+ * daemon alive in a {@link ConnectionPool}.
  * <p/>
  * Here's an example.
  *
@@ -49,18 +55,28 @@ import java.util.Map;
  * </pre>
  *
  * By tuning the log4j config, it is possible to see the JSON RPC request and
- * response text, which might be useful for debugging.
+ * response text, which might be useful for debugging. For production use, a
+ * sampled, size-capped {@link WireTrace} can record the traffic to a file.
  *
  * @author andy
  *
  */
 public class TransmissionClient {
 
-    private static final String ID_RECENTLY_ACTIVE = "recently-active";
+    static final String ID_RECENTLY_ACTIVE = "recently-active";
     private static final String SESSION_HEADER = "X-Transmission-Session-Id";
     private static final int DEFAULT_PORT = 9091;
+    private static final int MAX_SESSION_RETRIES = 3;
+    private static final int SESSION_HEADER_VALUE = 3;
+    private static final int CONTENT_ENCODING_VALUE = 7;
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    /** first rpc-version answering torrent-get in table format */
+    static final int TABLE_FORMAT_RPC_VERSION = 16;
+    private static final int DEFAULT_CHUNK_SIZE = 500;
 
     private static Logger logger = LoggerFactory.getLogger(TransmissionClient.class);
+    private static final WireTrace DEBUG_TRACE = WireTrace.toLogger(logger);
+    private static final ThreadLocal<RpcSample> SAMPLES = ThreadLocal.withInitial(RpcSample::new);
     public static final int PRIORITY_LOW = -1;
     public static final int PRIORITY_NORMAL = 0;
     public static final int PRIORITY_HIGH = 1;
@@ -69,8 +85,19 @@ public class TransmissionClient {
     private String user;
     private String pass;
     private String userCrypt;
-    private String sessionId;
-    private static int tag = 0;
+    private final ConnectionPool pool;
+    private final String path;
+    private final String hostHeader;
+    private final AtomicInteger tag = new AtomicInteger();
+    private volatile WireTrace wireTrace;
+    private volatile RpcInstrumentation instrumentation;
+    private volatile boolean acceptCompressed = true;
+    private volatile int requestCompression = -1;
+    private volatile boolean tableFormat = true;
+    private volatile boolean typedTorrents;
+    /** 0 until fetched */
+    private volatile int rpcVersion;
+    private final String displayUrl;
 
     /**
      * Creates a new client that connects to a given url. URL should be something
@@ -84,6 +111,10 @@ public class TransmissionClient {
      */
     public TransmissionClient(URL url) {
         this.url = url;
+        this.pool = new ConnectionPool(url);
+        this.path = url.getFile().length() == 0 ? "/" : url.getFile();
+        this.hostHeader = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+        this.displayUrl = url.getProtocol() + "://" + hostHeader + path;
         if (url.getUserInfo() != null) {
             String uinfo = url.getUserInfo();
             if (uinfo != null)
@@ -179,60 +210,458 @@ public class TransmissionClient {
      * @throws JSONException
      */
     public JSONObject sendCommand(String name, JSONObject args)  throws IOException, TransmissionException, JSONException {
-        HttpURLConnection hconn = (HttpURLConnection) url.openConnection();
-        hconn.setRequestMethod("POST");
-        hconn.setDoOutput(true);
-        if (userCrypt != null)
-            hconn.setRequestProperty("Authorization", "Basic " + userCrypt);
-        if (sessionId != null)
-            hconn.setRequestProperty(SESSION_HEADER, sessionId);
+        return sendCommand(name, args, null, null, JSON_ARGUMENTS);
+    }
+
+    /**
+     * Sends a command and decodes the 'arguments' of the response with the
+     * given reader while they are read from the connection.
+     *
+     * @return the decoded arguments or null if the response has none
+     */
+    <T> T sendCommand(String name, JSONObject args, ArgumentsReader<T> reader) throws IOException, TransmissionException, JSONException {
+        return sendCommand(name, args, null, null, reader);
+    }
+
+    /**
+     * Sends a command with one member of the arguments streamed into the
+     * request, e.g. the base64 encoded metainfo of a large torrent file.
+     *
+     * @param streamedName
+     *          name of the streamed member, null if there is none
+     * @param streamedValue
+     *          writes the streamed member's value
+     */
+    <T> T sendCommand(String name, JSONObject args, String streamedName, RequestBuffer.StreamedValue streamedValue, ArgumentsReader<T> reader) throws IOException, TransmissionException, JSONException {
+        return execute(prepare(name, args, streamedName, streamedValue), reader);
+    }
 
+    /**
+     * Serializes a command without sending it, so the work can be done on
+     * another thread than the request.
+     *
+     * @see #sendCommand(String, JSONObject, String, RequestBuffer.StreamedValue, ArgumentsReader)
+     */
+    RequestBuffer prepare(String name, JSONObject args, String streamedName, RequestBuffer.StreamedValue streamedValue) throws IOException, JSONException {
+        long start = System.nanoTime();
+        int requestTag = tag.getAndIncrement();
         JSONObject command = new JSONObject();
         command.put("method", name);
-        command.put("arguments", args);
-        command.put("tag", String.valueOf(tag++));
+        command.put("tag", String.valueOf(requestTag));
 
-        String json = command.toString(2);
-        OutputStream out = hconn.getOutputStream();
-        out.write((json + "\r\n\r\n").getBytes());
-        out.flush();
-        out.close();
+        RequestBuffer body;
+        if (streamedName == null) {
+            command.put("arguments", args);
+            body = RequestBuffer.of(command);
+        } else {
+            body = RequestBuffer.of(command, args == null ? new JSONObject() : args, streamedName, streamedValue);
+        }
+        body.method = name;
+        body.tag = requestTag;
+        body.serializeNanos = System.nanoTime() - start;
+        return body;
+    }
 
-        BufferedReader in;
+    /**
+     * Sends a prepared command.
+     *
+     * @return the decoded arguments or null if the response has none
+     */
+    <T> T execute(RequestBuffer body, ArgumentsReader<T> reader) throws IOException, TransmissionException, JSONException {
+        RpcInstrumentation instr = instrumentation;
+        RpcSample sample = instr == null ? null : SAMPLES.get().begin(body, displayUrl);
+        long start = 0;
+        if (sample != null) {
+            try {
+                instr.begin(sample);
+            } catch (RuntimeException e) {
+                logger.warn("Instrumentation failed", e);
+            }
+            start = System.nanoTime();
+        }
         try {
-            in = new BufferedReader(new InputStreamReader(hconn.getInputStream()));
-            logger.debug("Wrote:{}",json);
-        } catch (IOException e) {
-            if (hconn.getResponseCode() == 409) {
-                String sessId = hconn.getHeaderField(SESSION_HEADER);
-                if (sessId != null) {
-                    logger.debug("Reconnecting with new session id");
-                    this.sessionId = sessId;
-                    return sendCommand(name, args);
+            Reply<T> reply = send(body, reader, sample);
+
+            if (reply.result == null)
+                throw new JSONException("JSONObject[\"result\"] not found.");
+            if (!reply.result.equals("success"))
+                throw new TransmissionException(reply.result, body.toString(), reply.getText());
+            if (sample != null)
+                sample.torrentCount = countTorrents(reply.arguments);
+            return reply.arguments;
+        } catch (IOException | JSONException | RuntimeException e) {
+            if (sample != null)
+                sample.error = e;
+            throw e;
+        } finally {
+            if (sample != null) {
+                sample.totalNanos = System.nanoTime() - start;
+                try {
+                    instr.record(sample);
+                } catch (RuntimeException e) {
+                    logger.warn("Instrumentation failed", e);
                 }
             }
-            throw e;
         }
-        String msg = "";
-        String line = in.readLine();
-        while (line != null) {
-            msg += line + "\n";
-            line = in.readLine();
+    }
+
+    /**
+     * @return number of torrents in decoded arguments, -1 if they hold no
+     *         torrent list
+     */
+    private static int countTorrents(Object arguments) {
+        if (arguments instanceof TorrentGetReader)
+            return ((TorrentGetReader) arguments).getTorrents().size();
+        if (arguments instanceof TorrentTable)
+            return ((TorrentTable) arguments).size();
+        if (arguments instanceof JSONObject) {
+            JSONArray torrents = ((JSONObject) arguments).optJSONArray("torrents");
+            return torrents == null ? -1 : torrents.length();
         }
-        JSONObject result;
-        JSONTokener toker = new JSONTokener(msg);
-        result = new JSONObject(toker);
+        return -1;
+    }
+
+    /**
+     * Decodes the 'arguments' member of a response.
+     */
+    interface ArgumentsReader<T> {
+        T read(JSONStreamReader in) throws IOException, JSONException;
+    }
+
+    static final ArgumentsReader<JSONObject> JSON_ARGUMENTS = JSONStreamReader::readObject;
 
-        logger.debug("Read: {} ",result.toString(2));
+    /**
+     * Envelope of a response, see {@link #readReply(JSONStreamReader, ArgumentsReader)}.
+     */
+    static final class Reply<T> {
+        String result;
+        T arguments;
+
+        /**
+         * @return the response text to report on failure, made up from the
+         *         decoded result and arguments, so successful responses are
+         *         never copied
+         */
+        String getText() {
+            if (arguments instanceof JSONObject)
+                return "{\"arguments\":" + arguments + ",\"result\":" + JSONObject.quote(result) + "}";
+            return "{\"result\":" + JSONObject.quote(result) + "}";
+        }
+    }
 
-        String resultStr = result.getString("result");
-        if (!resultStr.equals("success"))
-            throw new TransmissionException(resultStr, command.toString(2), msg);
+    /**
+     * Posts a serialized request, repeating it with the same bytes whenever the
+     * daemon hands out a new session id, but at most MAX_SESSION_RETRIES times.
+     */
+    private <T> Reply<T> send(RequestBuffer body, ArgumentsReader<T> reader, RpcSample sample) throws IOException, JSONException {
+        WireTrace trace = wireTrace;
+        if (trace == null && logger.isDebugEnabled())
+            trace = DEBUG_TRACE;
+        try {
+            return executeWithRetries(body, reader, trace, sample);
+        } finally {
+            // lets the next thread try if this one couldn't find out the session id
+            pool.abandonHandshake();
+        }
+    }
 
-        JSONObject resultArgs = null;
-        if (result.has("arguments"))
-            resultArgs = result.getJSONObject("arguments");
-        return resultArgs;
+    private <T> Reply<T> executeWithRetries(RequestBuffer body, ArgumentsReader<T> reader, WireTrace trace, RpcSample sample) throws IOException, JSONException {
+        for (int attempt = 0; ; attempt++) {
+            int threshold = requestCompression;
+            boolean compress = threshold >= 0 && body.size() >= threshold;
+            RequestBuffer wire = compress ? body.gzipped() : body;
+            if (sample != null)
+                sample.requestWireBytes = wire.size();
+            String[] headers = requestHeaders(pool.awaitSessionId(), compress);
+            // traces show the request before compression
+            WireTrace.Capture capture = trace == null ? null : trace.begin("POST " + path, headers, body.array(), body.size());
+            try {
+                Reply<T> result = executeOnce(wire, reader, headers, capture, sample);
+                if (result != null)
+                    return result;
+            } catch (IOException | JSONException | RuntimeException e) {
+                if (capture != null)
+                    capture.finish(e);
+                throw e;
+            }
+            if (capture != null)
+                capture.finish(null);
+            if (attempt >= MAX_SESSION_RETRIES)
+                throw new IOException("Session id still rejected after " + attempt + " retries for URL: " + url);
+            logger.debug("Reconnecting with new session id");
+        }
+    }
+
+    /**
+     * @return the parsed response or null if the request is to be sent again,
+     *         because the daemon asked for another session id or rejected a
+     *         compressed request
+     */
+    private <T> Reply<T> executeOnce(RequestBuffer body, ArgumentsReader<T> reader, String[] headers, WireTrace.Capture capture, RpcSample sample) throws IOException, JSONException {
+        long start = sample == null ? 0 : System.nanoTime();
+        HttpConnection conn = pool.lease();
+        if (sample != null)
+            sample.connectNanos += System.nanoTime() - start;
+        HttpResponse response;
+        try {
+            response = post(conn, body, headers, sample);
+        } catch (IOException e) {
+            pool.release(conn, false);
+            if (!conn.isReused() || !conn.isRetryable(e) || Thread.currentThread().isInterrupted())
+                throw e;
+            // daemon dropped the kept-alive connection before answering. Once a
+            // response started or the read timed out the request may have been
+            // acted on, and torrent-add or torrent-remove must not run twice.
+            logger.debug("Pooled connection closed by peer, retrying on a new connection");
+            if (sample != null) {
+                sample.connectionRetries++;
+                start = System.nanoTime();
+            }
+            conn = pool.lease();
+            if (sample != null)
+                sample.connectNanos += System.nanoTime() - start;
+            try {
+                response = post(conn, body, headers, sample);
+            } catch (IOException e2) {
+                pool.release(conn, false);
+                throw e2;
+            }
+        }
+
+        boolean reusable = false;
+        try {
+            if (capture != null)
+                capture.response(response.status);
+            String sessId = response.getHeader(SESSION_HEADER);
+            if (response.status == 409 && sessId != null) {
+                reusable = response.finish();
+                pool.renewSessionId(headers[SESSION_HEADER_VALUE], sessId);
+                if (sample != null)
+                    sample.sessionRetries++;
+                return null;
+            }
+            pool.confirmSessionId();
+            if (response.status == HTTP_UNSUPPORTED_MEDIA_TYPE && headers[CONTENT_ENCODING_VALUE] != null) {
+                reusable = response.finish();
+                logger.info("{} doesn't accept compressed requests, sending them uncompressed", displayUrl);
+                requestCompression = -1;
+                return null;
+            }
+            if (response.status != HttpURLConnection.HTTP_OK) {
+                reusable = response.finish();
+                throw new IOException("Server returned HTTP response code: " + response.status + " for URL: " + url);
+            }
+            InputStream raw = response.getBody();
+            String encoding = response.getHeader("Content-Encoding");
+            long parseStart = sample == null ? 0 : System.nanoTime();
+            // decode and inflate straight off the socket, only a few KB are buffered
+            InputStream in = ContentEncoding.decode(encoding, raw);
+            ContentEncoding.CountingInputStream decoded = null;
+            if (sample != null && in != raw)
+                in = decoded = new ContentEncoding.CountingInputStream(in);
+            if (capture != null)
+                in = capture.tee(in);
+            Reply<T> result;
+            try {
+                result = readReply(new JSONStreamReader(new InputStreamReader(in, StandardCharsets.UTF_8)), reader);
+            } finally {
+                if (in != raw)
+                    in.close();
+            }
+            reusable = response.finish();
+            if (sample != null) {
+                sample.parseNanos = System.nanoTime() - parseStart;
+                sample.responseBytes = response.getBodyBytes();
+                sample.decodedResponseBytes = decoded == null ? sample.responseBytes : decoded.count;
+                sample.contentEncoding = decoded == null ? null : encoding;
+            }
+            if (capture != null)
+                capture.finish(null);
+            return result;
+        } finally {
+            pool.release(conn, reusable);
+        }
+    }
+
+    /**
+     * Reads a response envelope, decoding its 'arguments' with the given reader.
+     */
+    static <T> Reply<T> readReply(JSONStreamReader in, ArgumentsReader<T> reader) throws IOException, JSONException {
+        Reply<T> reply = new Reply<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("result"))
+                reply.result = in.nextString();
+            else if (name.equals("arguments") && in.peek() != JSONStreamReader.Token.NULL)
+                reply.arguments = reader.read(in);
+            else
+                in.skipValue();
+        }
+        in.endObject();
+        return reply;
+    }
+
+    private String[] requestHeaders(String sessId, boolean compressed) {
+        return new String[] {
+                "Authorization", userCrypt == null ? null : "Basic " + userCrypt,
+                SESSION_HEADER, sessId,
+                "Accept-Encoding", acceptCompressed ? ContentEncoding.ACCEPT : null,
+                "Content-Encoding", compressed ? "gzip" : null,
+        };
+    }
+
+    private HttpResponse post(HttpConnection conn, RequestBuffer body, String[] headers, RpcSample sample) throws IOException {
+        if (sample == null) {
+            conn.post(path, hostHeader, headers, body.array(), body.size());
+            return conn.readResponse();
+        }
+        long start = System.nanoTime();
+        try {
+            conn.post(path, hostHeader, headers, body.array(), body.size());
+        } finally {
+            long written = System.nanoTime();
+            sample.writeNanos += written - start;
+            start = written;
+        }
+        try {
+            return conn.readResponse();
+        } finally {
+            sample.waitNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Installs a trace which records the raw requests and responses. Without a
+     * trace, exchanges are only traced to this class' logger at debug level.
+     * The client doesn't close the trace when it is replaced.
+     *
+     * @param wireTrace
+     *          the trace or null to disable tracing
+     */
+    public void setWireTrace(WireTrace wireTrace) {
+        this.wireTrace = wireTrace;
+    }
+
+    public WireTrace getWireTrace() {
+        return wireTrace;
+    }
+
+    /**
+     * Installs instrumentation which is given measurements of every RPC, see
+     * {@link RpcMetrics}. Without instrumentation nothing is measured.
+     *
+     * @param instrumentation
+     *          the instrumentation or null to remove it
+     */
+    public void setInstrumentation(RpcInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    public RpcInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Lets the daemon send gzip or deflate compressed responses, which are
+     * inflated while they are parsed. Full torrent-gets shrink several times,
+     * which pays off on slow links; on the loopback interface the compression
+     * may cost more than it saves. On by default.
+     *
+     * @param acceptCompressed
+     *          true to send Accept-Encoding
+     */
+    public void setAcceptCompressed(boolean acceptCompressed) {
+        this.acceptCompressed = acceptCompressed;
+    }
+
+    public boolean isAcceptCompressed() {
+        return acceptCompressed;
+    }
+
+    /**
+     * Sends requests of at least the given size gzip compressed, e.g. large
+     * torrent-adds with metainfo or bulk torrent-sets. transmission-daemon
+     * itself doesn't accept compressed requests, so this is only useful
+     * behind a proxy which does. If the server answers 415 the request is
+     * sent again uncompressed and compression is switched off. Off by
+     * default.
+     *
+     * @param minBytes
+     *          minimum size of a request to compress, -1 to never compress
+     */
+    public void setRequestCompression(int minBytes) {
+        this.requestCompression = minBytes < 0 ? -1 : minBytes;
+    }
+
+    /**
+     * @return minimum size of a request to compress, -1 if requests aren't
+     *         compressed
+     */
+    public int getRequestCompression() {
+        return requestCompression;
+    }
+
+    /**
+     * Lets torrent-gets ask for the table format of rpc-version 16 and later,
+     * a row of field names followed by one row of values per torrent, instead
+     * of repeating every field name in every torrent. Older daemons get the
+     * object format. On by default.
+     *
+     * @param tableFormat
+     *          false to always ask for objects
+     */
+    public void setTableFormat(boolean tableFormat) {
+        this.tableFormat = tableFormat;
+    }
+
+    public boolean isTableFormat() {
+        return tableFormat;
+    }
+
+    /**
+     * Lets torrent-gets decode torrents straight into typed fields instead of
+     * wrapping a JSONObject per torrent, which saves most of the allocations
+     * of large responses. Typed torrents leave the deprecated
+     * {@link ca.benow.transmission.model.JSONAccessor#obj} field null, use
+     * {@link TorrentStatus#getJSONObject()} instead. Off by default.
+     *
+     * @param typedTorrents
+     *          true to read typed torrents
+     */
+    public void setTypedTorrents(boolean typedTorrents) {
+        this.typedTorrents = typedTorrents;
+    }
+
+    public boolean isTypedTorrents() {
+        return typedTorrents;
+    }
+
+    /**
+     * @return the daemon's rpc-version, fetched with a session-get on first use
+     * @throws IOException
+     * @throws JSONException
+     */
+    public int getRpcVersion() throws IOException, JSONException {
+        int version = rpcVersion;
+        if (version == 0) {
+            JSONObject args = new JSONObject();
+            // daemons before rpc-version 16 ignore the fields and send everything
+            args.put("fields", new JSONArray().put("rpc-version"));
+            JSONObject result = sendCommand("session-get", args);
+            version = result == null ? 1 : Math.max(1, result.optInt("rpc-version", 1));
+            logger.debug("{} speaks rpc-version {}", displayUrl, version);
+            rpcVersion = version;
+        }
+        return version;
+    }
+
+    /**
+     * @return the pool of kept-alive connections to the daemon, which can be
+     *         used to tune connection limits and timeouts
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
     }
 
     /**
@@ -247,16 +676,109 @@ public class TransmissionClient {
      * @return status for requested torrents
      * @throws IOException
      * @throws JSONException
+     * @see TorrentFieldPlanner for fetching heavy fields of many torrents
+     *      within a byte budget
      */
     public List<TorrentStatus> getTorrents(int[] ids, final TorrentField[] requestedFieldsValue) throws IOException, JSONException {
-        JSONObject args = new JSONObject();
+        JSONArray idAry = null;
+        if (ids != null && ids.length > 0) {
+            idAry = new JSONArray();
+            for(int id : ids) {
+                idAry.put(id);
+            }
+        }
+        TorrentField[] requestedFields = expandFields(requestedFieldsValue);
+        JSONObject args = torrentGetArgs(idAry, requestedFields);
+
+        TorrentGetReader result = sendCommand("torrent-get", args, new TorrentGetReader(requestedFields, typedTorrents));
+        if (result == null)
+            throw new JSONException("JSONObject[\"arguments\"] not found.");
+        return result.getTorrents();
+    }
+
+    /**
+     * Fetches the fields of the given table and refills it with the result.
+     * On failure the table is left empty.
+     *
+     * @param ids
+     *          optional ids of torrents to fetch, all torrents if not given
+     * @param table
+     *          table to fill, its fields are requested
+     * @return the table
+     * @throws IOException
+     * @throws JSONException
+     */
+    public TorrentTable getTorrentTable(int[] ids, final TorrentTable table) throws IOException, JSONException {
+        JSONArray idAry = null;
         if (ids != null && ids.length > 0) {
-            JSONArray idAry = new JSONArray();
+            idAry = new JSONArray();
             for(int id : ids) {
                 idAry.put(id);
             }
-            args.put("ids", idAry);
         }
+        JSONObject args = torrentGetArgs(idAry, table.getFields());
+        table.clear();
+        boolean done = false;
+        try {
+            sendCommand("torrent-get", args, in -> {
+                in.beginObject();
+                while (in.hasNext()) {
+                    if (in.nextName().equals("torrents"))
+                        table.read(in);
+                    else
+                        in.skipValue();
+                }
+                in.endObject();
+                return table;
+            });
+            done = true;
+        } finally {
+            if (!done)
+                table.clear();
+        }
+        return table;
+    }
+
+    /**
+     * Builds the arguments of a torrent-get request.
+     *
+     * @param ids
+     *          JSONArray of ids, ID_RECENTLY_ACTIVE or null for all torrents
+     * @param requestedFieldsValue
+     *          fields to fetch, null for the default fields
+     */
+    static JSONObject createTorrentGetArgs(Object ids, TorrentField[] requestedFieldsValue) throws JSONException {
+        JSONObject args = new JSONObject();
+        if (ids != null)
+            args.put("ids", ids);
+        TorrentField[] requestedFields = expandFields(requestedFieldsValue);
+        JSONArray fields = new JSONArray();
+        for(TorrentField requestedField : requestedFields) {
+            fields.put(TorrentStatus.fieldNameByFieldPos[requestedField.ordinal()]);
+        }
+        args.put("fields", fields);
+        return args;
+    }
+
+    /**
+     * Builds the arguments of a torrent-get request, in table format if
+     * enabled and the daemon supports it. Responses must be decoded with
+     * {@link TorrentGetReader} or {@link TorrentTable}, which read both formats.
+     *
+     * @see #createTorrentGetArgs(Object, TorrentField[])
+     */
+    JSONObject torrentGetArgs(Object ids, TorrentField[] requestedFieldsValue) throws IOException, JSONException {
+        JSONObject args = createTorrentGetArgs(ids, requestedFieldsValue);
+        if (tableFormat && getRpcVersion() >= TABLE_FORMAT_RPC_VERSION)
+            args.put("format", "table");
+        return args;
+    }
+
+    /**
+     * @return the given fields, the default fields if null, or every field if
+     *         TorrentField.all is among them
+     */
+    static TorrentField[] expandFields(final TorrentField[] requestedFieldsValue) {
         TorrentField[] requestedFields = requestedFieldsValue;
         if (requestedFields == null) {
             requestedFields = TorrentStatus.defaultFields;
@@ -276,21 +798,7 @@ public class TransmissionClient {
                 }
             }
         }
-
-        JSONArray fields = new JSONArray();
-        for(TorrentField requestedField : requestedFields) {
-            fields.put(TorrentStatus.fieldNameByFieldPos[requestedField.ordinal()]);
-        }
-        args.put("fields", fields);
-
-        List<TorrentStatus> torrents = new ArrayList<>();
-        JSONObject result = sendCommand("torrent-get", args);
-        JSONArray torAry = result.getJSONArray("torrents");
-        for (int i = 0; i < torAry.length(); i++) {
-            torrents.add(new TorrentStatus(torAry.getJSONObject(i)));
-        }
-
-        return torrents;
+        return requestedFields;
     }
 
     public List<TorrentStatus> getAllTorrents(TorrentField[] torrentFields) throws IOException, JSONException {
@@ -301,6 +809,37 @@ public class TransmissionClient {
         return getTorrents(null, null);
     }
 
+    /**
+     * Streams all torrents, fetching their ids first and then the fields in
+     * chunks of 500 torrents as the stream is consumed.
+     *
+     * @see #streamTorrents(TorrentField[], int, boolean)
+     */
+    public Stream<TorrentStatus> streamTorrents(TorrentField[] fields) {
+        return streamTorrents(fields, DEFAULT_CHUNK_SIZE, false);
+    }
+
+    /**
+     * Streams all torrents without holding more than a chunk of them, unlike
+     * {@link #getAllTorrents(TorrentField[])}. Requests are made as the stream
+     * is consumed; failures are thrown as {@link java.io.UncheckedIOException}.
+     * Close the stream when not consuming it to the end.
+     *
+     * @param fields
+     *          fields to fetch, null for the default fields
+     * @param chunkSize
+     *          number of torrents fetched per request
+     * @param prefetch
+     *          whether to fetch the next chunk in the background
+     * @return sequential stream of the torrents, in order of ids
+     * @see TorrentPager
+     */
+    public Stream<TorrentStatus> streamTorrents(TorrentField[] fields, int chunkSize, boolean prefetch) {
+        TorrentPager pager = new TorrentPager(this, fields, chunkSize, prefetch);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pager, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(pager::close);
+    }
+
     /**
      * Adds a new torrent by name or url
      *
@@ -399,6 +938,14 @@ public class TransmissionClient {
         obj.put("filename", parameterObject.torrentFileNameOrURL);
         JSONObject result = sendCommand("torrent-add", obj);
         logger.trace("Result from Transmission: {}",result);
+        return toAddedTorrentInfo(result);
+    }
+
+    /**
+     * @return the added torrent of a torrent-add response, a
+     *         DuplicateTorrentInfo if transmission already had it
+     */
+    static AddedTorrentInfo toAddedTorrentInfo(JSONObject result) throws JSONException {
         // could be : {"torrent-duplicate":{"id":62,"name":"Filename of Torret","hashString":"hashString"}}
         if (result.has("torrent-duplicate")) {
             return new DuplicateTorrentInfo(result.getJSONObject("torrent-duplicate"));
@@ -407,25 +954,50 @@ public class TransmissionClient {
     }
     
 
-    private AddedTorrentInfo addTorrent(AddTorrentParameter parameterObject) throws IOException, JSONException {
-        JSONObject obj = new JSONObject();
-        if (parameterObject.downloadDir != null)
-            obj.put("download-dir", parameterObject.downloadDir);
-        if (parameterObject.torrentFileNameOrURL == null && parameterObject.metaInfo == null)
+    /**
+     * Adds a torrent described by the given parameters. Metainfo given as
+     * stream or channel is base64 encoded straight into the request.
+     *
+     * @param parameterObject
+     *          the torrent, see {@link AddTorrentParameter#builder()}
+     * @return info on the added torrent
+     * @throws IOException
+     * @throws JSONException
+     */
+    public AddedTorrentInfo addTorrent(final AddTorrentParameter parameterObject) throws IOException, JSONException {
+        if (parameterObject.torrentFileNameOrURL == null && parameterObject.metaInfo == null
+                && parameterObject.metaInfoChannel == null)
             throw new NullPointerException(
                     "A torrentFileNameOrURL or metaInfo parameter is required");
+        JSONObject obj = createTorrentAddArgs(parameterObject);
         if (parameterObject.torrentFileNameOrURL != null)
             obj.put("filename", parameterObject.torrentFileNameOrURL);
-        if (parameterObject.metaInfo != null) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            Base64.encode(parameterObject.metaInfo, out);
-            String encoded = new String(out.toByteArray());
-            obj.put("metainfo", encoded);
+        String streamedName = null;
+        RequestBuffer.StreamedValue streamedValue = null;
+        if (parameterObject.metaInfoChannel != null) {
+            streamedName = "metainfo";
+            streamedValue = out -> Base64.encode(parameterObject.metaInfoChannel, out);
+        } else if (parameterObject.metaInfo != null) {
+            streamedName = "metainfo";
+            streamedValue = out -> Base64.encode(parameterObject.metaInfo, out);
         }
+
+        JSONObject result = sendCommand("torrent-add", obj, streamedName, streamedValue, JSON_ARGUMENTS);
+        return toAddedTorrentInfo(result);
+    }
+
+    /**
+     * Builds the arguments of a torrent-add request, except for the torrent
+     * itself.
+     */
+    static JSONObject createTorrentAddArgs(AddTorrentParameter parameterObject) throws JSONException {
+        JSONObject obj = new JSONObject();
+        if (parameterObject.downloadDir != null)
+            obj.put("download-dir", parameterObject.downloadDir);
         obj.put("paused", parameterObject.paused);
         if (parameterObject.peerLimit >= 0)
             obj.put("peer-limit", parameterObject.peerLimit);
-        obj.put("peer-limit", parameterObject.bandwidthPriority);
+        obj.put("bandwidthPriority", parameterObject.bandwidthPriority);
         if (parameterObject.filesWanteds != null && parameterObject.filesWanteds.length > 0)
             obj.put("files-wanted", new JSONArray(parameterObject.filesWanteds));
         if (parameterObject.filesUnwanteds != null && parameterObject.filesUnwanteds.length > 0)
@@ -436,9 +1008,7 @@ public class TransmissionClient {
             obj.put("priority-low", new JSONArray(parameterObject.priorityLows));
         if (parameterObject.priorityNormals != null && parameterObject.priorityNormals.length > 0)
             obj.put("priority-normal", new JSONArray(parameterObject.priorityNormals));
-
-        JSONObject result = sendCommand("torrent-add", obj);
-        return new AddedTorrentInfo(result.getJSONObject("torrent-added"));
+        return obj;
     }
 
     /**
@@ -454,7 +1024,7 @@ public class TransmissionClient {
             throw new NullPointerException("At least one id is required");
         JSONObject obj = new JSONObject();
         if (ids.length == 1)
-            obj.put("ids", ids[1]);
+            obj.put("ids", ids[0]);
         else {
             JSONArray ary = new JSONArray();
             for(Object id : ids) {
@@ -478,7 +1048,7 @@ public class TransmissionClient {
             throw new NullPointerException("At least one id is required");
         JSONObject obj = new JSONObject();
         if (ids.length == 1)
-            obj.put("ids", ids[1]);
+            obj.put("ids", ids[0]);
         else {
             JSONArray ary = new JSONArray();
             for(Object id : ids) {
@@ -502,7 +1072,7 @@ public class TransmissionClient {
             throw new NullPointerException("At least one id is required");
         JSONObject obj = new JSONObject();
         if (ids.length == 1)
-            obj.put("ids", ids[1]);
+            obj.put("ids", ids[0]);
         else {
             JSONArray ary = new JSONArray();
             for(Object id : ids) {
@@ -526,7 +1096,7 @@ public class TransmissionClient {
             throw new NullPointerException("At least one id is required");
         JSONObject obj = new JSONObject();
         if (ids.length == 1)
-            obj.put("ids", ids[1]);
+            obj.put("ids", ids[0]);
         else {
             JSONArray ary = new JSONArray();
             for(Object id : ids) {
@@ -596,7 +1166,7 @@ public class TransmissionClient {
             boolean uploadLimited) throws IOException, JSONException {
         JSONObject obj = new JSONObject();
         if (ids != null && ids.length == 1)
-            obj.put("ids", ids[1]);
+            obj.put("ids", ids[0]);
         else {
             JSONArray ary = new JSONArray();
             if (ids != null) {
@@ -683,6 +1253,35 @@ public class TransmissionClient {
         sendCommand("torrent-set", obj);
     }
 
+    /**
+     * Changes only the given settings of the selected torrents, leaving all
+     * others as they are.
+     *
+     * @param ids
+     *          numerical ids, string hashes or the ID_RECENTLY_ADDED constant. If
+     *          null all ids will be affected
+     * @param settings
+     *          the settings to change
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void setTorrents(Object[] ids, TorrentSettings settings) throws IOException, JSONException {
+        JSONObject obj = new JSONObject();
+        if (ids != null && ids.length == 1)
+            obj.put("ids", ids[0]);
+        else {
+            JSONArray ary = new JSONArray();
+            if (ids != null) {
+                for(Object id : ids) {
+                    ary.put(id);
+                }
+            }
+            obj.put("ids", ary);
+        }
+        settings.putInto(obj);
+        sendCommand("torrent-set", obj);
+    }
+
     /**
      * Removes given torrents
      *
@@ -698,7 +1297,7 @@ public class TransmissionClient {
             throw new NullPointerException("At least one id is required");
         JSONObject obj = new JSONObject();
         if (ids.length == 1)
-            obj.put("ids", ids[1]);
+            obj.put("ids", ids[0]);
         else {
             JSONArray ary = new JSONArray();
             for(Object id : ids) {
@@ -805,4 +1404,20 @@ public class TransmissionClient {
         return sendCommand("port-test", null).getBoolean("port-is-open");
     }
 
+    /**
+     * Gets the free space in the given directory of the daemon's host. Needs
+     * rpc version 15 (transmission 2.80) or later.
+     *
+     * @param path
+     *          directory on the daemon's host, e.g. its download dir
+     * @return free space in bytes
+     * @throws IOException
+     * @throws JSONException
+     */
+    public long getFreeSpace(String path) throws IOException, JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("path", path);
+        return sendCommand("free-space", obj).getLong("size-bytes");
+    }
+
 }
@@ -0,0 +1,402 @@
+package ca.benow.transmission;
+
+import ca.benow.transmission.model.SessionStatus;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Talks to a fleet of daemons at once. Every call is sent to all nodes in
+ * parallel, so it takes as long as the slowest node instead of the sum of
+ * all. Results are tagged with the node they came from; a node that fails or
+ * exceeds its timeout only shows up as failure in the results, the others
+ * are still returned.
+ *
+ * <pre>
+ * TransmissionCluster cluster = new TransmissionCluster();
+ * cluster.addNode(&quot;nas&quot;, new TransmissionClient(&quot;nas.local&quot;)).setTimeout(2, TimeUnit.SECONDS);
+ * cluster.addNode(&quot;seedbox&quot;, new TransmissionClient(new URL(&quot;https://seedbox.example.com/transmission/rpc&quot;)));
+ * TransmissionCluster.Results&lt;List&lt;TorrentStatus&gt;&gt; results = cluster.getAllTorrents(fields).join();
+ * for (TransmissionCluster.Tagged&lt;TorrentStatus&gt; curr : results.flatten(list -&gt; list))
+ *  System.out.println(curr.getNode().getName() + &quot;: &quot; + curr.getValue().getName());
+ * for (TransmissionCluster.NodeResult&lt;?&gt; failure : results.getFailures())
+ *  System.err.println(failure.getNode().getName() + &quot; failed: &quot; + failure.getError());
+ * </pre>
+ */
+public class TransmissionCluster {
+
+    private static Logger logger = LoggerFactory.getLogger(TransmissionCluster.class);
+
+    private static final long DEFAULT_TIMEOUT = 10000;
+
+    private final Executor executor;
+    private final List<Node> nodes = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a cluster running the calls of each node on the threads of its
+     * connection pool, see {@link AsyncTransmissionClient#AsyncTransmissionClient(TransmissionClient)}.
+     */
+    public TransmissionCluster() {
+        this(null);
+    }
+
+    /**
+     * @param executor
+     *          executor the blocking calls of all nodes are run on
+     */
+    public TransmissionCluster(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * A daemon of the cluster.
+     */
+    public static final class Node {
+
+        private final String name;
+        private final AsyncTransmissionClient async;
+        private volatile long timeoutMillis = DEFAULT_TIMEOUT;
+
+        private Node(String name, AsyncTransmissionClient async) {
+            this.name = name;
+            this.async = async;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public TransmissionClient getClient() {
+            return async.getClient();
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        /**
+         * @param timeout
+         *          time this node gets per call before it counts as failed and
+         *          its request is aborted, 0 to wait indefinitely
+         * @return this node
+         */
+        public Node setTimeout(long timeout, TimeUnit unit) {
+            this.timeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Adds a daemon to the cluster.
+     *
+     * @param name
+     *          name identifying the node in results, unique within the cluster
+     * @param client
+     *          client for the daemon
+     * @return the node, to set its timeout
+     */
+    public Node addNode(String name, TransmissionClient client) {
+        AsyncTransmissionClient async = executor == null ? new AsyncTransmissionClient(client)
+                : new AsyncTransmissionClient(client, executor);
+        Node node = new Node(name, async);
+        synchronized (nodes) {
+            if (getNode(name) != null)
+                throw new IllegalArgumentException("Duplicate node name: " + name);
+            nodes.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * @return the removed node or null if there was none with that name
+     */
+    public Node removeNode(String name) {
+        synchronized (nodes) {
+            Node node = getNode(name);
+            if (node != null)
+                nodes.remove(node);
+            return node;
+        }
+    }
+
+    public Node getNode(String name) {
+        for (Node curr : nodes) {
+            if (curr.name.equals(name))
+                return curr;
+        }
+        return null;
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes));
+    }
+
+    /**
+     * A call made on every node.
+     */
+    public interface NodeCall<T> {
+        CompletableFuture<T> call(AsyncTransmissionClient client);
+    }
+
+    /**
+     * Makes a call on every node in parallel.
+     *
+     * @param call
+     *          the call, given each node's client with the node's timeout
+     *          applied
+     * @return future completing once every node answered, failed or timed
+     *         out; it never completes exceptionally
+     */
+    public <T> CompletableFuture<Results<T>> call(NodeCall<T> call) {
+        List<Node> targets = new ArrayList<>(nodes);
+        List<CompletableFuture<NodeResult<T>>> futures = new ArrayList<>(targets.size());
+        for (Node node : targets) {
+            futures.add(call(node, call));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<NodeResult<T>> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<NodeResult<T>> curr : futures) {
+                results.add(curr.join());
+            }
+            return new Results<>(results);
+        });
+    }
+
+    private static <T> CompletableFuture<NodeResult<T>> call(Node node, NodeCall<T> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.call(node.async.withDeadline(node.timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.handle((value, error) -> {
+            long nanos = System.nanoTime() - start;
+            if (error instanceof CompletionException && error.getCause() != null)
+                error = error.getCause();
+            if (error != null)
+                logger.debug("Node {} failed: {}", node.name, error.toString());
+            return new NodeResult<>(node, value, error, nanos);
+        });
+    }
+
+    /**
+     * @see TransmissionClient#getAllTorrents(TorrentField[])
+     */
+    public CompletableFuture<Results<List<TorrentStatus>>> getAllTorrents(TorrentField[] torrentFields) {
+        return call(client -> client.getAllTorrents(torrentFields));
+    }
+
+    /**
+     * @see TransmissionClient#getSessionStats()
+     */
+    public CompletableFuture<Results<SessionStatus>> getSessionStats() {
+        return call(AsyncTransmissionClient::getSessionStats);
+    }
+
+    /**
+     * Starts the given torrents on every node. Numeric ids differ between
+     * daemons, so identify torrents by hash string.
+     *
+     * @see TransmissionClient#startTorrents(Object...)
+     */
+    public CompletableFuture<Results<Void>> startTorrents(Object... ids) {
+        return call(client -> client.startTorrents(ids));
+    }
+
+    /**
+     * @see #startTorrents(Object...)
+     * @see TransmissionClient#stopTorrents(Object...)
+     */
+    public CompletableFuture<Results<Void>> stopTorrents(Object... ids) {
+        return call(client -> client.stopTorrents(ids));
+    }
+
+    /**
+     * @see #startTorrents(Object...)
+     * @see TransmissionClient#verifyTorrents(Object...)
+     */
+    public CompletableFuture<Results<Void>> verifyTorrents(Object... ids) {
+        return call(client -> client.verifyTorrents(ids));
+    }
+
+    /**
+     * @see #startTorrents(Object...)
+     * @see TransmissionClient#reannounceTorrents(Object...)
+     */
+    public CompletableFuture<Results<Void>> reannounceTorrents(Object... ids) {
+        return call(client -> client.reannounceTorrents(ids));
+    }
+
+    /**
+     * @see #startTorrents(Object...)
+     * @see TransmissionClient#removeTorrents(Object[], boolean)
+     */
+    public CompletableFuture<Results<Void>> removeTorrents(Object[] ids, boolean deleteLocalData) {
+        return call(client -> client.removeTorrents(ids, deleteLocalData));
+    }
+
+    /**
+     * Outcome of a call on one node.
+     */
+    public static final class NodeResult<T> {
+
+        private final Node node;
+        private final T value;
+        private final Throwable error;
+        private final long nanos;
+
+        NodeResult(Node node, T value, Throwable error, long nanos) {
+            this.node = node;
+            this.value = value;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return the node's result, null if it failed
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return why the node failed, a TimeoutException if it exceeded its
+         *         timeout, or null on success
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public long getLatencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        @Override
+        public String toString() {
+            return node + (error == null ? ": ok" : ": " + error) + " in " + getLatencyMillis() + "ms";
+        }
+    }
+
+    /**
+     * A value tagged with the node it came from.
+     */
+    public static final class Tagged<E> {
+
+        private final Node node;
+        private final E value;
+
+        Tagged(Node node, E value) {
+            this.node = node;
+            this.value = value;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+
+        public E getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return node + ": " + value;
+        }
+    }
+
+    /**
+     * Outcomes of a call on all nodes, in node order.
+     */
+    public static final class Results<T> {
+
+        private final List<NodeResult<T>> results;
+
+        Results(List<NodeResult<T>> results) {
+            this.results = Collections.unmodifiableList(results);
+        }
+
+        public List<NodeResult<T>> getResults() {
+            return results;
+        }
+
+        public List<NodeResult<T>> getSuccesses() {
+            List<NodeResult<T>> successes = new ArrayList<>(results.size());
+            for (NodeResult<T> curr : results) {
+                if (curr.isSuccess())
+                    successes.add(curr);
+            }
+            return successes;
+        }
+
+        public List<NodeResult<T>> getFailures() {
+            List<NodeResult<T>> failures = new ArrayList<>();
+            for (NodeResult<T> curr : results) {
+                if (!curr.isSuccess())
+                    failures.add(curr);
+            }
+            return failures;
+        }
+
+        /**
+         * @return true if every node succeeded
+         */
+        public boolean isComplete() {
+            for (NodeResult<T> curr : results) {
+                if (!curr.isSuccess())
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Merges the results of all successful nodes into one list, each
+         * element tagged with its node.
+         *
+         * @param elements
+         *          extracts the elements of one node's result
+         */
+        public <E> List<Tagged<E>> flatten(Function<? super T, ? extends Collection<? extends E>> elements) {
+            List<Tagged<E>> merged = new ArrayList<>();
+            for (NodeResult<T> curr : results) {
+                if (!curr.isSuccess() || curr.value == null)
+                    continue;
+                for (E element : elements.apply(curr.value)) {
+                    merged.add(new Tagged<E>(curr.node, element));
+                }
+            }
+            return merged;
+        }
+
+        @Override
+        public String toString() {
+            return results.toString();
+        }
+    }
+}
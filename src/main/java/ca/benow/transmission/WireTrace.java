@@ -0,0 +1,292 @@
+package ca.benow.transmission;
+
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the raw bytes exchanged with the daemon. A trace is only consulted
+ * when installed with {@link TransmissionClient#setWireTrace(WireTrace)} (or
+ * when debug logging is on for TransmissionClient), so tracing costs nothing
+ * while it is off.
+ * <p/>
+ * Exchanges can be sampled, bodies are cut off after a configurable number of
+ * bytes and the Authorization header is never written. Request and response
+ * bodies are copied as they go over the wire, nothing is serialized again.
+ *
+ * <p/>
+ * A trace writing to a file holds it open until {@link #close()}; closed
+ * traces drop further exchanges.
+ *
+ * <pre>
+ * WireTrace trace = WireTrace.toFile(new File(&quot;rpc.trace&quot;), 10 * 1024 * 1024, 5);
+ * trace.setSampleEvery(10);
+ * client.setWireTrace(trace);
+ * ...
+ * client.setWireTrace(null);
+ * trace.close();
+ * </pre>
+ */
+public abstract class WireTrace implements Closeable {
+
+    private static final byte[] NEWLINE = { '\n' };
+
+    private final AtomicLong exchanges = new AtomicLong();
+    private volatile int sampleEvery = 1;
+    private volatile int maxBodyBytes = 64 * 1024;
+
+    /**
+     * Writes one complete exchange.
+     *
+     * @param record
+     *          buffer holding the record
+     * @param len
+     *          number of valid bytes in record
+     * @throws IOException
+     *           on problem writing the record
+     */
+    protected abstract void write(byte[] record, int len) throws IOException;
+
+    /**
+     * @return trace writing every exchange as debug message to the given logger
+     */
+    public static WireTrace toLogger(final Logger logger) {
+        return new WireTrace() {
+            @Override
+            protected void write(byte[] record, int len) {
+                logger.debug("{}", new String(record, 0, len, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Creates a trace appending to the given file. Once the file exceeds
+     * maxFileBytes it is renamed to file.1 (file.1 to file.2 and so on) and a
+     * new file is started.
+     *
+     * @param file
+     *          file to write to
+     * @param maxFileBytes
+     *          size after which the file is rotated
+     * @param maxFiles
+     *          number of rotated files to keep besides the current one
+     * @return the trace
+     */
+    public static WireTrace toFile(File file, long maxFileBytes, int maxFiles) {
+        return new RotatingFileTrace(file, maxFileBytes, maxFiles);
+    }
+
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    /**
+     * @param sampleEvery
+     *          record only every n-th exchange, 1 to record all
+     */
+    public void setSampleEvery(int sampleEvery) {
+        if (sampleEvery < 1)
+            throw new IllegalArgumentException("sampleEvery must be positive");
+        this.sampleEvery = sampleEvery;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * @param maxBodyBytes
+     *          number of bytes recorded per request or response body
+     */
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Releases what the trace writes to. Does nothing unless overridden.
+     *
+     * @throws IOException
+     *           on problem closing the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Starts recording an exchange, if it is sampled.
+     *
+     * @return the capture or null if this exchange is skipped
+     */
+    Capture begin(String requestLine, String[] headers, byte[] body, int len) {
+        if (exchanges.getAndIncrement() % sampleEvery != 0)
+            return null;
+        Capture capture = new Capture(maxBodyBytes);
+        capture.line(">>> " + requestLine);
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            if (headers[i + 1] == null)
+                continue;
+            if ("Authorization".equalsIgnoreCase(headers[i]))
+                capture.line(headers[i] + ": <redacted>");
+            else
+                capture.line(headers[i] + ": " + headers[i + 1]);
+        }
+        capture.body(body, len);
+        return capture;
+    }
+
+    /**
+     * Buffers one exchange until it is complete, so concurrent exchanges don't
+     * interleave in the trace.
+     */
+    final class Capture {
+
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        private final int maxBytes;
+        private long responseBytes;
+        private boolean done;
+
+        Capture(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        void line(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            record.write(bytes, 0, bytes.length);
+            record.write(NEWLINE, 0, 1);
+        }
+
+        private void body(byte[] body, int len) {
+            record.write(body, 0, Math.min(len, maxBytes));
+            record.write(NEWLINE, 0, 1);
+            if (len > maxBytes)
+                line("... " + (len - maxBytes) + " more bytes");
+        }
+
+        void response(int status) {
+            line("<<< " + status);
+        }
+
+        /**
+         * @return stream copying the first bytes read from body into the record
+         */
+        InputStream tee(InputStream body) {
+            return new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read != -1) {
+                        if (responseBytes < maxBytes)
+                            record.write(read);
+                        responseBytes++;
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        if (responseBytes < maxBytes)
+                            record.write(b, off, (int) Math.min(read, maxBytes - responseBytes));
+                        responseBytes += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        /**
+         * Writes the record, exactly once.
+         *
+         * @param error
+         *          what ended the exchange, null if it completed normally
+         */
+        void finish(Throwable error) {
+            if (done)
+                return;
+            done = true;
+            if (responseBytes > 0)
+                record.write(NEWLINE, 0, 1);
+            if (responseBytes > maxBytes)
+                line("... " + (responseBytes - maxBytes) + " more bytes");
+            if (error != null)
+                line("!!! " + error);
+            try {
+                write(record.toByteArray(), record.size());
+            } catch (IOException | RuntimeException ignored) {
+                // tracing must never break the rpc
+            }
+        }
+    }
+
+    private static final class RotatingFileTrace extends WireTrace {
+
+        private final File file;
+        private final long maxFileBytes;
+        private final int maxFiles;
+        private OutputStream out;
+        private long written;
+        private boolean closed;
+
+        RotatingFileTrace(File file, long maxFileBytes, int maxFiles) {
+            this.file = file;
+            this.maxFileBytes = maxFileBytes;
+            this.maxFiles = maxFiles;
+        }
+
+        @Override
+        protected synchronized void write(byte[] record, int len) throws IOException {
+            if (closed)
+                return;
+            if (out == null) {
+                out = new FileOutputStream(file, true);
+                written = file.length();
+            }
+            if (written > 0 && written + len > maxFileBytes) {
+                // the stream is dropped even if closing fails, the next record opens a new one
+                OutputStream old = out;
+                out = null;
+                old.close();
+                rotate();
+                out = new FileOutputStream(file, false);
+                written = 0;
+            }
+            out.write(record, 0, len);
+            out.flush();
+            written += len;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            OutputStream old = out;
+            out = null;
+            if (old != null)
+                old.close();
+        }
+
+        private void rotate() {
+            File oldest = new File(file.getPath() + "." + maxFiles);
+            if (oldest.exists())
+                oldest.delete();
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                File curr = new File(file.getPath() + "." + i);
+                if (curr.exists())
+                    curr.renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+            if (maxFiles > 0)
+                file.renameTo(new File(file.getPath() + ".1"));
+            else
+                file.delete();
+        }
+    }
+}
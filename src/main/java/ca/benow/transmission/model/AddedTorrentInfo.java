@@ -12,21 +12,21 @@ public class AddedTorrentInfo extends JSONAccessor {
     }
 
     public int getId() throws JSONException {
-        return obj.getInt("id");
+        return getJSONObject().getInt("id");
     }
 
     public String getName() throws JSONException {
-        return obj.getString("name");
+        return getJSONObject().getString("name");
     }
 
     public String getHashString() throws JSONException {
-        return obj.getString("hashString");
+        return getJSONObject().getString("hashString");
     }
 
     @Override
     public String toString() {
         try {
-            return obj.toString(2);
+            return getJSONObject().toString(2);
         } catch (JSONException e) {
             logger.error(e.getMessage(),e);
             return e.getMessage();
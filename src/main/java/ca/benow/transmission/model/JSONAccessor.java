@@ -3,10 +3,23 @@ package ca.benow.transmission.model;
 import org.json.JSONObject;
 
 public class JSONAccessor {
+  /**
+   * The wrapped object, null for typed {@link TorrentStatus} instances.
+   *
+   * @deprecated use {@link #getJSONObject()}, which works for every instance
+   */
+  @Deprecated
   public final JSONObject obj;
 
   public JSONAccessor(JSONObject jsonObject) {
     this.obj = jsonObject;
   }
 
+  /**
+   * @return the fields as JSONObject
+   */
+  public JSONObject getJSONObject() {
+    return obj;
+  }
+
 }
@@ -0,0 +1,632 @@
+package ca.benow.transmission.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Pull parser reading JSON tokens from a Reader through a fixed-size buffer.
+ * Unlike JSONTokener it doesn't build a tree, so large responses can be
+ * decoded straight into their final representation. Numbers and known
+ * member names are decoded without allocating.
+ *
+ * <pre>
+ * in.beginObject();
+ * while (in.hasNext()) {
+ *  String name = in.nextName();
+ *  if (name.equals(&quot;id&quot;))
+ *      id = in.nextLong();
+ *  else
+ *      in.skipValue();
+ * }
+ * in.endObject();
+ * </pre>
+ */
+public class JSONStreamReader implements Closeable {
+
+  public enum Token {
+    BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+  }
+
+  private static final int EMPTY_ARRAY = 1;
+  private static final int NONEMPTY_ARRAY = 2;
+  private static final int EMPTY_OBJECT = 3;
+  private static final int DANGLING_NAME = 4;
+  private static final int NONEMPTY_OBJECT = 5;
+  private static final int EMPTY_DOCUMENT = 6;
+  private static final int NONEMPTY_DOCUMENT = 7;
+
+  private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22, };
+
+  private final Reader in;
+  private final char[] buffer;
+  private int pos;
+  private int limit;
+
+  private int[] stack = new int[32];
+  private int stackSize;
+  private Token peeked;
+
+  /* result of the last readNumber() */
+  private boolean numberIntegral;
+  private long numberLong;
+  private double numberDouble;
+
+  public JSONStreamReader(Reader in) {
+    this(in, 8192);
+  }
+
+  /**
+   * @param in
+   *          source of the JSON text
+   * @param bufferSize
+   *          chars read at a time, which also bounds the length of a number
+   */
+  public JSONStreamReader(Reader in, int bufferSize) {
+    this.in = in;
+    this.buffer = new char[bufferSize];
+    stack[stackSize++] = EMPTY_DOCUMENT;
+  }
+
+  public Token peek() throws IOException, JSONException {
+    if (peeked == null)
+      peeked = doPeek();
+    return peeked;
+  }
+
+  public void beginObject() throws IOException, JSONException {
+    expect(Token.BEGIN_OBJECT);
+    push(EMPTY_OBJECT);
+  }
+
+  public void endObject() throws IOException, JSONException {
+    expect(Token.END_OBJECT);
+    stackSize--;
+  }
+
+  public void beginArray() throws IOException, JSONException {
+    expect(Token.BEGIN_ARRAY);
+    push(EMPTY_ARRAY);
+  }
+
+  public void endArray() throws IOException, JSONException {
+    expect(Token.END_ARRAY);
+    stackSize--;
+  }
+
+  /**
+   * @return true if the current object or array has another element
+   */
+  public boolean hasNext() throws IOException, JSONException {
+    Token token = peek();
+    return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+  }
+
+  public String nextName() throws IOException, JSONException {
+    expect(Token.NAME);
+    return readString();
+  }
+
+  /**
+   * Reads a member name and looks it up in the given table, without creating
+   * a String for names of up to the buffer size.
+   *
+   * @return index of the name in the table or -1 if it isn't contained
+   */
+  public int nextName(NameTable names) throws IOException, JSONException {
+    expect(Token.NAME);
+    int len = 0;
+    while (true) {
+      if (len == buffer.length - 1)
+        return names.indexOf(readString());
+      if (pos + len == limit && !fill(len + 1))
+        throw syntaxError("Unterminated name");
+      char c = buffer[pos + len];
+      if (c == '"') {
+        int index = names.indexOf(buffer, pos, len);
+        pos += len + 1;
+        return index;
+      }
+      if (c == '\\')
+        return names.indexOf(readString());
+      len++;
+    }
+  }
+
+  public String nextString() throws IOException, JSONException {
+    Token token = peek();
+    if (token == Token.STRING) {
+      peeked = null;
+      return readString();
+    }
+    if (token == Token.NUMBER) {
+      peeked = null;
+      int len = numberLength();
+      String result = new String(buffer, pos, len);
+      pos += len;
+      return result;
+    }
+    throw syntaxError("Expected a string but was " + token);
+  }
+
+  public boolean nextBoolean() throws IOException, JSONException {
+    expect(Token.BOOLEAN);
+    if (buffer[pos] == 't') {
+      literal("true");
+      return true;
+    }
+    literal("false");
+    return false;
+  }
+
+  public void nextNull() throws IOException, JSONException {
+    expect(Token.NULL);
+    literal("null");
+  }
+
+  /**
+   * @return the next number, fractions are truncated
+   */
+  public long nextLong() throws IOException, JSONException {
+    expect(Token.NUMBER);
+    readNumber();
+    return numberIntegral ? numberLong : (long) numberDouble;
+  }
+
+  public int nextInt() throws IOException, JSONException {
+    return (int) nextLong();
+  }
+
+  public double nextDouble() throws IOException, JSONException {
+    expect(Token.NUMBER);
+    readNumber();
+    return numberIntegral ? numberLong : numberDouble;
+  }
+
+  /**
+   * Skips the next value, including nested objects and arrays.
+   */
+  public void skipValue() throws IOException, JSONException {
+    int depth = 0;
+    do {
+      switch (peek()) {
+      case BEGIN_ARRAY:
+        beginArray();
+        depth++;
+        break;
+      case BEGIN_OBJECT:
+        beginObject();
+        depth++;
+        break;
+      case END_ARRAY:
+        endArray();
+        depth--;
+        break;
+      case END_OBJECT:
+        endObject();
+        depth--;
+        break;
+      case NAME:
+      case STRING:
+        peeked = null;
+        skipString();
+        break;
+      case NUMBER:
+        peeked = null;
+        pos += numberLength();
+        break;
+      case BOOLEAN:
+        nextBoolean();
+        break;
+      case NULL:
+        nextNull();
+        break;
+      default:
+        throw syntaxError("Unexpected end of document");
+      }
+    } while (depth > 0);
+  }
+
+  /**
+   * Reads the next value the way JSONTokener would.
+   *
+   * @return a JSONObject, JSONArray, String, Boolean, Integer, Long, Double
+   *         or JSONObject.NULL
+   */
+  public Object readValue() throws IOException, JSONException {
+    switch (peek()) {
+    case BEGIN_OBJECT:
+      return readObject();
+    case BEGIN_ARRAY:
+      JSONArray array = new JSONArray();
+      beginArray();
+      while (hasNext()) {
+        array.put(readValue());
+      }
+      endArray();
+      return array;
+    case STRING:
+      return nextString();
+    case BOOLEAN:
+      return nextBoolean() ? Boolean.TRUE : Boolean.FALSE;
+    case NULL:
+      nextNull();
+      return JSONObject.NULL;
+    case NUMBER:
+      expect(Token.NUMBER);
+      readNumber();
+      if (!numberIntegral)
+        return numberDouble;
+      if (numberLong == (int) numberLong)
+        return (int) numberLong;
+      return numberLong;
+    default:
+      throw syntaxError("Expected a value but was " + peek());
+    }
+  }
+
+  public JSONObject readObject() throws IOException, JSONException {
+    JSONObject object = new JSONObject();
+    beginObject();
+    while (hasNext()) {
+      String name = nextName();
+      object.put(name, readValue());
+    }
+    endObject();
+    return object;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private void expect(Token token) throws IOException, JSONException {
+    Token actual = peek();
+    if (actual != token)
+      throw syntaxError("Expected " + token + " but was " + actual);
+    peeked = null;
+  }
+
+  private void push(int scope) {
+    if (stackSize == stack.length)
+      stack = Arrays.copyOf(stack, stackSize * 2);
+    stack[stackSize++] = scope;
+  }
+
+  private Token doPeek() throws IOException, JSONException {
+    int scope = stack[stackSize - 1];
+    if (scope == EMPTY_ARRAY) {
+      stack[stackSize - 1] = NONEMPTY_ARRAY;
+    } else if (scope == NONEMPTY_ARRAY) {
+      int c = nextNonWhitespace();
+      if (c == ']')
+        return Token.END_ARRAY;
+      if (c != ',')
+        throw syntaxError("Unterminated array");
+    } else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT) {
+      stack[stackSize - 1] = DANGLING_NAME;
+      int c = nextNonWhitespace();
+      if (scope == NONEMPTY_OBJECT) {
+        if (c == '}')
+          return Token.END_OBJECT;
+        if (c != ',')
+          throw syntaxError("Unterminated object");
+        c = nextNonWhitespace();
+      }
+      if (c == '"')
+        return Token.NAME;
+      if (c == '}' && scope == EMPTY_OBJECT)
+        return Token.END_OBJECT;
+      throw syntaxError("Expected name");
+    } else if (scope == DANGLING_NAME) {
+      stack[stackSize - 1] = NONEMPTY_OBJECT;
+      if (nextNonWhitespace() != ':')
+        throw syntaxError("Expected ':'");
+    } else if (scope == EMPTY_DOCUMENT) {
+      stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+    } else if (scope == NONEMPTY_DOCUMENT) {
+      if (pos == limit && !fill(1))
+        return Token.END_DOCUMENT;
+      int c = nextNonWhitespace();
+      pos--;
+      throw syntaxError("Unexpected data after document: " + (char) c);
+    }
+
+    int c = nextNonWhitespace();
+    switch (c) {
+    case ']':
+      if (scope == EMPTY_ARRAY)
+        return Token.END_ARRAY;
+      throw syntaxError("Unexpected ]");
+    case '"':
+      return Token.STRING;
+    case '{':
+      return Token.BEGIN_OBJECT;
+    case '[':
+      return Token.BEGIN_ARRAY;
+    case 't':
+    case 'f':
+      pos--;
+      return Token.BOOLEAN;
+    case 'n':
+      pos--;
+      return Token.NULL;
+    default:
+      if (c == '-' || (c >= '0' && c <= '9')) {
+        pos--;
+        return Token.NUMBER;
+      }
+      throw syntaxError("Unexpected character: " + (char) c);
+    }
+  }
+
+  /**
+   * @return the next non-whitespace char, which is consumed
+   */
+  private int nextNonWhitespace() throws IOException, JSONException {
+    while (true) {
+      if (pos == limit && !fill(1))
+        throw syntaxError("Unexpected end of input");
+      char c = buffer[pos++];
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+        return c;
+    }
+  }
+
+  /**
+   * Moves the unread chars to the start of the buffer and reads until at
+   * least minimum chars are available.
+   *
+   * @return false if the input ended before
+   */
+  private boolean fill(int minimum) throws IOException {
+    if (pos > 0) {
+      limit -= pos;
+      System.arraycopy(buffer, pos, buffer, 0, limit);
+      pos = 0;
+    }
+    while (limit < minimum) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read == -1)
+        return false;
+      limit += read;
+    }
+    return true;
+  }
+
+  private void literal(String expected) throws IOException, JSONException {
+    int len = expected.length();
+    if (limit - pos < len && !fill(len))
+      throw syntaxError("Expected " + expected);
+    for (int i = 0; i < len; i++) {
+      if (buffer[pos + i] != expected.charAt(i))
+        throw syntaxError("Expected " + expected);
+    }
+    pos += len;
+  }
+
+  /**
+   * Reads a string whose opening quote was consumed.
+   */
+  private String readString() throws IOException, JSONException {
+    StringBuilder builder = null;
+    while (true) {
+      int start = pos;
+      while (pos < limit) {
+        char c = buffer[pos++];
+        if (c == '"') {
+          if (builder == null)
+            return new String(buffer, start, pos - start - 1);
+          builder.append(buffer, start, pos - start - 1);
+          return builder.toString();
+        }
+        if (c == '\\') {
+          if (builder == null)
+            builder = new StringBuilder(Math.max(16, (pos - start) * 2));
+          builder.append(buffer, start, pos - start - 1);
+          builder.append(readEscape());
+          start = pos;
+        }
+      }
+      if (builder == null)
+        builder = new StringBuilder(Math.max(16, (pos - start) * 2));
+      builder.append(buffer, start, pos - start);
+      if (!fill(1))
+        throw syntaxError("Unterminated string");
+    }
+  }
+
+  private void skipString() throws IOException, JSONException {
+    while (true) {
+      while (pos < limit) {
+        char c = buffer[pos++];
+        if (c == '"')
+          return;
+        if (c == '\\')
+          readEscape();
+      }
+      if (!fill(1))
+        throw syntaxError("Unterminated string");
+    }
+  }
+
+  private char readEscape() throws IOException, JSONException {
+    if (pos == limit && !fill(1))
+      throw syntaxError("Unterminated escape sequence");
+    char c = buffer[pos++];
+    switch (c) {
+    case 'u':
+      if (limit - pos < 4 && !fill(4))
+        throw syntaxError("Unterminated escape sequence");
+      int result = 0;
+      for (int i = 0; i < 4; i++) {
+        int digit = Character.digit(buffer[pos + i], 16);
+        if (digit < 0)
+          throw syntaxError("Malformed unicode escape");
+        result = (result << 4) | digit;
+      }
+      pos += 4;
+      return (char) result;
+    case 't':
+      return '\t';
+    case 'b':
+      return '\b';
+    case 'n':
+      return '\n';
+    case 'r':
+      return '\r';
+    case 'f':
+      return '\f';
+    default:
+      return c;
+    }
+  }
+
+  /**
+   * @return number of chars of the number starting at pos, which are then
+   *         all within the buffer
+   */
+  private int numberLength() throws IOException, JSONException {
+    int i = 0;
+    while (true) {
+      if (pos + i == limit) {
+        if (i == buffer.length)
+          throw syntaxError("Number too long");
+        if (!fill(i + 1))
+          return i;
+      }
+      char c = buffer[pos + i];
+      if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')
+        i++;
+      else
+        return i;
+    }
+  }
+
+  private void readNumber() throws IOException, JSONException {
+    int len = numberLength();
+    int end = pos + len;
+    int i = pos;
+    boolean negative = false;
+    if (i < end && buffer[i] == '-') {
+      negative = true;
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    boolean fraction = false;
+    boolean simple = true;
+    for (; i < end; i++) {
+      char c = buffer[i];
+      if (c >= '0' && c <= '9') {
+        if (digits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0)
+            digits++;
+          if (fraction)
+            fractionDigits++;
+        } else {
+          simple = false;
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else {
+        simple = false;
+        break;
+      }
+    }
+    if (simple && !fraction) {
+      numberIntegral = true;
+      numberLong = negative ? -mantissa : mantissa;
+    } else if (simple && digits <= 15 && fractionDigits < POW10.length) {
+      numberIntegral = false;
+      double value = mantissa / POW10[fractionDigits];
+      numberDouble = negative ? -value : value;
+    } else {
+      numberIntegral = false;
+      try {
+        numberDouble = Double.parseDouble(new String(buffer, pos, len));
+      } catch (NumberFormatException e) {
+        throw syntaxError("Malformed number: " + new String(buffer, pos, len));
+      }
+    }
+    pos = end;
+  }
+
+  private JSONException syntaxError(String msg) {
+    return new JSONException(msg + " at " + pos);
+  }
+
+  /**
+   * Fixed set of member names, which can be matched against the parser's
+   * buffer without creating Strings.
+   */
+  public static final class NameTable {
+
+    private final String[] names;
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * @param names
+     *          the names, null entries are allowed and never match
+     */
+    public NameTable(String[] names) {
+      this.names = names.clone();
+      int size = Integer.highestOneBit(Math.max(4, names.length * 4) - 1) << 1;
+      this.slots = new int[size];
+      this.mask = size - 1;
+      Arrays.fill(slots, -1);
+      for (int i = 0; i < names.length; i++) {
+        if (names[i] == null)
+          continue;
+        int slot = names[i].hashCode() & mask;
+        while (slots[slot] != -1)
+          slot = (slot + 1) & mask;
+        slots[slot] = i;
+      }
+    }
+
+    public int indexOf(String name) {
+      int slot = name.hashCode() & mask;
+      while (slots[slot] != -1) {
+        if (names[slots[slot]].equals(name))
+          return slots[slot];
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    int indexOf(char[] chars, int off, int len) {
+      int hash = 0;
+      for (int i = off; i < off + len; i++)
+        hash = 31 * hash + chars[i];
+      int slot = hash & mask;
+      while (slots[slot] != -1) {
+        String candidate = names[slots[slot]];
+        if (matches(candidate, chars, off, len))
+          return slots[slot];
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    private static boolean matches(String candidate, char[] chars, int off, int len) {
+      if (candidate.length() != len)
+        return false;
+      for (int i = 0; i < len; i++) {
+        if (candidate.charAt(i) != chars[off + i])
+          return false;
+      }
+      return true;
+    }
+  }
+}
@@ -13,23 +13,23 @@ public class SessionStatus extends JSONAccessor {
     }
 
     public int getUploadedBytes() throws JSONException {
-      return obj.getInt("uploadedBytes");
+      return getJSONObject().getInt("uploadedBytes");
     }
 
     public int getDownloadedBytes() throws JSONException {
-      return obj.getInt("downloadedBytes");
+      return getJSONObject().getInt("downloadedBytes");
     }
 
     public int getFilesAdded() throws JSONException {
-      return obj.getInt("filesAdded");
+      return getJSONObject().getInt("filesAdded");
     }
 
     public int getSessionCount() throws JSONException {
-      return obj.getInt("sessionCount");
+      return getJSONObject().getInt("sessionCount");
     }
 
     public int getSecondsActive() throws JSONException {
-      return obj.getInt("secondsActive");
+      return getJSONObject().getInt("secondsActive");
     }
 
   }
@@ -39,30 +39,30 @@ public class SessionStatus extends JSONAccessor {
   }
 
   public int getActiveTorrentCount() throws JSONException {
-    return obj.getInt("activeTorrentCount");
+    return getJSONObject().getInt("activeTorrentCount");
   }
 
   public int getDownloadSpeed() throws JSONException {
-    return obj.getInt("downloadSpeed");
+    return getJSONObject().getInt("downloadSpeed");
   }
 
   public int getPausedTorrentCount() throws JSONException {
-    return obj.getInt("pausedTorrentCount");
+    return getJSONObject().getInt("pausedTorrentCount");
   }
 
   public int getTorrentCount() throws JSONException {
-    return obj.getInt("torrentCount");
+    return getJSONObject().getInt("torrentCount");
   }
 
   public int getUploadSpeed() throws JSONException {
-    return obj.getInt("uploadSpeed");
+    return getJSONObject().getInt("uploadSpeed");
   }
 
   public SessionStats getCumulativeStats() throws JSONException {
-    return new SessionStats(obj.getJSONObject("cumulative-stats"));
+    return new SessionStats(getJSONObject().getJSONObject("cumulative-stats"));
   }
 
   public SessionStats getCurrentStats() throws JSONException {
-    return new SessionStats(obj.getJSONObject("current-stats"));
+    return new SessionStats(getJSONObject().getJSONObject("current-stats"));
   }
 }
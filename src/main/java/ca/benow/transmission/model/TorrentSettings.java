@@ -0,0 +1,215 @@
+package ca.benow.transmission.model;
+
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-torrent settings of a torrent-set call. Only settings given a value are
+ * sent, every other setting of the torrent is left unchanged. Instances are
+ * value objects: settings with the same values are equal, so torrents can be
+ * grouped by them.
+ *
+ * <pre>
+ * TorrentSettings settings = new TorrentSettings().downloadLimit(500).downloadLimited(true).seedRatioLimit(2.0);
+ * </pre>
+ */
+public class TorrentSettings {
+
+  private final EnumMap<TorrentField, Object> values = new EnumMap<TorrentField, Object>(TorrentField.class);
+
+  /**
+   * @return fields of a torrent-get that hold the torrent's current settings
+   */
+  public static TorrentField[] getFields() {
+    return new TorrentField[] { TorrentField.id, TorrentField.hashString, TorrentField.bandwidthPriority,
+        TorrentField.downloadLimit, TorrentField.downloadLimited, TorrentField.honorsSessionLimits,
+        TorrentField.peerLimit, TorrentField.seedIdleLimit, TorrentField.seedIdleMode, TorrentField.seedRatioLimit,
+        TorrentField.seedRatioMode, TorrentField.uploadLimit, TorrentField.uploadLimited };
+  }
+
+  /**
+   * @return the settings the status holds values for
+   */
+  public static TorrentSettings of(TorrentStatus status) throws JSONException {
+    TorrentSettings result = new TorrentSettings();
+    for (TorrentField field : getFields()) {
+      if (field == TorrentField.id || field == TorrentField.hashString || !status.has(field))
+        continue;
+      Object value;
+      if (field == TorrentField.seedRatioLimit)
+        value = status.getDouble(field);
+      else if (field == TorrentField.downloadLimited || field == TorrentField.honorsSessionLimits
+          || field == TorrentField.uploadLimited)
+        value = status.getBoolean(field);
+      else
+        value = (int) status.getLong(field);
+      result.values.put(field, value);
+    }
+    return result;
+  }
+
+  /**
+   * @param value
+   *          this torrent's bandwidth tr_priority_t
+   */
+  public TorrentSettings bandwidthPriority(int value) {
+    values.put(TorrentField.bandwidthPriority, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          maximum download speed (KBps)
+   */
+  public TorrentSettings downloadLimit(int value) {
+    values.put(TorrentField.downloadLimit, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          true if "downloadLimit" is honored
+   */
+  public TorrentSettings downloadLimited(boolean value) {
+    values.put(TorrentField.downloadLimited, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          true if session upload limits are honored
+   */
+  public TorrentSettings honorsSessionLimits(boolean value) {
+    values.put(TorrentField.honorsSessionLimits, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          maximum number of peers
+   */
+  public TorrentSettings peerLimit(int value) {
+    values.put(TorrentField.peerLimit, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          torrent-level number of minutes of seeding inactivity
+   */
+  public TorrentSettings seedIdleLimit(int value) {
+    values.put(TorrentField.seedIdleLimit, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          which seeding inactivity to use. See tr_inactvelimit
+   */
+  public TorrentSettings seedIdleMode(int value) {
+    values.put(TorrentField.seedIdleMode, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          torrent-level seeding ratio
+   */
+  public TorrentSettings seedRatioLimit(double value) {
+    values.put(TorrentField.seedRatioLimit, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          which ratio to use. See tr_ratiolimit
+   */
+  public TorrentSettings seedRatioMode(int value) {
+    values.put(TorrentField.seedRatioMode, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          maximum upload speed (KBps)
+   */
+  public TorrentSettings uploadLimit(int value) {
+    values.put(TorrentField.uploadLimit, value);
+    return this;
+  }
+
+  /**
+   * @param value
+   *          true if "uploadLimit" is honored
+   */
+  public TorrentSettings uploadLimited(boolean value) {
+    values.put(TorrentField.uploadLimited, value);
+    return this;
+  }
+
+  public boolean isEmpty() {
+    return values.isEmpty();
+  }
+
+  public Set<TorrentField> getSetFields() {
+    return values.keySet();
+  }
+
+  /**
+   * @return the value of the setting, null if it is left unchanged
+   */
+  public Object get(TorrentField field) {
+    return values.get(field);
+  }
+
+  /**
+   * @return the settings of this which differ from known, or aren't known
+   */
+  public TorrentSettings changedFrom(TorrentSettings known) {
+    TorrentSettings result = new TorrentSettings();
+    for (Map.Entry<TorrentField, Object> entry : values.entrySet()) {
+      if (known == null || !entry.getValue().equals(known.values.get(entry.getKey())))
+        result.values.put(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * @return these settings with the given ones applied on top
+   */
+  public TorrentSettings merge(TorrentSettings changes) {
+    TorrentSettings result = new TorrentSettings();
+    result.values.putAll(values);
+    result.values.putAll(changes.values);
+    return result;
+  }
+
+  /**
+   * Puts the settings into the arguments of a torrent-set call.
+   */
+  public void putInto(JSONObject args) throws JSONException {
+    for (Map.Entry<TorrentField, Object> entry : values.entrySet()) {
+      args.put(TorrentStatus.fieldNameByFieldPos[entry.getKey().ordinal()], entry.getValue());
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof TorrentSettings && values.equals(((TorrentSettings) o).values);
+  }
+
+  @Override
+  public int hashCode() {
+    return values.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return values.toString();
+  }
+}
@@ -5,8 +5,22 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
 
+/**
+ * Status of a single torrent, as returned by torrent-get.
+ * <p/>
+ * Instances either wrap a JSONObject or, when read with
+ * {@link #read(JSONStreamReader, Layout)}, hold the requested fields as
+ * primitives. The accessors and {@link #getJSONObject()} work the same for
+ * both, typed instances build their JSONObject on first use and leave the
+ * deprecated {@link #obj} field null. The client only reads typed instances
+ * when asked to, see {@link ca.benow.transmission.TransmissionClient#setTypedTorrents(boolean)}.
+ */
 public class TorrentStatus extends JSONAccessor {
 
 
@@ -219,16 +233,409 @@ public class TorrentStatus extends JSONAccessor {
       "sizeWhenDone", "startDate", "status", "trackers", "trackerStats", "totalSize", "torrentFile", "uploadedEver",
       "uploadLimit", "uploadLimited", "uploadRatio", "wanted", "webseeds", "webseedsSendingToUs", };
 
+  static final byte KIND_LONG = 0;
+  static final byte KIND_DOUBLE = 1;
+  static final byte KIND_BOOLEAN = 2;
+  static final byte KIND_STRING = 3;
+  static final byte KIND_VALUE = 4;
+
+  static final byte[] fieldKinds = new byte[TorrentField.values().length];
+  static final JSONStreamReader.NameTable fieldNames = new JSONStreamReader.NameTable(fieldNameByFieldPos);
+
+  static {
+    Set<TorrentField> doubles = EnumSet.of(TorrentField.metadataPercentComplete, TorrentField.percentDone,
+        TorrentField.recheckProgress, TorrentField.seedRatioLimit, TorrentField.uploadRatio);
+    Set<TorrentField> booleans = EnumSet.of(TorrentField.downloadLimited, TorrentField.honorsSessionLimits,
+        TorrentField.isFinished, TorrentField.isPrivate, TorrentField.uploadLimited);
+    Set<TorrentField> strings = EnumSet.of(TorrentField.comment, TorrentField.creator, TorrentField.downloadDir,
+        TorrentField.errorString, TorrentField.hashString, TorrentField.magnetLink, TorrentField.name,
+        TorrentField.pieces, TorrentField.torrentFile);
+    Set<TorrentField> values = EnumSet.of(TorrentField.all, TorrentField.files, TorrentField.fileStats,
+        TorrentField.peers, TorrentField.peersFrom, TorrentField.priorities, TorrentField.trackers,
+        TorrentField.trackerStats, TorrentField.wanted, TorrentField.webseeds);
+    for (TorrentField curr : TorrentField.values()) {
+      if (doubles.contains(curr))
+        fieldKinds[curr.ordinal()] = KIND_DOUBLE;
+      else if (booleans.contains(curr))
+        fieldKinds[curr.ordinal()] = KIND_BOOLEAN;
+      else if (strings.contains(curr))
+        fieldKinds[curr.ordinal()] = KIND_STRING;
+      else if (values.contains(curr))
+        fieldKinds[curr.ordinal()] = KIND_VALUE;
+      else
+        fieldKinds[curr.ordinal()] = KIND_LONG;
+    }
+  }
+
+  /**
+   * Assignment of requested fields to storage slots, shared by all torrents
+   * read from one response. Numbers and booleans go into a long[], strings
+   * and complex values (files, peers, trackers...) into an Object[].
+   */
+  public static final class Layout {
+
+    private final TorrentField[] fields;
+    private final int[] slotByField = new int[TorrentField.values().length];
+    private final int primitiveCount;
+    private final int referenceCount;
+
+    private Layout(TorrentField[] fields) {
+      Arrays.fill(slotByField, -1);
+      int primitives = 0;
+      int references = 0;
+      int count = 0;
+      TorrentField[] unique = new TorrentField[fields.length];
+      for (TorrentField curr : fields) {
+        if (curr == TorrentField.all || slotByField[curr.ordinal()] != -1)
+          continue;
+        unique[count++] = curr;
+        if (isPrimitive(curr))
+          slotByField[curr.ordinal()] = primitives++;
+        else
+          slotByField[curr.ordinal()] = references++;
+      }
+      if (primitives > 64)
+        throw new IllegalArgumentException("Too many numeric fields: " + primitives);
+      this.fields = Arrays.copyOf(unique, count);
+      this.primitiveCount = primitives;
+      this.referenceCount = references;
+    }
+
+    /**
+     * @param fields
+     *          the requested fields, {@link TorrentField#all} is ignored
+     */
+    public static Layout of(TorrentField... fields) {
+      return new Layout(fields);
+    }
+
+    public TorrentField[] getFields() {
+      return fields.clone();
+    }
+
+    public boolean contains(TorrentField field) {
+      return slotByField[field.ordinal()] != -1;
+    }
+  }
+
+  private final Layout layout;
+  private final long[] values;
+  private final Object[] references;
+  private long present;
+  private volatile JSONObject materialized;
+
   public TorrentStatus(JSONObject jsonObject) {
     super(jsonObject);
+    this.layout = null;
+    this.values = null;
+    this.references = null;
   }
 
+  private TorrentStatus(Layout layout) {
+    super(null);
+    this.layout = layout;
+    this.values = new long[layout.primitiveCount];
+    this.references = layout.referenceCount == 0 ? null : new Object[layout.referenceCount];
+  }
+
+  /**
+   * Reads one torrent object, keeping the fields of the layout and skipping
+   * all others.
+   *
+   * @param in
+   *          reader positioned before the torrent object
+   * @param layout
+   *          fields to keep
+   * @return the torrent
+   * @throws JSONException
+   *           if the object is malformed or a field has an unexpected type
+   */
+  public static TorrentStatus read(JSONStreamReader in, Layout layout) throws IOException, JSONException {
+    TorrentStatus status = new TorrentStatus(layout);
+    in.beginObject();
+    while (in.hasNext()) {
+      int ordinal = in.nextName(fieldNames);
+      int slot = ordinal == -1 ? -1 : layout.slotByField[ordinal];
+      if (slot == -1)
+        in.skipValue();
+      else
+        status.readValue(in, ordinal, slot);
+    }
+    in.endObject();
+    return status;
+  }
+
+  /**
+   * Reads the header row of a torrent-get response in table format, an array
+   * of field names.
+   *
+   * @return the field of each column, null for unknown fields
+   */
+  public static TorrentField[] readTableHeader(JSONStreamReader in) throws IOException, JSONException {
+    TorrentField[] values = TorrentField.values();
+    TorrentField[] columns = new TorrentField[16];
+    int count = 0;
+    in.beginArray();
+    while (in.hasNext()) {
+      if (count == columns.length)
+        columns = Arrays.copyOf(columns, count * 2);
+      int ordinal = fieldNames.indexOf(in.nextString());
+      columns[count++] = ordinal == -1 ? null : values[ordinal];
+    }
+    in.endArray();
+    return Arrays.copyOf(columns, count);
+  }
+
+  /**
+   * Reads one value row of a torrent-get response in table format, keeping
+   * the fields of the layout and skipping all others.
+   *
+   * @param in
+   *          reader positioned before the row array
+   * @param layout
+   *          fields to keep
+   * @param columns
+   *          the field of each column, see {@link #readTableHeader(JSONStreamReader)}
+   * @return the torrent
+   * @throws JSONException
+   *           if the row is malformed or a field has an unexpected type
+   */
+  public static TorrentStatus readTableRow(JSONStreamReader in, Layout layout, TorrentField[] columns) throws IOException, JSONException {
+    TorrentStatus status = new TorrentStatus(layout);
+    in.beginArray();
+    for (int column = 0; in.hasNext(); column++) {
+      TorrentField field = column < columns.length ? columns[column] : null;
+      int slot = field == null ? -1 : layout.slotByField[field.ordinal()];
+      if (slot == -1)
+        in.skipValue();
+      else
+        status.readValue(in, field.ordinal(), slot);
+    }
+    in.endArray();
+    return status;
+  }
+
+  /**
+   * Joins the fields of one torrent fetched in several requests.
+   *
+   * @param layout
+   *          fields to keep
+   * @param parts
+   *          statuses of the same torrent, typed or wrapping a JSONObject,
+   *          later parts win for fields they share
+   * @return the typed torrent holding the fields of the layout the parts have
+   * @throws JSONException
+   *           if a wrapped field has an unexpected type
+   */
+  public static TorrentStatus combine(Layout layout, TorrentStatus... parts) throws JSONException {
+    TorrentStatus status = new TorrentStatus(layout);
+    for (TorrentStatus part : parts) {
+      if (part.layout == null) {
+        for (TorrentField field : layout.fields) {
+          if (part.has(field))
+            status.store(field, layout.slotByField[field.ordinal()], part.getField(field));
+        }
+        continue;
+      }
+      for (TorrentField field : part.layout.fields) {
+        int slot = layout.slotByField[field.ordinal()];
+        if (slot == -1 || !part.has(field))
+          continue;
+        int from = part.layout.slotByField[field.ordinal()];
+        if (isPrimitive(field)) {
+          status.values[slot] = part.values[from];
+          status.present |= 1L << slot;
+        } else {
+          status.references[slot] = part.references[from];
+        }
+      }
+    }
+    return status;
+  }
+
+  private void readValue(JSONStreamReader in, int ordinal, int slot) throws IOException, JSONException {
+    JSONStreamReader.Token token = in.peek();
+    if (token == JSONStreamReader.Token.NULL) {
+      in.nextNull();
+      if (!isPrimitive(ordinal))
+        references[slot] = JSONObject.NULL;
+      return;
+    }
+    switch (fieldKinds[ordinal]) {
+    case KIND_LONG:
+      values[slot] = in.nextLong();
+      break;
+    case KIND_DOUBLE:
+      values[slot] = Double.doubleToRawLongBits(in.nextDouble());
+      break;
+    case KIND_BOOLEAN:
+      if (token == JSONStreamReader.Token.NUMBER)
+        values[slot] = in.nextLong() != 0 ? 1 : 0;
+      else
+        values[slot] = in.nextBoolean() ? 1 : 0;
+      break;
+    case KIND_STRING:
+      references[slot] = token == JSONStreamReader.Token.STRING ? in.nextString() : in.readValue();
+      break;
+    default:
+      references[slot] = in.readValue();
+    }
+    if (isPrimitive(ordinal))
+      present |= 1L << slot;
+  }
+
+  private void store(TorrentField field, int slot, Object value) throws JSONException {
+    int ordinal = field.ordinal();
+    if (value == JSONObject.NULL) {
+      if (!isPrimitive(ordinal))
+        references[slot] = JSONObject.NULL;
+      return;
+    }
+    switch (fieldKinds[ordinal]) {
+    case KIND_LONG:
+      values[slot] = toNumber(field, value).longValue();
+      break;
+    case KIND_DOUBLE:
+      values[slot] = Double.doubleToRawLongBits(toNumber(field, value).doubleValue());
+      break;
+    case KIND_BOOLEAN:
+      if (value instanceof Number)
+        values[slot] = ((Number) value).longValue() != 0 ? 1 : 0;
+      else if (value instanceof Boolean)
+        values[slot] = ((Boolean) value) ? 1 : 0;
+      else
+        throw new JSONException("JSONObject[\"" + fieldNameByFieldPos[ordinal] + "\"] is not a Boolean.");
+      break;
+    default:
+      references[slot] = value;
+    }
+    if (isPrimitive(ordinal))
+      present |= 1L << slot;
+  }
+
+  private static Number toNumber(TorrentField field, Object value) throws JSONException {
+    if (value instanceof Number)
+      return (Number) value;
+    throw new JSONException("JSONObject[\"" + fieldNameByFieldPos[field.ordinal()] + "\"] is not a number.");
+  }
+
+  private static boolean isPrimitive(TorrentField field) {
+    return isPrimitive(field.ordinal());
+  }
+
+  private static boolean isPrimitive(int ordinal) {
+    return fieldKinds[ordinal] <= KIND_BOOLEAN;
+  }
+
+  /**
+   * @return the fields as JSONObject, created on first use for typed
+   *         instances
+   */
+  @Override
   public JSONObject getJSONObject() {
-    return obj;
+    if (layout == null)
+      return super.getJSONObject();
+    JSONObject result = materialized;
+    if (result == null) {
+      result = new JSONObject();
+      try {
+        for (TorrentField curr : layout.fields) {
+          if (has(curr))
+            result.put(getFieldName(curr), getField(curr));
+        }
+      } catch (JSONException e) {
+        throw new IllegalStateException(e);
+      }
+      materialized = result;
+    }
+    return result;
   }
 
+  /**
+   * @return true if the daemon returned a value for the field
+   */
+  public boolean has(TorrentField field) {
+    if (layout == null)
+      return getJSONObject().has(getFieldName(field));
+    int slot = layout.slotByField[field.ordinal()];
+    if (slot == -1)
+      return false;
+    if (isPrimitive(field))
+      return (present & (1L << slot)) != 0;
+    return references[slot] != null;
+  }
+
+  /**
+   * @return the field value as JSONObject would hold it: Integer or Long for
+   *         numbers, Double, Boolean, String, JSONArray or JSONObject
+   */
   public Object getField(TorrentField field) throws JSONException {
-    return obj.get(getFieldName(field));
+    if (layout == null)
+      return getJSONObject().get(getFieldName(field));
+    int slot = slot(field);
+    switch (fieldKinds[field.ordinal()]) {
+    case KIND_LONG:
+      long value = values[slot];
+      if (value == (int) value)
+        return (int) value;
+      return value;
+    case KIND_DOUBLE:
+      return Double.longBitsToDouble(values[slot]);
+    case KIND_BOOLEAN:
+      return values[slot] != 0;
+    default:
+      return references[slot];
+    }
+  }
+
+  public long getLong(TorrentField field) throws JSONException {
+    if (layout == null)
+      return getJSONObject().getLong(getFieldName(field));
+    int slot = slot(field);
+    switch (fieldKinds[field.ordinal()]) {
+    case KIND_LONG:
+    case KIND_BOOLEAN:
+      return values[slot];
+    case KIND_DOUBLE:
+      return (long) Double.longBitsToDouble(values[slot]);
+    default:
+      throw new JSONException("JSONObject[\"" + getFieldName(field) + "\"] is not a number.");
+    }
+  }
+
+  public double getDouble(TorrentField field) throws JSONException {
+    if (layout == null)
+      return getJSONObject().getDouble(getFieldName(field));
+    int slot = slot(field);
+    switch (fieldKinds[field.ordinal()]) {
+    case KIND_LONG:
+      return values[slot];
+    case KIND_DOUBLE:
+      return Double.longBitsToDouble(values[slot]);
+    default:
+      throw new JSONException("JSONObject[\"" + getFieldName(field) + "\"] is not a number.");
+    }
+  }
+
+  public boolean getBoolean(TorrentField field) throws JSONException {
+    if (layout == null)
+      return getJSONObject().getBoolean(getFieldName(field));
+    int slot = slot(field);
+    if (fieldKinds[field.ordinal()] != KIND_BOOLEAN)
+      throw new JSONException("JSONObject[\"" + getFieldName(field) + "\"] is not a Boolean.");
+    return values[slot] != 0;
+  }
+
+  public String getString(TorrentField field) throws JSONException {
+    if (layout == null)
+      return getJSONObject().getString(getFieldName(field));
+    return getField(field).toString();
+  }
+
+  private int slot(TorrentField field) throws JSONException {
+    if (!has(field))
+      throw new JSONException("JSONObject[\"" + getFieldName(field) + "\"] not found.");
+    return layout.slotByField[field.ordinal()];
   }
 
   private String getFieldName(TorrentField field) {
@@ -236,10 +643,12 @@ public class TorrentStatus extends JSONAccessor {
   }
 
   public int getId() throws JSONException {
-    return (Integer) getField(TorrentField.id);
+    return (int) getLong(TorrentField.id);
   }
 
   public double getPercentDone() throws JSONException {
+      if (layout != null)
+          return getDouble(TorrentField.percentDone);
       Object it = getField(TorrentField.percentDone);
       if (it instanceof Integer) {
           Integer wert = (Integer) it;
@@ -252,7 +661,7 @@ public class TorrentStatus extends JSONAccessor {
   }
 
   public int getStatus() throws JSONException {
-    return (Integer) getField(TorrentField.status);
+    return (int) getLong(TorrentField.status);
   }
 
   public String getName() throws JSONException {
@@ -260,6 +669,8 @@ public class TorrentStatus extends JSONAccessor {
   }
 
   public Date getDateField(TorrentField field) throws JSONException {
+      if (layout != null)
+          return new Date(getLong(field) * 1000);
       Object it = getField(field);
       long value = 0;
       if (it instanceof Long) {
@@ -278,7 +689,7 @@ public class TorrentStatus extends JSONAccessor {
   @Override
   public String toString() {
     try {
-        return obj.toString(2);
+        return getJSONObject().toString(2);
     } catch (JSONException e) {
         logger.error(e.getMessage(),e);
         return e.getMessage();
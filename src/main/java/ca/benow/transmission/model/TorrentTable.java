@@ -0,0 +1,561 @@
+package ca.benow.transmission.model;
+
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Column-wise snapshot of many torrents. Each requested field is held in one
+ * primitive array indexed by row: int[] for ids, status and other small
+ * counters, long[] for dates and byte counts, double[] for ratios and
+ * progress, boolean[] for flags. Strings with few distinct values (downloadDir
+ * and creator) are stored as int codes into a dictionary.
+ * <p/>
+ * A table is filled with
+ * {@link ca.benow.transmission.TransmissionClient#getTorrentTable(int[], TorrentTable)}
+ * and can be refilled on every poll; the arrays are kept and only grow when the
+ * library does. A dictionary value keeps its code for as long as every fill
+ * has it. {@link #clear()} frees the codes of values the cleared rows didn't
+ * use, later fills hand them out to new values, so a dictionary holds at most
+ * the values of two consecutive polls.
+ * Fields missing from a torrent read as 0, false or null.
+ *
+ * <pre>
+ * TorrentTable table = new TorrentTable(TorrentField.id, TorrentField.status, TorrentField.rateDownload);
+ * client.getTorrentTable(null, table);
+ * int[] status = table.ints(TorrentField.status);
+ * long[] rate = table.longs(TorrentField.rateDownload);
+ * long seedingRate = 0;
+ * for (int row = 0; row &lt; table.size(); row++)
+ *   if (status[row] == TorrentStatus.STATUS_SEEDING)
+ *     seedingRate += rate[row];
+ * </pre>
+ * <p/>
+ * Tables are not thread-safe.
+ */
+public class TorrentTable {
+
+  private static final Set<TorrentField> INT_FIELDS = EnumSet.of(TorrentField.id, TorrentField.status,
+      TorrentField.error, TorrentField.bandwidthPriority, TorrentField.eta, TorrentField.peerLimit,
+      TorrentField.maxConnectedPeers, TorrentField.peersConnected, TorrentField.peersGettingFromUs,
+      TorrentField.peersKnown, TorrentField.peersSendingToUs, TorrentField.webseedsSendingToUs,
+      TorrentField.pieceCount, TorrentField.pieceSize, TorrentField.seedIdleLimit, TorrentField.seedIdleMode,
+      TorrentField.seedRatioMode, TorrentField.downloadLimit, TorrentField.uploadLimit);
+
+  // only fields shared by many torrents, unique strings like comment or
+  // errorString would just copy themselves into the dictionary
+  private static final Set<TorrentField> DICTIONARY_FIELDS = EnumSet.of(TorrentField.downloadDir,
+      TorrentField.creator);
+
+  private final TorrentField[] fields;
+  private final Column[] columnByField = new Column[TorrentField.values().length];
+  private final Column[] columns;
+  private int size;
+  private int capacity;
+  private int[] rowById;
+
+  /**
+   * @param fields
+   *          fields to hold, {@link TorrentField#all} is expanded to every field
+   */
+  public TorrentTable(TorrentField... fields) {
+    if (Arrays.asList(fields).contains(TorrentField.all))
+      fields = Arrays.copyOfRange(TorrentField.values(), 1, TorrentField.values().length);
+    TorrentField[] unique = new TorrentField[fields.length];
+    int count = 0;
+    for (TorrentField curr : fields) {
+      if (columnByField[curr.ordinal()] != null)
+        continue;
+      unique[count] = curr;
+      columnByField[curr.ordinal()] = createColumn(curr);
+      count++;
+    }
+    this.fields = Arrays.copyOf(unique, count);
+    this.columns = new Column[count];
+    for (int i = 0; i < count; i++)
+      columns[i] = columnByField[this.fields[i].ordinal()];
+  }
+
+  private static Column createColumn(TorrentField field) {
+    switch (TorrentStatus.fieldKinds[field.ordinal()]) {
+    case TorrentStatus.KIND_LONG:
+      return INT_FIELDS.contains(field) ? new IntColumn() : new LongColumn();
+    case TorrentStatus.KIND_DOUBLE:
+      return new DoubleColumn();
+    case TorrentStatus.KIND_BOOLEAN:
+      return new BooleanColumn();
+    case TorrentStatus.KIND_STRING:
+      return DICTIONARY_FIELDS.contains(field) ? new DictionaryColumn() : new ValueColumn();
+    default:
+      return new ValueColumn();
+    }
+  }
+
+  public TorrentField[] getFields() {
+    return fields.clone();
+  }
+
+  public boolean contains(TorrentField field) {
+    return columnByField[field.ordinal()] != null;
+  }
+
+  /**
+   * @return number of torrents in the table
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all rows, keeping the allocated columns. Dictionary values used by
+   * the removed rows keep their codes, the codes of the remaining values are
+   * freed for reuse.
+   */
+  public void clear() {
+    size = 0;
+    rowById = null;
+    for (Column column : columns)
+      column.clear();
+  }
+
+  /**
+   * Appends the torrents of a torrent-get "torrents" array, in object or in
+   * table format.
+   *
+   * @param in
+   *          reader positioned before the array
+   */
+  public void read(JSONStreamReader in) throws IOException, JSONException {
+    rowById = null;
+    TorrentField[] header = null;
+    in.beginArray();
+    while (in.hasNext()) {
+      if (in.peek() == JSONStreamReader.Token.BEGIN_ARRAY) {
+        // table format: a row of field names, then one value row per torrent
+        if (header == null)
+          header = TorrentStatus.readTableHeader(in);
+        else
+          readRow(in, header, addRow());
+        continue;
+      }
+      int row = addRow();
+      in.beginObject();
+      while (in.hasNext()) {
+        int ordinal = in.nextName(TorrentStatus.fieldNames);
+        Column column = ordinal == -1 ? null : columnByField[ordinal];
+        if (column == null)
+          in.skipValue();
+        else if (in.peek() == JSONStreamReader.Token.NULL)
+          in.nextNull();
+        else
+          column.read(in, row);
+      }
+      in.endObject();
+    }
+    in.endArray();
+  }
+
+  private void readRow(JSONStreamReader in, TorrentField[] header, int row) throws IOException, JSONException {
+    in.beginArray();
+    for (int i = 0; in.hasNext(); i++) {
+      TorrentField field = i < header.length ? header[i] : null;
+      Column column = field == null ? null : columnByField[field.ordinal()];
+      if (column == null)
+        in.skipValue();
+      else if (in.peek() == JSONStreamReader.Token.NULL)
+        in.nextNull();
+      else
+        column.read(in, row);
+    }
+    in.endArray();
+  }
+
+  /**
+   * Appends a torrent which was fetched as TorrentStatus.
+   */
+  public void add(TorrentStatus status) throws JSONException {
+    rowById = null;
+    int row = addRow();
+    for (int i = 0; i < fields.length; i++) {
+      if (status.has(fields[i]))
+        columns[i].set(row, status, fields[i]);
+    }
+  }
+
+  private int addRow() {
+    if (size == capacity) {
+      capacity = Math.max(16, capacity + (capacity >> 1));
+      for (Column column : columns)
+        column.grow(capacity);
+    }
+    return size++;
+  }
+
+  /**
+   * @return the backing column of an int field, valid up to {@link #size()}
+   */
+  public int[] ints(TorrentField field) {
+    return column(field, IntColumn.class).values;
+  }
+
+  /**
+   * @return the backing column of a date or byte count field, valid up to
+   *         {@link #size()}
+   */
+  public long[] longs(TorrentField field) {
+    return column(field, LongColumn.class).values;
+  }
+
+  /**
+   * @return the backing column of a fractional field, valid up to
+   *         {@link #size()}
+   */
+  public double[] doubles(TorrentField field) {
+    return column(field, DoubleColumn.class).values;
+  }
+
+  /**
+   * @return the backing column of a boolean field, valid up to {@link #size()}
+   */
+  public boolean[] booleans(TorrentField field) {
+    return column(field, BooleanColumn.class).values;
+  }
+
+  /**
+   * @return dictionary codes of a dictionary encoded string field, -1 for
+   *         null, valid up to {@link #size()}
+   */
+  public int[] codes(TorrentField field) {
+    return column(field, DictionaryColumn.class).codes;
+  }
+
+  /**
+   * @return the code of the given value in a dictionary encoded field or -1
+   *         if no torrent since the clear() before the last had that value
+   */
+  public int code(TorrentField field, String value) {
+    Integer code = column(field, DictionaryColumn.class).codeByValue.get(value);
+    return code == null ? -1 : code;
+  }
+
+  /**
+   * @return the value of a dictionary code, null for a freed code
+   */
+  public String decode(TorrentField field, int code) {
+    return code == -1 ? null : column(field, DictionaryColumn.class).dictionary[code];
+  }
+
+  /**
+   * @return the numeric value of a field in the given row, converted as needed
+   */
+  public long getLong(TorrentField field, int row) {
+    return column(field, Column.class).getLong(checkRow(row));
+  }
+
+  public double getDouble(TorrentField field, int row) {
+    return column(field, Column.class).getDouble(checkRow(row));
+  }
+
+  public String getString(TorrentField field, int row) {
+    Object value = getValue(field, row);
+    return value == null ? null : value.toString();
+  }
+
+  /**
+   * @return the value of a field in the given row, boxed like JSONObject
+   *         would hold it
+   */
+  public Object getValue(TorrentField field, int row) {
+    return column(field, Column.class).get(checkRow(row));
+  }
+
+  /**
+   * @return the row holding the torrent with the given id or -1
+   */
+  public int rowOf(int id) {
+    if (rowById == null)
+      indexIds();
+    int mask = rowById.length - 1;
+    int[] ids = ints(TorrentField.id);
+    for (int slot = mix(id) & mask; rowById[slot] != -1; slot = (slot + 1) & mask) {
+      if (ids[rowById[slot]] == id)
+        return rowById[slot];
+    }
+    return -1;
+  }
+
+  private void indexIds() {
+    int[] ids = ints(TorrentField.id);
+    int[] index = new int[Integer.highestOneBit(Math.max(4, size * 2) - 1) << 1];
+    Arrays.fill(index, -1);
+    int mask = index.length - 1;
+    for (int row = 0; row < size; row++) {
+      int slot = mix(ids[row]) & mask;
+      while (index[slot] != -1)
+        slot = (slot + 1) & mask;
+      index[slot] = row;
+    }
+    rowById = index;
+  }
+
+  private static int mix(int id) {
+    int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private int checkRow(int row) {
+    if (row < 0 || row >= size)
+      throw new IndexOutOfBoundsException("row " + row + " of " + size);
+    return row;
+  }
+
+  private <C extends Column> C column(TorrentField field, Class<C> type) {
+    Column column = columnByField[field.ordinal()];
+    if (column == null)
+      throw new IllegalArgumentException("Field not in table: " + field);
+    if (!type.isInstance(column))
+      throw new IllegalArgumentException("Field " + field + " is stored as " + column.getClass().getSimpleName());
+    return type.cast(column);
+  }
+
+  private abstract static class Column {
+
+    abstract void grow(int capacity);
+
+    abstract void clear();
+
+    abstract void read(JSONStreamReader in, int row) throws IOException, JSONException;
+
+    abstract void set(int row, TorrentStatus status, TorrentField field) throws JSONException;
+
+    abstract Object get(int row);
+
+    long getLong(int row) {
+      throw new IllegalArgumentException(getClass().getSimpleName() + " is not numeric");
+    }
+
+    double getDouble(int row) {
+      return getLong(row);
+    }
+  }
+
+  private static final class IntColumn extends Column {
+    int[] values = new int[0];
+
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    void clear() {
+      Arrays.fill(values, 0);
+    }
+
+    void read(JSONStreamReader in, int row) throws IOException, JSONException {
+      values[row] = (int) in.nextLong();
+    }
+
+    void set(int row, TorrentStatus status, TorrentField field) throws JSONException {
+      values[row] = (int) status.getLong(field);
+    }
+
+    Object get(int row) {
+      return values[row];
+    }
+
+    long getLong(int row) {
+      return values[row];
+    }
+  }
+
+  private static final class LongColumn extends Column {
+    long[] values = new long[0];
+
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    void clear() {
+      Arrays.fill(values, 0);
+    }
+
+    void read(JSONStreamReader in, int row) throws IOException, JSONException {
+      values[row] = in.nextLong();
+    }
+
+    void set(int row, TorrentStatus status, TorrentField field) throws JSONException {
+      values[row] = status.getLong(field);
+    }
+
+    Object get(int row) {
+      long value = values[row];
+      if (value == (int) value)
+        return (int) value;
+      return value;
+    }
+
+    long getLong(int row) {
+      return values[row];
+    }
+  }
+
+  private static final class DoubleColumn extends Column {
+    double[] values = new double[0];
+
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    void clear() {
+      Arrays.fill(values, 0);
+    }
+
+    void read(JSONStreamReader in, int row) throws IOException, JSONException {
+      values[row] = in.nextDouble();
+    }
+
+    void set(int row, TorrentStatus status, TorrentField field) throws JSONException {
+      values[row] = status.getDouble(field);
+    }
+
+    Object get(int row) {
+      return values[row];
+    }
+
+    long getLong(int row) {
+      return (long) values[row];
+    }
+
+    double getDouble(int row) {
+      return values[row];
+    }
+  }
+
+  private static final class BooleanColumn extends Column {
+    boolean[] values = new boolean[0];
+
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    void clear() {
+      Arrays.fill(values, false);
+    }
+
+    void read(JSONStreamReader in, int row) throws IOException, JSONException {
+      if (in.peek() == JSONStreamReader.Token.NUMBER)
+        values[row] = in.nextLong() != 0;
+      else
+        values[row] = in.nextBoolean();
+    }
+
+    void set(int row, TorrentStatus status, TorrentField field) throws JSONException {
+      values[row] = status.getBoolean(field);
+    }
+
+    Object get(int row) {
+      return values[row];
+    }
+  }
+
+  private static final class DictionaryColumn extends Column {
+    int[] codes = new int[0];
+    String[] dictionary = new String[8];
+    /** codes below are assigned or free */
+    int dictionarySize;
+    final Map<String, Integer> codeByValue = new HashMap<>();
+    /** scratch for clear(), as long as the dictionary */
+    boolean[] used = new boolean[8];
+    int[] freeCodes = new int[8];
+    int freeCount;
+
+    void grow(int capacity) {
+      int old = codes.length;
+      codes = Arrays.copyOf(codes, capacity);
+      Arrays.fill(codes, old, capacity, -1);
+    }
+
+    void clear() {
+      // rows past the size hold -1, so every used code is in the array
+      Arrays.fill(used, 0, dictionarySize, false);
+      for (int code : codes) {
+        if (code != -1)
+          used[code] = true;
+      }
+      for (int code = 0; code < dictionarySize; code++) {
+        String value = dictionary[code];
+        if (used[code] || value == null)
+          continue;
+        codeByValue.remove(value);
+        dictionary[code] = null;
+        freeCodes[freeCount++] = code;
+      }
+      Arrays.fill(codes, -1);
+    }
+
+    void read(JSONStreamReader in, int row) throws IOException, JSONException {
+      codes[row] = encode(in.nextString());
+    }
+
+    void set(int row, TorrentStatus status, TorrentField field) throws JSONException {
+      codes[row] = encode(status.getString(field));
+    }
+
+    private int encode(String value) {
+      Integer known = codeByValue.get(value);
+      if (known != null)
+        return known;
+      int code;
+      if (freeCount > 0) {
+        code = freeCodes[--freeCount];
+      } else {
+        if (dictionarySize == dictionary.length) {
+          int length = dictionarySize * 2;
+          dictionary = Arrays.copyOf(dictionary, length);
+          used = new boolean[length];
+          freeCodes = new int[length];
+        }
+        code = dictionarySize++;
+      }
+      dictionary[code] = value;
+      codeByValue.put(value, code);
+      return code;
+    }
+
+    Object get(int row) {
+      int code = codes[row];
+      return code == -1 ? null : dictionary[code];
+    }
+  }
+
+  private static final class ValueColumn extends Column {
+    Object[] values = new Object[0];
+
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    void clear() {
+      Arrays.fill(values, null);
+    }
+
+    void read(JSONStreamReader in, int row) throws IOException, JSONException {
+      values[row] = in.readValue();
+    }
+
+    void set(int row, TorrentStatus status, TorrentField field) throws JSONException {
+      values[row] = status.getField(field);
+    }
+
+    Object get(int row) {
+      Object value = values[row];
+      return value == JSONObject.NULL ? null : value;
+    }
+  }
+}
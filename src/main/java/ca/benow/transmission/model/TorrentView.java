@@ -0,0 +1,126 @@
+package ca.benow.transmission.model;
+
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A named set of torrent fields, the minimum a screen or job needs. Asking
+ * for a view instead of {@link TorrentField#all} keeps torrent-get responses
+ * small; the predefined views cover the usual list and detail screens.
+ *
+ * <pre>
+ * TorrentView row = TorrentView.of("row", TorrentField.id, TorrentField.name, TorrentField.eta);
+ * planner.getTorrents(null, row.plus(TorrentField.files));
+ * </pre>
+ */
+public final class TorrentView {
+
+  /** a row of a torrent list */
+  public static final TorrentView LIST = of("list", TorrentField.id, TorrentField.name, TorrentField.status,
+      TorrentField.percentDone, TorrentField.rateDownload, TorrentField.rateUpload, TorrentField.eta,
+      TorrentField.sizeWhenDone, TorrentField.uploadRatio, TorrentField.error, TorrentField.errorString);
+
+  /** the scalar details of a single torrent */
+  public static final TorrentView DETAILS = LIST.plus("details", TorrentField.hashString, TorrentField.addedDate,
+      TorrentField.activityDate, TorrentField.doneDate, TorrentField.dateCreated, TorrentField.downloadDir,
+      TorrentField.comment, TorrentField.creator, TorrentField.isPrivate, TorrentField.totalSize,
+      TorrentField.haveValid, TorrentField.downloadedEver, TorrentField.uploadedEver, TorrentField.corruptEver,
+      TorrentField.pieceCount, TorrentField.pieceSize, TorrentField.peersConnected);
+
+  /** a torrent's files and their progress */
+  public static final TorrentView FILES = of("files", TorrentField.id, TorrentField.name, TorrentField.files,
+      TorrentField.fileStats);
+
+  /** a torrent's connected peers */
+  public static final TorrentView PEERS = of("peers", TorrentField.id, TorrentField.name, TorrentField.peers,
+      TorrentField.peersFrom, TorrentField.peersConnected);
+
+  /** a torrent's trackers and their announce state */
+  public static final TorrentView TRACKERS = of("trackers", TorrentField.id, TorrentField.name,
+      TorrentField.trackers, TorrentField.trackerStats);
+
+  private final String name;
+  private final TorrentField[] fields;
+
+  private TorrentView(String name, Set<TorrentField> fields) {
+    this.name = name;
+    this.fields = fields.toArray(new TorrentField[fields.size()]);
+  }
+
+  /**
+   * @param name
+   *          name of the view, used in logs
+   * @param fields
+   *          fields of the view, the id is always added
+   * @throws IllegalArgumentException
+   *           if {@link TorrentField#all} is among the fields
+   */
+  public static TorrentView of(String name, TorrentField... fields) {
+    Set<TorrentField> set = EnumSet.of(TorrentField.id);
+    add(set, fields);
+    return new TorrentView(name, set);
+  }
+
+  /**
+   * @return a view holding the fields of this one and the given ones
+   */
+  public TorrentView plus(String name, TorrentField... more) {
+    Set<TorrentField> set = EnumSet.noneOf(TorrentField.class);
+    set.addAll(Arrays.asList(fields));
+    add(set, more);
+    return new TorrentView(name, set);
+  }
+
+  /**
+   * @return a view holding the fields of this one and the given ones, named
+   *         like this one
+   */
+  public TorrentView plus(TorrentField... more) {
+    return plus(name, more);
+  }
+
+  private static void add(Set<TorrentField> set, TorrentField[] fields) {
+    for (TorrentField curr : fields) {
+      if (curr == TorrentField.all)
+        throw new IllegalArgumentException("A view lists its fields, TorrentField.all is not allowed");
+      set.add(curr);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the fields, in declaration order of TorrentField
+   */
+  public TorrentField[] getFields() {
+    return fields.clone();
+  }
+
+  public boolean contains(TorrentField field) {
+    for (TorrentField curr : fields) {
+      if (curr == field)
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof TorrentView && Arrays.equals(fields, ((TorrentView) obj).fields);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(fields);
+  }
+
+  @Override
+  public String toString() {
+    return name + Arrays.toString(fields);
+  }
+}
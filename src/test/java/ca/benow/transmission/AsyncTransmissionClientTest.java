@@ -0,0 +1,117 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.AddedTorrentInfo;
+import ca.benow.transmission.model.SessionStatus;
+import ca.benow.transmission.model.TorrentSettings;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import ca.benow.transmission.model.TorrentTable;
+
+public class AsyncTransmissionClientTest {
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeTransmissionServer(10);
+        client = server.createClient();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    @Test
+    public void testDefaultExecutorBoundedByConnections() throws Exception {
+        client.getConnectionPool().setMaxConnections(3);
+        server.setLatency(5, 10, TimeUnit.MILLISECONDS);
+        AsyncTransmissionClient async = new AsyncTransmissionClient(client);
+        List<CompletableFuture<SessionStatus>> calls = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            calls.add(async.getSessionStats());
+        }
+        for (CompletableFuture<SessionStatus> curr : calls) {
+            assertEquals(10, curr.get(10, TimeUnit.SECONDS).getTorrentCount());
+        }
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) async.getExecutor();
+        assertTrue(executor.getLargestPoolSize() <= 3);
+        // shared by all async clients of the pool
+        assertTrue(executor == new AsyncTransmissionClient(client).getExecutor());
+    }
+
+    @Test
+    public void testAbortInterruptNotLeaked() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncTransmissionClient async = new AsyncTransmissionClient(client, executor);
+            client.getSessionStats();
+            server.setLatency(500, 500, TimeUnit.MILLISECONDS);
+            try {
+                async.withDeadline(50, TimeUnit.MILLISECONDS).getSessionStats().get();
+                fail("deadline should have been exceeded");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertFalse(executor.submit(() -> Thread.currentThread().isInterrupted()).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testForeignInterruptKept() throws Exception {
+        AtomicBoolean interrupted = new AtomicBoolean();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AsyncTransmissionClient async = new AsyncTransmissionClient(client, task -> new Thread(() -> {
+            // as if the executor were shutting down
+            Thread.currentThread().interrupt();
+            task.run();
+            interrupted.set(Thread.currentThread().isInterrupted());
+            done.complete(null);
+        }).start());
+        async.getSessionStats().handle((result, error) -> null);
+        done.get(10, TimeUnit.SECONDS);
+        assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void testParameterAndTableOperations() throws Exception {
+        AsyncTransmissionClient async = new AsyncTransmissionClient(client);
+        AddedTorrentInfo added = async.addTorrent(AddTorrentParameter.builder()
+                .torrentFileNameOrURL("magnet:?xt=urn:btih:0123456789abcdef0123456789abcdef01234567&dn=example"))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals("example", added.getName());
+
+        async.setTorrents(new Object[] { added.getId() }, new TorrentSettings().downloadLimit(42))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(42, server.getTorrentField(added.getId(), "downloadLimit"));
+
+        TorrentTable table = async.getTorrentTable(null, new TorrentTable(TorrentField.id))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(11, table.size());
+        assertEquals(client.getRpcVersion(), async.getRpcVersion().get(10, TimeUnit.SECONDS).intValue());
+    }
+}
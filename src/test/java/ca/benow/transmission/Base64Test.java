@@ -0,0 +1,66 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class Base64Test {
+
+    @Test
+    public void testEncodeMatchesJdk() throws Exception {
+        Random random = new Random(42);
+        for (int len = 0; len < 40; len++) {
+            byte[] bytes = new byte[len];
+            random.nextBytes(bytes);
+            String expected = java.util.Base64.getEncoder().encodeToString(bytes);
+            assertEquals(expected, Base64.encode(bytes));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Base64.encode(new ByteArrayInputStream(bytes), out);
+            assertEquals(expected, new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testEncodeChannelAcrossBlocks() throws Exception {
+        byte[] bytes = new byte[100003];
+        new Random(7).nextBytes(bytes);
+        File file = File.createTempFile("metainfo", ".torrent");
+        try {
+            Files.write(file.toPath(), bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (FileChannel channel = new FileInputStream(file).getChannel()) {
+                Base64.encode(channel, out);
+            }
+            assertEquals(java.util.Base64.getEncoder().encodeToString(bytes),
+                    new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreamedMemberIsValidJson() throws Exception {
+        final byte[] bytes = "d8:announce3:urle".getBytes(StandardCharsets.US_ASCII);
+        JSONObject command = new JSONObject().put("method", "torrent-add").put("tag", "1");
+        RequestBuffer body = RequestBuffer.of(command, new JSONObject().put("paused", true), "metainfo",
+                out -> Base64.encode(new ByteArrayInputStream(bytes), out));
+        JSONObject parsed = new JSONObject(body.toString());
+        assertEquals("torrent-add", parsed.getString("method"));
+        assertEquals(true, parsed.getJSONObject("arguments").getBoolean("paused"));
+        assertEquals(Base64.encode(bytes), parsed.getJSONObject("arguments").getString("metainfo"));
+
+        body = RequestBuffer.of(command, new JSONObject(), "metainfo", out -> { });
+        assertEquals("", new JSONObject(body.toString()).getJSONObject("arguments").getString("metainfo"));
+    }
+}
@@ -0,0 +1,187 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentSettings;
+import ca.benow.transmission.model.TorrentStatus;
+
+public class BulkTorrentSetterTest {
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+    private int[] ids;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeTransmissionServer(30);
+        client = server.createClient();
+        ids = server.getTorrentIds();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    private static TorrentSettings limit(int kbps) {
+        return new TorrentSettings().downloadLimit(kbps).downloadLimited(true);
+    }
+
+    @Test
+    public void testGroupedBySettings() throws Exception {
+        Map<Integer, TorrentSettings> wanted = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            wanted.put(ids[i], limit(100 * (i % 3 + 1)));
+        }
+        BulkTorrentSetter.Result result = new BulkTorrentSetter(client).apply(wanted, null);
+        assertTrue(result.isComplete());
+        assertEquals(30, result.getUpdated());
+        assertEquals(3, result.getCalls());
+        assertEquals(3, server.getCallCount("torrent-set"));
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(100 * (i % 3 + 1), server.getTorrentField(ids[i], "downloadLimit"));
+            assertEquals(true, server.getTorrentField(ids[i], "downloadLimited"));
+        }
+    }
+
+    @Test
+    public void testChunkedWithProgress() throws Exception {
+        Map<Integer, TorrentSettings> wanted = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            wanted.put(ids[i], limit(50));
+        }
+        BulkTorrentSetter setter = new BulkTorrentSetter(client);
+        setter.setChunkSize(4);
+        final List<String> progress = new ArrayList<>();
+        BulkTorrentSetter.Result result = setter.apply(wanted, new BulkTorrentSetter.Listener() {
+            @Override
+            public void progress(int done, int total) {
+                progress.add(done + "/" + total);
+            }
+
+            @Override
+            public void failed(BulkTorrentSetter.Failure failure) {
+                progress.add("failed");
+            }
+        });
+        assertEquals(3, result.getCalls());
+        assertEquals(Arrays.asList("4/10", "8/10", "10/10"), progress);
+        assertEquals(50, server.getTorrentField(ids[9], "downloadLimit"));
+    }
+
+    @Test
+    public void testKnownSettingsSkipped() throws Exception {
+        BulkTorrentSetter setter = new BulkTorrentSetter(client);
+        List<TorrentStatus> torrents = client.getAllTorrents(TorrentSettings.getFields());
+        setter.learn(torrents);
+        Map<Integer, TorrentSettings> wanted = new LinkedHashMap<>();
+        for (TorrentStatus torrent : torrents) {
+            wanted.put(torrent.getId(), TorrentSettings.of(torrent));
+        }
+        // only the changed field of one torrent goes out
+        TorrentSettings current = TorrentSettings.of(torrents.get(0));
+        wanted.put(ids[0], current.merge(new TorrentSettings().peerLimit(7)));
+        BulkTorrentSetter.Result result = setter.apply(wanted, null);
+        assertEquals(29, result.getUnchanged());
+        assertEquals(1, result.getUpdated());
+        assertEquals(1, server.getCallCount("torrent-set"));
+        assertEquals(7, server.getTorrentField(ids[0], "peer-limit"));
+
+        // applied settings are remembered
+        result = setter.apply(wanted, null);
+        assertEquals(30, result.getUnchanged());
+        assertEquals(0, result.getCalls());
+    }
+
+    @Test
+    public void testIdAndHashKeptInStep() throws Exception {
+        BulkTorrentSetter setter = new BulkTorrentSetter(client);
+        TorrentStatus torrent = client.getTorrents(new int[] { ids[0] }, TorrentSettings.getFields()).get(0);
+        setter.learn(Arrays.asList(torrent));
+        String hash = torrent.getString(TorrentStatus.TorrentField.hashString);
+
+        Map<Object, TorrentSettings> byHash = new LinkedHashMap<>();
+        byHash.put(hash, limit(300));
+        assertEquals(1, setter.apply(byHash, null).getUpdated());
+        Map<Object, TorrentSettings> byId = new LinkedHashMap<>();
+        byId.put(ids[0], limit(300));
+        BulkTorrentSetter.Result result = setter.apply(byId, null);
+        assertEquals(1, result.getUnchanged());
+        assertEquals(1, server.getCallCount("torrent-set"));
+
+        // and back, reverting by id makes the hash entry send again
+        byId.put(ids[0], limit(100));
+        assertEquals(1, setter.apply(byId, null).getUpdated());
+        assertEquals(1, setter.apply(byHash, null).getUpdated());
+        assertEquals(300, server.getTorrentField(ids[0], "downloadLimit"));
+    }
+
+    @Test
+    public void testFailedChunkReported() throws Exception {
+        final Object failing = ids[5];
+        TransmissionClient flaky = new TransmissionClient(server.getUrl()) {
+            @Override
+            public void setTorrents(Object[] chunk, TorrentSettings settings) throws IOException, JSONException {
+                if (Arrays.asList(chunk).contains(failing))
+                    throw new IOException("chunk refused");
+                super.setTorrents(chunk, settings);
+            }
+        };
+        try {
+            BulkTorrentSetter setter = new BulkTorrentSetter(flaky);
+            setter.setChunkSize(4);
+            Map<Integer, TorrentSettings> wanted = new LinkedHashMap<>();
+            for (int i = 0; i < 12; i++) {
+                wanted.put(ids[i], limit(80));
+            }
+            final List<BulkTorrentSetter.Failure> reported = new ArrayList<>();
+            final List<Integer> progress = new ArrayList<>();
+            BulkTorrentSetter.Result result = setter.apply(wanted, new BulkTorrentSetter.Listener() {
+                @Override
+                public void progress(int done, int total) {
+                    progress.add(done);
+                }
+
+                @Override
+                public void failed(BulkTorrentSetter.Failure failure) {
+                    reported.add(failure);
+                }
+            });
+            // the chunk after the failing one is still sent
+            assertFalse(result.isComplete());
+            assertEquals(3, result.getCalls());
+            assertEquals(8, result.getUpdated());
+            assertEquals(Arrays.asList(4, 8, 12), progress);
+            assertEquals(1, reported.size());
+            BulkTorrentSetter.Failure failure = result.getFailures().get(0);
+            assertSame(failure, reported.get(0));
+            assertEquals(Arrays.<Object>asList(ids[4], ids[5], ids[6], ids[7]), failure.getIds());
+            assertEquals(limit(80), failure.getSettings());
+            assertEquals("chunk refused", failure.getError().getMessage());
+            assertEquals(80, server.getTorrentField(ids[11], "downloadLimit"));
+
+            // failed torrents aren't taken as changed, the next apply retries them
+            result = setter.apply(wanted, null);
+            assertEquals(8, result.getUnchanged());
+            assertEquals(1, result.getCalls());
+        } finally {
+            flaky.getConnectionPool().close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ca.benow.transmission;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plain socket HTTP server answering with whatever bytes a test scripts, down
+ * to malformed or cut off responses, which {@link FakeTransmissionServer}
+ * can't produce.
+ */
+final class CannedHttpServer implements AutoCloseable {
+
+    /**
+     * Scripts the answer to a request.
+     */
+    interface Responder {
+        /**
+         * @param connection
+         *          index of the connection, counting from 0
+         * @param request
+         *          index of the request on that connection, counting from 0
+         * @param body
+         *          the request body
+         * @param out
+         *          the connection's output
+         * @return false to close the connection after the answer
+         */
+        boolean respond(int connection, int request, byte[] body, OutputStream out) throws IOException;
+    }
+
+    private final ServerSocket socket;
+    private final Responder responder;
+    private final Thread thread;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    CannedHttpServer(Responder responder) throws IOException {
+        this.responder = responder;
+        this.socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.thread = new Thread(this::accept, "canned-http-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return a 200 response with the given JSON body
+     */
+    static byte[] ok(String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length
+                + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] result = new byte[head.length + body.length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(body, 0, result, head.length, body.length);
+        return result;
+    }
+
+    URL getUrl() {
+        try {
+            return new URL("http://127.0.0.1:" + socket.getLocalPort() + "/transmission/rpc");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                final Socket conn = socket.accept();
+                final int index = connections.getAndIncrement();
+                Thread handler = new Thread(() -> serve(conn, index), "canned-http-connection-" + index);
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket conn, int index) {
+        try {
+            InputStream in = conn.getInputStream();
+            OutputStream out = conn.getOutputStream();
+            for (int request = 0; ; request++) {
+                byte[] body = readRequest(in);
+                if (body == null)
+                    return;
+                requests.incrementAndGet();
+                boolean keepOpen = responder.respond(index, request, body, out);
+                out.flush();
+                if (!keepOpen)
+                    return;
+            }
+        } catch (IOException e) {
+            // connection gone
+        } finally {
+            try {
+                conn.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    /**
+     * @return the body of the next request, null at EOF
+     */
+    private static byte[] readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        // the last four bytes read, the head ends with CRLF CRLF
+        int last = 0;
+        while (last != 0x0d0a0d0a) {
+            int b = in.read();
+            if (b == -1)
+                return null;
+            head.write(b);
+            last = (last << 8) | b;
+        }
+        int length = 0;
+        for (String line : head.toString("ISO-8859-1").split("\r\n")) {
+            if (line.toLowerCase(Locale.ROOT).startsWith("content-length:"))
+                length = Integer.parseInt(line.substring(15).trim());
+        }
+        byte[] body = new byte[length];
+        for (int read = 0; read < length; ) {
+            int curr = in.read(body, read, length - read);
+            if (curr == -1)
+                return null;
+            read += curr;
+        }
+        return body;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class CoalescingTorrentReaderTest {
+
+    private static final TorrentField[] FIELDS = { TorrentField.id, TorrentField.name };
+    private static final int THREADS = 16;
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+    private CoalescingTorrentReader reader;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeTransmissionServer(50);
+        client = server.createClient();
+        client.getConnectionPool().setMaxConnections(THREADS);
+        reader = new CoalescingTorrentReader(client);
+        executor = Executors.newFixedThreadPool(THREADS);
+        // open the session, so no caller is held up by the 409
+        client.getSessionStats();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    /**
+     * Runs the call on all threads at once.
+     */
+    private <T> List<Future<T>> concurrently(final Callable<T> call) {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                barrier.await();
+                return call.call();
+            }));
+        }
+        return futures;
+    }
+
+    @Test
+    public void testConcurrentReadsShareOneRequest() throws Exception {
+        server.setLatency(300, 300, TimeUnit.MILLISECONDS);
+        List<Future<List<TorrentStatus>>> futures = concurrently(() -> reader.getAllTorrents(FIELDS));
+        List<TorrentStatus> first = futures.get(0).get(10, TimeUnit.SECONDS);
+        assertEquals(50, first.size());
+        for (Future<List<TorrentStatus>> curr : futures) {
+            assertSame(first, curr.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, server.getCallCount("torrent-get"));
+        assertEquals(1, reader.getFetchCount());
+        assertEquals(THREADS, reader.getRequestCount());
+
+        // nothing is kept without a freshness window
+        assertNotSame(first, reader.getAllTorrents(FIELDS));
+        assertEquals(2, server.getCallCount("torrent-get"));
+    }
+
+    @Test
+    public void testKeyIgnoresOrder() throws Exception {
+        server.setLatency(300, 300, TimeUnit.MILLISECONDS);
+        int[] ids = server.getTorrentIds();
+        final int[] forward = { ids[0], ids[1], ids[2] };
+        final int[] backward = { ids[2], ids[1], ids[0] };
+        final TorrentField[] reversed = { TorrentField.name, TorrentField.id };
+        final AtomicInteger calls = new AtomicInteger();
+        List<Future<List<TorrentStatus>>> futures = concurrently(() -> calls.getAndIncrement() % 2 == 0
+                ? reader.getTorrents(forward, FIELDS) : reader.getTorrents(backward, reversed));
+        for (Future<List<TorrentStatus>> curr : futures) {
+            assertEquals(3, curr.get(10, TimeUnit.SECONDS).size());
+        }
+        assertEquals(1, server.getCallCount("torrent-get"));
+
+        reader.setFreshness(1, TimeUnit.MINUTES);
+        List<TorrentStatus> kept = reader.getTorrents(forward, FIELDS);
+        assertSame(kept, reader.getTorrents(backward, reversed));
+        // other fields are another request
+        assertNotSame(kept, reader.getTorrents(forward, new TorrentField[] { TorrentField.id }));
+        assertEquals(3, server.getCallCount("torrent-get"));
+    }
+
+    @Test
+    public void testFreshness() throws Exception {
+        reader.setFreshness(1, TimeUnit.MINUTES);
+        List<TorrentStatus> first = reader.getAllTorrents(FIELDS);
+        assertSame(first, reader.getAllTorrents(FIELDS));
+        assertEquals(1, server.getCallCount("torrent-get"));
+        reader.invalidate();
+        assertNotSame(first, reader.getAllTorrents(FIELDS));
+        assertEquals(2, server.getCallCount("torrent-get"));
+
+        reader.setFreshness(20, TimeUnit.MILLISECONDS);
+        reader.invalidate();
+        List<TorrentStatus> fresh = reader.getAllTorrents(FIELDS);
+        Thread.sleep(50);
+        assertNotSame(fresh, reader.getAllTorrents(FIELDS));
+        assertEquals(4, server.getCallCount("torrent-get"));
+    }
+
+    @Test
+    public void testFailureSharedButNotKept() throws Exception {
+        reader.setFreshness(1, TimeUnit.MINUTES);
+        server.setLatency(300, 300, TimeUnit.MILLISECONDS);
+        server.setErrorRate(1);
+        int before = server.getRequestCount();
+        List<Future<List<TorrentStatus>>> futures = concurrently(() -> reader.getAllTorrents(FIELDS));
+        Throwable error = null;
+        for (Future<List<TorrentStatus>> curr : futures) {
+            try {
+                curr.get(10, TimeUnit.SECONDS);
+                fail("failed torrent-get should fail every waiting caller");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TransmissionException);
+                if (error != null)
+                    assertSame(error, e.getCause());
+                error = e.getCause();
+            }
+        }
+        assertEquals(before + 1, server.getRequestCount());
+        assertEquals(1, reader.getFetchCount());
+
+        server.setErrorRate(0);
+        assertEquals(50, reader.getAllTorrents(FIELDS).size());
+        assertEquals(2, reader.getFetchCount());
+    }
+}
@@ -0,0 +1,126 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+    private static final byte[] BODY = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private CannedHttpServer server;
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null)
+            pool.close();
+        if (server != null)
+            server.close();
+    }
+
+    private void start(boolean keepOpen) throws IOException {
+        server = new CannedHttpServer((connection, request, body, out) -> {
+            out.write(CannedHttpServer.ok("{\"result\":\"success\"}"));
+            return keepOpen;
+        });
+        pool = new ConnectionPool(server.getUrl());
+        pool.setReadTimeout(2000);
+    }
+
+    /**
+     * Posts on a leased connection and releases it as reusable if the
+     * response allows it.
+     */
+    private HttpConnection exchange() throws IOException {
+        HttpConnection conn = pool.lease();
+        boolean reusable = false;
+        try {
+            conn.post("/transmission/rpc", "localhost", new String[0], BODY, BODY.length);
+            reusable = conn.readResponse().finish();
+        } finally {
+            pool.release(conn, reusable);
+        }
+        return conn;
+    }
+
+    @Test
+    public void testKeepAliveReuse() throws Exception {
+        start(true);
+        HttpConnection first = exchange();
+        assertEquals(1, pool.getIdleCount());
+        HttpConnection second = exchange();
+        assertSame(first, second);
+        assertTrue(second.isReused());
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(0, pool.getLeasedCount());
+    }
+
+    @Test
+    public void testStaleConnectionDetected() throws Exception {
+        start(false);
+        HttpConnection conn = pool.lease();
+        conn.post("/transmission/rpc", "localhost", new String[0], BODY, BODY.length);
+        // the daemon answered with keep-alive, but closes the connection anyway
+        conn.readResponse().finish();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!conn.isStale(true) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(conn.isStale(true));
+        pool.release(conn, true);
+
+        // idle connections past the timeout aren't handed out again
+        pool.setIdleTimeout(1);
+        Thread.sleep(20);
+        HttpConnection next = pool.lease();
+        assertNotSame(conn, next);
+        assertFalse(next.isStale(true));
+        pool.release(next, false);
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        start(true);
+        pool.setMaxConnections(1);
+        HttpConnection first = pool.lease();
+        CompletableFuture<HttpConnection> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.lease();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            second.get(100, TimeUnit.MILLISECONDS);
+            fail("second lease should wait for the first connection");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        pool.release(first, true);
+        assertSame(first, second.get(2, TimeUnit.SECONDS));
+        pool.release(first, true);
+
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+        try {
+            pool.lease();
+            fail("closed pool should refuse leases");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.AddedTorrentInfo;
+import ca.benow.transmission.model.DuplicateTorrentInfo;
+import ca.benow.transmission.model.TorrentSettings;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import ca.benow.transmission.model.TorrentTable;
+import ca.benow.transmission.model.TransmissionSession.SessionField;
+
+public class FakeTransmissionServerTest {
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeTransmissionServer(500);
+        client = server.createClient();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    @Test
+    public void testTorrentsAndSession() throws Exception {
+        List<TorrentStatus> torrents = client.getAllTorrents(new TorrentField[] { TorrentField.all });
+        assertEquals(500, torrents.size());
+        assertEquals(1, torrents.get(0).getId());
+        assertEquals(1, server.getConflictCount());
+
+        Map<SessionField, Object> session = client.getSession();
+        assertEquals(15, session.get(SessionField.rpcVersion));
+        assertEquals(500, client.getSessionStats().getTorrentCount());
+    }
+
+    @Test
+    public void testTableFormat() throws Exception {
+        server.setRpcVersion(17);
+        TorrentField[] fields = { TorrentField.id, TorrentField.name, TorrentField.percentDone, TorrentField.files };
+        List<TorrentStatus> torrents = client.getAllTorrents(fields);
+        assertEquals(17, client.getRpcVersion());
+        assertEquals(500, torrents.size());
+        assertEquals(server.getTorrentField(7, "name"), torrents.get(6).getName());
+        assertEquals(1, torrents.get(6).getJSONObject().getJSONArray("files").length());
+
+        TorrentTable table = client.getTorrentTable(null, new TorrentTable(TorrentField.id, TorrentField.percentDone));
+        assertEquals(500, table.size());
+        assertEquals(7, table.ints(TorrentField.id)[6]);
+        assertEquals(((Number) server.getTorrentField(7, "percentDone")).doubleValue(),
+                table.doubles(TorrentField.percentDone)[6], 0);
+
+        client.setTableFormat(false);
+        assertEquals(torrents.get(6).getName(), client.getAllTorrents(fields).get(6).getName());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testTypedTorrentsOptIn() throws Exception {
+        TorrentField[] fields = { TorrentField.id, TorrentField.name, TorrentField.files };
+        server.setRpcVersion(17);
+        // wrapped by default, in both formats, so the public field stays set
+        for (boolean tableFormat : new boolean[] { true, false }) {
+            client.setTableFormat(tableFormat);
+            TorrentStatus wrapped = client.getAllTorrents(fields).get(6);
+            assertEquals(server.getTorrentField(7, "name"), wrapped.obj.getString("name"));
+            assertEquals(1, wrapped.obj.getJSONArray("files").length());
+        }
+
+        client.setTypedTorrents(true);
+        TorrentStatus typed = client.getAllTorrents(fields).get(6);
+        assertNull(typed.obj);
+        assertEquals(server.getTorrentField(7, "name"), typed.getJSONObject().getString("name"));
+    }
+
+    @Test
+    public void testRecentlyActiveWithChurn() throws Exception {
+        TorrentMirror mirror = new TorrentMirror(client, null);
+        assertEquals(500, mirror.sync().size());
+        server.churn(20, 3, 4);
+        TorrentMirror.Snapshot snapshot = mirror.sync();
+        assertEquals(499, snapshot.size());
+        int[] ids = new int[snapshot.size()];
+        int i = 0;
+        for (int id : snapshot.getTorrentsById().keySet()) {
+            ids[i++] = id;
+        }
+        Arrays.sort(ids);
+        assertArrayEquals(server.getTorrentIds(), ids);
+    }
+
+    @Test
+    public void testAddAndSet() throws Exception {
+        String magnet = "magnet:?xt=urn:btih:0123456789abcdef0123456789abcdef01234567&dn=example";
+        AddedTorrentInfo added = client.addTorrent(magnet);
+        assertEquals(501, added.getId());
+        assertEquals("example", added.getName());
+        assertTrue(client.addTorrent(magnet) instanceof DuplicateTorrentInfo);
+
+        client.setTorrents(new Object[] { added.getId() }, new TorrentSettings().downloadLimit(42).downloadLimited(true));
+        TorrentStatus torrent = client.getTorrents(new int[] { added.getId() },
+                new TorrentField[] { TorrentField.id, TorrentField.downloadLimit, TorrentField.downloadLimited }).get(0);
+        assertEquals(42, torrent.getLong(TorrentField.downloadLimit));
+        assertTrue(torrent.getBoolean(TorrentField.downloadLimited));
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        RpcMetrics metrics = new RpcMetrics();
+        client.setInstrumentation(metrics);
+        TorrentField[] fields = { TorrentField.all };
+        assertEquals(500, client.getAllTorrents(fields).size());
+        double gzip = metrics.snapshot().get("torrent-get").getCompressionRatio();
+        assertTrue("gzip ratio " + gzip, gzip > 3);
+
+        server.setResponseEncoding("deflate");
+        metrics.reset();
+        assertEquals(500, client.getAllTorrents(fields).size());
+        assertTrue(metrics.snapshot().get("torrent-get").getCompressionRatio() > 3);
+
+        client.setAcceptCompressed(false);
+        metrics.reset();
+        assertEquals(500, client.getAllTorrents(fields).size());
+        assertEquals(1, metrics.snapshot().get("torrent-get").getCompressionRatio(), 0);
+
+        // a server not taking compressed requests makes the client stop compressing
+        client.setRequestCompression(0);
+        client.getSessionStats();
+        assertEquals(-1, client.getRequestCompression());
+        server.setAcceptCompressedRequests(true);
+        client.setRequestCompression(0);
+        metrics.reset();
+        client.getTorrents(server.getTorrentIds(), null);
+        assertTrue(metrics.snapshot().get("torrent-get").getRequestCompressionRatio() > 1.5);
+    }
+
+    @Test
+    public void testInjectedFailures() throws Exception {
+        server.setErrorRate(1);
+        try {
+            client.getSessionStats();
+            fail("result should have been an error");
+        } catch (TransmissionException e) {
+            // expected
+        }
+        server.setErrorRate(0);
+        server.setHttpErrorRate(1);
+        try {
+            client.getSessionStats();
+            fail("HTTP 500 should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("500"));
+        }
+        server.setHttpErrorRate(0);
+        server.setSessionRotation(2);
+        for (int i = 0; i < 10; i++) {
+            client.getSessionStats();
+        }
+        assertTrue(server.getConflictCount() > 1);
+    }
+}
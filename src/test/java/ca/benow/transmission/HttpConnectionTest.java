@@ -0,0 +1,176 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.Arrays;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HttpConnectionTest {
+
+    private static final char[] PASSWORD = "secret".toCharArray();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testCertificateForOtherHostRejected() throws Exception {
+        KeyStore keyStore = createKeyStore("wrong.example.com", "dns:wrong.example.com");
+        try (TlsServer server = new TlsServer(keyStore)) {
+            ConnectionPool pool = server.createPool(keyStore);
+            try {
+                pool.lease();
+                fail("certificate of wrong.example.com must not be accepted for 127.0.0.1");
+            } catch (SSLException e) {
+                // expected
+            }
+            assertEquals(0, pool.getLeasedCount());
+        }
+    }
+
+    @Test
+    public void testCertificateForHostAccepted() throws Exception {
+        KeyStore keyStore = createKeyStore("localhost", "ip:127.0.0.1");
+        try (TlsServer server = new TlsServer(keyStore)) {
+            ConnectionPool pool = server.createPool(keyStore);
+            HttpConnection conn = pool.lease();
+            pool.release(conn, false);
+        }
+    }
+
+    @Test
+    public void testTunnelledThroughProxy() throws Exception {
+        KeyStore keyStore = createKeyStore("localhost", "ip:127.0.0.1");
+        try (TlsServer server = new TlsServer(keyStore); TestProxy proxy = new TestProxy()) {
+            ConnectionPool pool = server.createPool(keyStore);
+            HttpConnection conn = pool.lease();
+            pool.release(conn, false);
+            assertEquals(Arrays.asList("CONNECT 127.0.0.1:" + server.getPort() + " HTTP/1.1"), proxy.getRequestLines());
+        }
+    }
+
+    @Test
+    public void testTunnelRefused() throws Exception {
+        KeyStore keyStore = createKeyStore("localhost", "ip:127.0.0.1");
+        try (TlsServer server = new TlsServer(keyStore); TestProxy proxy = new TestProxy()) {
+            proxy.setConnectResponse("HTTP/1.1 407 Proxy Authentication Required");
+            ConnectionPool pool = server.createPool(keyStore);
+            try {
+                pool.lease();
+                fail("refused tunnel must fail the connection");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("407"));
+            }
+            assertEquals(0, pool.getLeasedCount());
+        }
+    }
+
+    @Test
+    public void testIpLiteral() {
+        assertTrue(HttpConnection.isIpLiteral("127.0.0.1"));
+        assertTrue(HttpConnection.isIpLiteral("[::1]"));
+        assertFalse(HttpConnection.isIpLiteral("seedbox.example.com"));
+        assertFalse(HttpConnection.isIpLiteral("localhost"));
+    }
+
+    private KeyStore createKeyStore(String cn, String san) throws Exception {
+        File file = new File(tmp.getRoot(), cn + ".p12");
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "daemon", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=" + cn, "-ext", "SAN=" + san, "-validity", "2", "-keystore",
+                file.getPath(), "-storetype", "PKCS12", "-storepass", "secret", "-keypass", "secret")
+                .redirectErrorStream(true).start();
+        try (InputStream out = process.getInputStream()) {
+            while (out.read() != -1) {
+                // keytool blocks on a full pipe
+            }
+        }
+        assertEquals("keytool failed", 0, process.waitFor());
+        KeyStore result = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            result.load(in, PASSWORD);
+        }
+        return result;
+    }
+
+    /**
+     * Accepts TLS connections with the key of the given store and completes
+     * their handshakes.
+     */
+    private static final class TlsServer implements AutoCloseable {
+
+        private final SSLServerSocket socket;
+        private final Thread thread;
+
+        TlsServer(KeyStore keyStore) throws Exception {
+            KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(keyStore, PASSWORD);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keys.getKeyManagers(), null, null);
+            socket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 5,
+                    InetAddress.getByName("127.0.0.1"));
+            thread = new Thread(this::serve, "tls-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void serve() {
+            while (!socket.isClosed()) {
+                try (SSLSocket conn = (SSLSocket) socket.accept()) {
+                    conn.startHandshake();
+                    conn.getInputStream().read();
+                } catch (Exception e) {
+                    // a rejected handshake or the server closing
+                }
+            }
+        }
+
+        /**
+         * @return a pool trusting the store's certificate, so only the host
+         *         name check can fail
+         */
+        ConnectionPool createPool(KeyStore trusted) throws Exception {
+            TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(trusted);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trust.getTrustManagers(), null);
+            ConnectionPool pool = new ConnectionPool(new URL("https://127.0.0.1:" + socket.getLocalPort() + "/transmission/rpc"));
+            pool.setSslSocketFactory(context.getSocketFactory());
+            pool.setReadTimeout(5000);
+            return pool;
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HttpResponseTest {
+
+    private static InputStream stream(String raw) {
+        return new ByteArrayInputStream(raw.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String body(HttpResponse response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = response.getBody();
+        byte[] buf = new byte[3];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStatusLineAndHeaders() throws Exception {
+        HttpResponse response = HttpResponse.read(stream("HTTP/1.1 409 Session Id Conflict\r\n"
+                + "X-Transmission-Session-Id:  abc \r\nContent-Length: 0\r\n\r\n"));
+        assertEquals(409, response.status);
+        assertEquals("Session Id Conflict", response.reason);
+        assertEquals("abc", response.getHeader("x-transmission-session-id"));
+        assertNull(response.getHeader("Content-Encoding"));
+        assertTrue(response.finish());
+
+        // bare LF line ends and a missing reason
+        response = HttpResponse.read(stream("HTTP/1.1 200\nContent-Length: 2\n\nok"));
+        assertEquals(200, response.status);
+        assertEquals("ok", body(response));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        for (String raw : new String[] { "ICY 200 OK\r\n\r\n", "HTTP/1.1 abc\r\n\r\n", "HTTP/1.1 42 Odd\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\n" }) {
+            try {
+                HttpResponse.read(stream(raw));
+                fail("should reject " + raw);
+            } catch (EOFException e) {
+                fail("should reject " + raw + " as malformed");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        for (String raw : new String[] { "", "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n" }) {
+            try {
+                HttpResponse.read(stream(raw));
+                fail("should reject " + raw);
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testContentLengthFraming() throws Exception {
+        InputStream in = stream("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 6\r\n\r\nsecond");
+        HttpResponse first = HttpResponse.read(in);
+        assertEquals("first", body(first));
+        assertEquals(5, first.getBodyBytes());
+        assertTrue(first.finish());
+        HttpResponse second = HttpResponse.read(in);
+        // unread bodies are skipped by finish
+        assertTrue(second.finish());
+        assertEquals(-1, in.read());
+
+        try {
+            body(HttpResponse.read(stream("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nshort")));
+            fail("truncated body should fail");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChunked() throws Exception {
+        InputStream in = stream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "4\r\nWiki\r\n5;name=value\r\npedia\r\nE\r\n in\r\n\r\nchunks.\r\n0\r\nX-Trailer: 1\r\n\r\n"
+                + "HTTP/1.1 204 No Content\r\n\r\n");
+        HttpResponse response = HttpResponse.read(in);
+        assertEquals("Wikipedia in\r\n\r\nchunks.", body(response));
+        assertTrue(response.finish());
+        HttpResponse next = HttpResponse.read(in);
+        assertEquals(204, next.status);
+        assertEquals("", body(next));
+
+        try {
+            body(HttpResponse.read(stream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n")));
+            fail("malformed chunk header should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        HttpResponse close = HttpResponse.read(stream("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"));
+        assertFalse(close.finish());
+        HttpResponse http10 = HttpResponse.read(stream("HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n"));
+        assertFalse(http10.finish());
+        HttpResponse http10KeepAlive = HttpResponse.read(stream("HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\n"
+                + "Content-Length: 0\r\n\r\n"));
+        assertTrue(http10KeepAlive.finish());
+        // without framing the body ends with the connection
+        HttpResponse unframed = HttpResponse.read(stream("HTTP/1.1 200 OK\r\n\r\nuntil the end"));
+        assertEquals("until the end", body(unframed));
+        assertFalse(unframed.finish());
+    }
+
+    @Test
+    public void testInterimResponsesSkipped() throws Exception {
+        HttpResponse response = HttpResponse.read(stream("HTTP/1.1 100 Continue\r\n\r\n"
+                + "HTTP/1.1 102 Processing\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}"));
+        assertEquals(200, response.status);
+        assertEquals("{}", body(response));
+        try {
+            HttpResponse.read(stream("HTTP/1.1 101 Switching Protocols\r\nUpgrade: h2c\r\n\r\n"));
+            fail("protocol switch should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class IntTrieMapTest {
+
+    @Test
+    public void testMatchesTreeMap() {
+        Random random = new Random(42);
+        IntTrieMap<String> map = IntTrieMap.empty();
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            // mostly small ids, now and then one needing more levels
+            int key = random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                map = map.without(key);
+                expected.remove(key);
+            } else {
+                map = map.with(key, "v" + i);
+                expected.put(key, "v" + i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        // iterated in ascending order
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+        for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey().intValue()));
+        }
+    }
+
+    @Test
+    public void testUpdatesLeaveOldVersions() {
+        IntTrieMap<String> empty = IntTrieMap.empty();
+        IntTrieMap<String> one = empty.with(1, "a");
+        IntTrieMap<String> two = one.with(70000, "b");
+        IntTrieMap<String> replaced = two.with(1, "c");
+        IntTrieMap<String> removed = replaced.without(70000);
+
+        assertEquals(0, empty.size());
+        assertEquals("a", one.get(1));
+        assertNull(one.get(70000));
+        assertEquals("a", two.get(1));
+        assertEquals("b", two.get(70000));
+        assertEquals(2, replaced.size());
+        assertEquals("c", replaced.get(1));
+        assertEquals(1, removed.size());
+        assertNull(removed.get(70000));
+        assertEquals("b", replaced.get(70000));
+
+        assertSame(removed, removed.without(5));
+        assertSame(removed, removed.without(Integer.MAX_VALUE));
+        assertTrue(removed.without(1).isEmpty());
+    }
+
+    @Test
+    public void testNegativeKeysLast() {
+        IntTrieMap<String> map = IntTrieMap.<String> empty().with(-1, "minus one").with(3, "three")
+                .with(Integer.MIN_VALUE, "min");
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        assertEquals(3, keys.size());
+        assertEquals(Integer.valueOf(3), keys.get(0));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), keys.get(1));
+        assertEquals(Integer.valueOf(-1), keys.get(2));
+        assertEquals("minus one", map.get(-1));
+        assertEquals(2, map.without(Integer.MIN_VALUE).size());
+    }
+}
@@ -0,0 +1,74 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class RequestBufferTest {
+
+    private static final RequestBuffer.StreamedValue METAINFO = out -> out.write(
+            "ZDQ6aW5mb2Rl".getBytes(StandardCharsets.US_ASCII));
+
+    private static JSONObject parse(RequestBuffer buffer) throws Exception {
+        return new JSONObject(buffer.toString());
+    }
+
+    @Test
+    public void testSplicedIntoEmptyCommand() throws Exception {
+        JSONObject request = parse(RequestBuffer.of(new JSONObject(), new JSONObject(), "metainfo", METAINFO));
+        assertEquals(1, request.length());
+        JSONObject args = request.getJSONObject("arguments");
+        assertEquals(1, args.length());
+        assertEquals("ZDQ6aW5mb2Rl", args.getString("metainfo"));
+    }
+
+    @Test
+    public void testSplicedIntoEmptyArguments() throws Exception {
+        JSONObject command = new JSONObject().put("method", "torrent-add").put("tag", 7);
+        RequestBuffer buffer = RequestBuffer.of(command, new JSONObject(), "metainfo", METAINFO);
+        JSONObject request = parse(buffer);
+        assertEquals(3, request.length());
+        assertEquals("torrent-add", request.getString("method"));
+        assertEquals(7, request.getInt("tag"));
+        assertEquals("ZDQ6aW5mb2Rl", request.getJSONObject("arguments").getString("metainfo"));
+    }
+
+    @Test
+    public void testSplicedAfterArguments() throws Exception {
+        JSONObject command = new JSONObject().put("method", "torrent-add");
+        JSONObject args = new JSONObject().put("paused", true).put("download-dir", "/data/\"quoted\" \u00e9")
+                .put("files-unwanted", new JSONArray().put(1).put(2));
+        JSONObject request = parse(RequestBuffer.of(command, args, "metainfo", METAINFO));
+        JSONObject parsedArgs = request.getJSONObject("arguments");
+        assertEquals(4, parsedArgs.length());
+        assertEquals(true, parsedArgs.getBoolean("paused"));
+        assertEquals("/data/\"quoted\" \u00e9", parsedArgs.getString("download-dir"));
+        assertEquals(2, parsedArgs.getJSONArray("files-unwanted").getInt(1));
+        assertEquals("ZDQ6aW5mb2Rl", parsedArgs.getString("metainfo"));
+        // the command itself is left as it was
+        assertEquals(1, command.length());
+    }
+
+    @Test
+    public void testGzipped() throws Exception {
+        RequestBuffer buffer = RequestBuffer.of(new JSONObject().put("method", "session-get"));
+        RequestBuffer gzipped = buffer.gzipped();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.array(), 0, gzipped.size()))) {
+            byte[] buf = new byte[256];
+            for (int read; (read = in.read(buf)) != -1; ) {
+                out.write(buf, 0, read);
+            }
+        }
+        assertEquals(buffer.toString(), out.toString("UTF-8"));
+        assertSame(gzipped, buffer.gzipped());
+    }
+}
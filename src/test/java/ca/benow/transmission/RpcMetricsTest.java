@@ -0,0 +1,179 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class RpcMetricsTest {
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+    private RpcMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeTransmissionServer(25);
+        client = server.createClient();
+        metrics = new RpcMetrics();
+        client.setInstrumentation(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    @Test
+    public void testSessionHandshake() throws Exception {
+        // the first request is answered with 409 and sent again
+        client.getSessionStats();
+        assertEquals(1, server.getConflictCount());
+        RpcMetrics.MethodSnapshot stats = metrics.snapshot().get("session-stats");
+        assertEquals(1, stats.getCalls());
+        assertEquals(0, stats.getErrors());
+        assertEquals(1, stats.getSessionRetries());
+        assertEquals(1, metrics.getSessionRetries());
+        // both attempts add up in one sample
+        assertEquals(1, stats.getWaitNanos().getCount());
+        assertEquals(1, stats.getParseNanos().getCount());
+        assertTrue(stats.getTotalNanos().getMax() >= stats.getWaitNanos().getMax());
+        assertTrue(stats.getWaitNanos().getMax() > 0);
+        assertEquals(1, stats.getRequestBytes().getCount());
+        assertTrue(stats.getRequestBytes().getSum() > 0);
+        // small requests go uncompressed
+        assertEquals(stats.getRequestBytes().getSum(), stats.getRequestWireBytes().getSum());
+        assertTrue(stats.getResponseBytes().getSum() > 0);
+        assertTrue(stats.getDecodedResponseBytes().getSum() >= stats.getResponseBytes().getSum());
+        assertEquals(0, stats.getTorrents().getCount());
+
+        client.getAllTorrents(new TorrentField[] { TorrentField.id });
+        RpcMetrics.MethodSnapshot get = metrics.snapshot().get("torrent-get");
+        assertEquals(1, get.getCalls());
+        assertEquals(0, get.getSessionRetries());
+        assertEquals(25, get.getTorrents().getMax());
+    }
+
+    @Test
+    public void testErrorReply() throws Exception {
+        client.getSessionStats();
+        server.setErrorRate(1);
+        try {
+            client.getSessionStats();
+            fail("injected error expected");
+        } catch (TransmissionException e) {
+            // expected
+        }
+        RpcMetrics.MethodSnapshot stats = metrics.snapshot().get("session-stats");
+        assertEquals(2, stats.getCalls());
+        assertEquals(1, stats.getErrors());
+        assertEquals(1, metrics.getErrors());
+        assertEquals(2, stats.getWaitNanos().getCount());
+        assertEquals(2, stats.getRequestBytes().getCount());
+        // response phases only count successful calls
+        assertEquals(1, stats.getParseNanos().getCount());
+        assertEquals(1, stats.getResponseBytes().getCount());
+
+        metrics.reset();
+        assertTrue(metrics.snapshot().isEmpty());
+        assertEquals(0, metrics.getCalls());
+    }
+
+    @Test
+    public void testConnectionRetry() throws Exception {
+        client.getConnectionPool().close();
+        server.close();
+        final String success = "{\"arguments\":{},\"result\":\"success\"}";
+        try (CannedHttpServer canned = new CannedHttpServer((connection, request, body, out) -> {
+            // drop the kept-alive connection instead of answering its second request
+            if (connection == 0 && request == 1)
+                return false;
+            out.write(CannedHttpServer.ok(success));
+            return true;
+        })) {
+            client = new TransmissionClient(canned.getUrl());
+            client.setInstrumentation(metrics);
+            client.sendCommand("session-stats", null);
+            client.sendCommand("session-stats", null);
+        }
+        RpcMetrics.MethodSnapshot stats = metrics.snapshot().get("session-stats");
+        assertEquals(2, stats.getCalls());
+        assertEquals(1, stats.getConnectionRetries());
+        assertEquals(0, stats.getErrors());
+        assertEquals(success.getBytes(StandardCharsets.UTF_8).length * 2, stats.getResponseBytes().getSum());
+    }
+
+    @Test
+    public void testMXBean() throws Exception {
+        client.getSessionStats();
+        client.getSessionStats();
+        ObjectName name = metrics.registerMBean("test-" + System.nanoTime());
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(2L, mbeans.getAttribute(name, "Calls"));
+            assertEquals(1L, mbeans.getAttribute(name, "SessionRetries"));
+            TabularData methods = (TabularData) mbeans.getAttribute(name, "Methods");
+            CompositeData row = methods.get(new Object[] { "session-stats" });
+            CompositeData stats = (CompositeData) row.get("value");
+            assertEquals(2L, stats.get("calls"));
+            CompositeData wait = (CompositeData) stats.get("waitNanos");
+            assertEquals(2L, wait.get("count"));
+
+            mbeans.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, mbeans.getAttribute(name, "Calls"));
+        } finally {
+            mbeans.unregisterMBean(name);
+        }
+        assertFalse(mbeans.isRegistered(name));
+    }
+
+    @Test
+    public void testRecordDoesNotAllocate() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled());
+
+        RpcSample sample = new RpcSample();
+        sample.method = "torrent-get";
+        sample.totalNanos = 1500000;
+        sample.waitNanos = 1000000;
+        sample.requestBytes = 120;
+        sample.responseBytes = 40000;
+        sample.decodedResponseBytes = 300000;
+        sample.torrentCount = 500;
+        // the first record creates the method's counters
+        for (int i = 0; i < 20000; i++) {
+            sample.sessionRetries = i & 1;
+            metrics.record(sample);
+        }
+        long thread = Thread.currentThread().getId();
+        int records = 100000;
+        long before = hotspot.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < records; i++) {
+            sample.sessionRetries = i & 1;
+            metrics.record(sample);
+        }
+        long allocated = hotspot.getThreadAllocatedBytes(thread) - before;
+        // allow for the measurement itself, far below a byte per record
+        assertTrue(allocated + " bytes for " + records + " records", allocated < records / 10);
+        assertEquals(20000 + records, metrics.snapshot().get("torrent-get").getCalls());
+    }
+}
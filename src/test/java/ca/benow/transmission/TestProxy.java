@@ -0,0 +1,167 @@
+package ca.benow.transmission;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * HTTP proxy relaying each connection to the host named in its first
+ * request, either as CONNECT tunnel or as a plain request with an absolute
+ * URL. Installed as default ProxySelector for the duration of a test.
+ */
+final class TestProxy implements AutoCloseable {
+
+    private final ServerSocket socket;
+    private final Thread thread;
+    private final List<String> requestLines = new CopyOnWriteArrayList<>();
+    private final ProxySelector previous = ProxySelector.getDefault();
+    private volatile String connectResponse = "HTTP/1.1 200 Connection established";
+
+    TestProxy() throws IOException {
+        this.socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.thread = new Thread(this::accept, "test-proxy");
+        thread.setDaemon(true);
+        thread.start();
+        final Proxy proxy = new Proxy(Proxy.Type.HTTP, socket.getLocalSocketAddress());
+        ProxySelector.setDefault(new ProxySelector() {
+            @Override
+            public List<Proxy> select(URI uri) {
+                return Collections.singletonList(proxy);
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress address, IOException e) {
+            }
+        });
+    }
+
+    /**
+     * @param statusLine
+     *          status line answering CONNECT requests, anything but 200 closes
+     *          the connection afterwards
+     */
+    void setConnectResponse(String statusLine) {
+        this.connectResponse = statusLine;
+    }
+
+    /**
+     * @return the first line of the first request of each connection
+     */
+    List<String> getRequestLines() {
+        return requestLines;
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                final Socket conn = socket.accept();
+                Thread handler = new Thread(() -> relay(conn), "test-proxy-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void relay(Socket conn) {
+        try {
+            InputStream in = conn.getInputStream();
+            OutputStream out = conn.getOutputStream();
+            byte[] head = readHead(in);
+            if (head == null)
+                return;
+            String requestLine = new String(head, StandardCharsets.ISO_8859_1).split("\r\n")[0];
+            requestLines.add(requestLine);
+            String target = requestLine.split(" ")[1];
+            boolean connect = requestLine.startsWith("CONNECT ");
+            if (connect) {
+                out.write((connectResponse + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                if (!connectResponse.split(" ")[1].equals("200"))
+                    return;
+            } else {
+                target = URI.create(target).getRawAuthority();
+            }
+            int colon = target.lastIndexOf(':');
+            Socket upstream = new Socket();
+            upstream.connect(new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1))));
+            if (!connect) {
+                upstream.getOutputStream().write(head);
+                upstream.getOutputStream().flush();
+            }
+            Thread back = new Thread(() -> pipe(upstream, conn), "test-proxy-upstream");
+            back.setDaemon(true);
+            back.start();
+            pipe(conn, upstream);
+        } catch (IOException e) {
+            // connection gone
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+
+    private static void pipe(Socket from, Socket to) {
+        byte[] buffer = new byte[8192];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // either side gone
+        } finally {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    /**
+     * @return the request head up to and including CRLF CRLF, null at EOF
+     */
+    private static byte[] readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int last = 0;
+        while (last != 0x0d0a0d0a) {
+            int b = in.read();
+            if (b == -1)
+                return null;
+            head.write(b);
+            last = (last << 8) | b;
+        }
+        return head.toByteArray();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+
+    @Override
+    public void close() {
+        ProxySelector.setDefault(previous);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TorrentActionBatcherTest {
+
+    private static final String SUCCESS = "{\"arguments\":{},\"result\":\"success\"}";
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile String answer = SUCCESS;
+
+    private CannedHttpServer server;
+    private TransmissionClient client;
+    private TorrentActionBatcher batcher;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new CannedHttpServer((connection, request, body, out) -> {
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                JSONObject json = new JSONObject(new String(body, StandardCharsets.UTF_8));
+                requests.add(json.getString("method") + " " + json.getJSONObject("arguments").getJSONArray("ids"));
+                // give overlapping requests a chance to show
+                Thread.sleep(20);
+            } catch (JSONException | InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            out.write(CannedHttpServer.ok(answer));
+            return true;
+        });
+        client = new TransmissionClient(server.getUrl());
+        batcher = new TorrentActionBatcher(new AsyncTransmissionClient(client));
+        batcher.setMaxDelay(1, TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    private static void await(List<CompletableFuture<Void>> futures) throws Exception {
+        for (CompletableFuture<Void> curr : futures) {
+            curr.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testCallsMerged() throws Exception {
+        List<CompletableFuture<Void>> futures = Arrays.asList(batcher.startTorrents(1), batcher.startTorrents(2),
+                batcher.startTorrents(2, 3), batcher.reannounceTorrents(4), batcher.reannounceTorrents(5));
+        assertTrue(requests.isEmpty());
+        batcher.flush().get(10, TimeUnit.SECONDS);
+        await(futures);
+        assertEquals(Arrays.asList("torrent-start [1,2,3]", "torrent-reannounce [4,5]"), requests);
+    }
+
+    @Test
+    public void testOrderKeptPerTorrent() throws Exception {
+        List<CompletableFuture<Void>> futures = Arrays.asList(batcher.startTorrents(1), batcher.stopTorrents(1),
+                batcher.startTorrents(2), batcher.startTorrents(1), batcher.verifyTorrents(3));
+        batcher.flush().get(10, TimeUnit.SECONDS);
+        await(futures);
+        // start 2 joins the first start, the second start of 1 can't jump the stop
+        assertEquals(Arrays.asList("torrent-start [1,2]", "torrent-stop [1]", "torrent-start [1]",
+                "torrent-verify [3]"), requests);
+    }
+
+    @Test
+    public void testRequestsSentOneAfterTheOther() throws Exception {
+        batcher.setMaxBatchSize(2);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            // full batches are sent without waiting for the window
+            futures.add(batcher.startTorrents(i));
+        }
+        await(futures);
+        assertEquals(5, requests.size());
+        assertEquals("torrent-start [0,1]", requests.get(0));
+        assertEquals("torrent-start [8,9]", requests.get(4));
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void testWindowCloses() throws Exception {
+        batcher.setMaxDelay(10, TimeUnit.MILLISECONDS);
+        CompletableFuture<Void> first = batcher.stopTorrents(1);
+        CompletableFuture<Void> second = batcher.stopTorrents(2);
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("torrent-stop [1,2]"), requests);
+    }
+
+    @Test
+    public void testFailureFannedOut() throws Exception {
+        answer = "{\"arguments\":{},\"result\":\"no such torrent\"}";
+        List<CompletableFuture<Void>> futures = Arrays.asList(batcher.verifyTorrents(1), batcher.verifyTorrents(2));
+        batcher.flush().get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> curr : futures) {
+            try {
+                curr.get(10, TimeUnit.SECONDS);
+                fail("failed request should fail every merged call");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TransmissionException);
+            }
+        }
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void testIdsAndHashesNotMatched() throws Exception {
+        String hash = "0123456789abcdef0123456789abcdef01234567";
+        // say hash is the hash of torrent 1: the batcher can't know, so the
+        // second start of 1 joins the first and overtakes the stop
+        List<CompletableFuture<Void>> futures = Arrays.asList(batcher.startTorrents(2), batcher.stopTorrents(hash),
+                batcher.startTorrents(1));
+        batcher.flush().get(10, TimeUnit.SECONDS);
+        await(futures);
+        assertEquals(Arrays.asList("torrent-start [2,1]", "torrent-stop [\"" + hash + "\"]"), requests);
+
+        // referring to it consistently keeps the order
+        requests.clear();
+        futures = Arrays.asList(batcher.startTorrents(2), batcher.stopTorrents(1), batcher.startTorrents(1));
+        batcher.flush().get(10, TimeUnit.SECONDS);
+        await(futures);
+        assertEquals(Arrays.asList("torrent-start [2]", "torrent-stop [1]", "torrent-start [1]"), requests);
+    }
+}
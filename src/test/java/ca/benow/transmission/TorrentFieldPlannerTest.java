@@ -0,0 +1,74 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+import ca.benow.transmission.model.TorrentView;
+
+public class TorrentFieldPlannerTest {
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+    private TorrentFieldPlanner planner;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeTransmissionServer(300);
+        client = server.createClient();
+        planner = new TorrentFieldPlanner(client);
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    @Test
+    public void testHeavyFieldsInChunks() throws Exception {
+        planner.setMaxResponseBytes(100 * 1024);
+        List<TorrentStatus> torrents = planner.getTorrents(null, new TorrentField[] { TorrentField.all }, null);
+        assertEquals(300, torrents.size());
+        // one light request and files, peers... for 300 torrents in chunks of at most 100 KB
+        assertTrue(server.getCallCount("torrent-get") > 2);
+        List<TorrentStatus> plain = client.getAllTorrents(new TorrentField[] { TorrentField.all });
+        for (int i = 0; i < plain.size(); i++) {
+            assertEquals(plain.get(i).getJSONObject().toString(), torrents.get(i).getJSONObject().toString());
+        }
+    }
+
+    @Test
+    public void testFilterAndBudget() throws Exception {
+        TorrentView view = TorrentView.FILES.plus(TorrentField.status);
+        List<TorrentStatus> torrents = planner.getTorrents(null, view,
+                t -> t.getStatus() == TorrentStatus.STATUS_DOWNLOADING);
+        assertEquals(300, torrents.size());
+        for (TorrentStatus curr : torrents) {
+            assertEquals(curr.getStatus() == TorrentStatus.STATUS_DOWNLOADING, curr.has(TorrentField.files));
+            assertTrue(curr.has(TorrentField.name));
+        }
+
+        planner.setMaxTotalBytes(10 * 1024);
+        int calls = server.getCallCount("torrent-get");
+        try {
+            planner.getTorrents(null, TorrentView.PEERS);
+            fail("peers of 300 torrents should exceed 10 KB");
+        } catch (TorrentFieldPlanner.BudgetExceededException e) {
+            assertTrue(e.getEstimatedBytes() > e.getBudgetBytes());
+        }
+        // only the cheap fields were fetched
+        assertEquals(calls + 1, server.getCallCount("torrent-get"));
+        assertFalse(TorrentFieldPlanner.isHeavy(TorrentField.percentDone));
+    }
+}
@@ -0,0 +1,101 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.benow.transmission.model.AddedTorrentInfo;
+
+public class TorrentIngestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeTransmissionServer(0);
+        client = server.createClient();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    private File torrent(String name, String content) throws IOException {
+        File file = new File(tmp.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    @Test(timeout = 20000)
+    public void testFailingFiles() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            files.add(torrent("good" + i + ".torrent", "d4:infod6:lengthi" + (i + 1) + "e4:name5:file" + i + "ee"));
+        }
+        files.add(torrent("duplicate.torrent", "d4:infod6:lengthi1e4:name5:file0ee"));
+        files.add(torrent("corrupt.torrent", "not bencoded"));
+        // unreadable, fails while encoding
+        File directory = tmp.newFolder("directory.torrent");
+        files.add(directory);
+        // an Error while encoding must not cost the file's permit
+        File broken = new File(tmp.getRoot(), "broken.torrent") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Path toPath() {
+                throw new OutOfMemoryError("simulated");
+            }
+        };
+        files.add(broken);
+
+        final Map<String, Exception> failures = new ConcurrentHashMap<>();
+        TorrentIngest ingest = new TorrentIngest(client);
+        // a single permit per stage, a leaked one would block the ingest
+        ingest.setEncoders(1);
+        ingest.setMaxInFlight(1);
+        TorrentIngest.Summary summary = ingest.ingest(files, new TorrentIngest.Listener() {
+            @Override
+            public void added(File file, AddedTorrentInfo info) {
+            }
+
+            @Override
+            public void failed(File file, Exception error) {
+                failures.put(file.getName(), error);
+            }
+        });
+        assertEquals(6, summary.getAdded());
+        assertEquals(1, summary.getDuplicates());
+        assertEquals(3, summary.getFailed());
+        assertEquals(Arrays.asList("broken.torrent", "corrupt.torrent", "directory.torrent"),
+                new ArrayList<>(new TreeSet<>(failures.keySet())));
+        assertTrue(failures.get("broken.torrent") instanceof ExecutionException);
+        assertTrue(failures.get("corrupt.torrent") instanceof TransmissionException);
+        assertTrue(failures.get("directory.torrent") instanceof IOException);
+        // files failing to encode never reach the daemon
+        assertEquals(8, server.getCallCount("torrent-add"));
+    }
+}
@@ -0,0 +1,136 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class TorrentLoaderTest {
+
+    private static final TorrentField[] NAME = { TorrentField.name };
+    private static final TorrentField[] STATUS = { TorrentField.status };
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+    private TorrentLoader loader;
+    private int[] ids;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeTransmissionServer(20);
+        client = server.createClient();
+        loader = new TorrentLoader(new AsyncTransmissionClient(client));
+        ids = server.getTorrentIds();
+        // open the session, so the counts below are torrent-gets only
+        client.getSessionStats();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    @Test
+    public void testLookupsBatched() throws Exception {
+        loader.setMaxDelay(1, TimeUnit.HOURS);
+        CompletableFuture<TorrentStatus> first = loader.load(ids[0], NAME);
+        CompletableFuture<TorrentStatus> second = loader.load(ids[1], STATUS);
+        CompletableFuture<TorrentStatus> again = loader.load(ids[0], STATUS);
+        CompletableFuture<TorrentStatus> missing = loader.load(-1, NAME);
+        assertFalse(first.isDone());
+        loader.flush();
+
+        TorrentStatus status = first.get(10, TimeUnit.SECONDS);
+        assertEquals(ids[0], status.getId());
+        assertEquals(server.getTorrentField(ids[0], "name"), status.getName());
+        // fields are merged, lookups of one torrent share its status
+        assertTrue(status.has(TorrentField.status));
+        assertSame(status, again.get(10, TimeUnit.SECONDS));
+        assertEquals(ids[1], second.get(10, TimeUnit.SECONDS).getId());
+        assertNull(missing.get(10, TimeUnit.SECONDS));
+        assertEquals(1, server.getCallCount("torrent-get"));
+    }
+
+    @Test
+    public void testFullBatchSentAtOnce() throws Exception {
+        loader.setMaxDelay(1, TimeUnit.HOURS);
+        loader.setMaxBatchSize(3);
+        List<CompletableFuture<TorrentStatus>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(loader.load(ids[i], NAME));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertEquals(ids[i], futures.get(i).get(10, TimeUnit.SECONDS).getId());
+        }
+        assertEquals(2, server.getCallCount("torrent-get"));
+    }
+
+    @Test
+    public void testBatchSentWhenWindowCloses() throws Exception {
+        loader.setMaxDelay(20, TimeUnit.MILLISECONDS);
+        CompletableFuture<TorrentStatus> first = loader.load(ids[0], NAME);
+        CompletableFuture<TorrentStatus> second = loader.load(ids[1], NAME);
+        // no flush, the timer sends the batch
+        assertEquals(ids[0], first.get(10, TimeUnit.SECONDS).getId());
+        assertEquals(ids[1], second.get(10, TimeUnit.SECONDS).getId());
+        assertEquals(1, server.getCallCount("torrent-get"));
+
+        assertEquals(ids[2], loader.getTorrent(ids[2], NAME).getId());
+        assertEquals(2, server.getCallCount("torrent-get"));
+    }
+
+    @Test
+    public void testFailureFannedOut() throws Exception {
+        loader.setMaxDelay(1, TimeUnit.HOURS);
+        server.setErrorRate(1);
+        int requests = server.getRequestCount();
+        List<CompletableFuture<TorrentStatus>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(loader.load(ids[i], NAME));
+        }
+        futures.add(loader.load(ids[0], STATUS));
+        loader.flush();
+        Throwable cause = null;
+        for (CompletableFuture<TorrentStatus> curr : futures) {
+            try {
+                curr.get(10, TimeUnit.SECONDS);
+                fail("failed torrent-get should fail every lookup");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TransmissionException);
+                if (cause != null)
+                    assertSame(cause, e.getCause());
+                cause = e.getCause();
+            }
+        }
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testGetTorrents() throws Exception {
+        List<TorrentStatus> torrents = loader.getTorrents(new int[] { ids[2], -1, ids[0] }, NAME);
+        assertEquals(2, torrents.size());
+        assertEquals(ids[2], torrents.get(0).getId());
+        assertEquals(ids[0], torrents.get(1).getId());
+
+        // null or no ids mean all torrents, as for TransmissionClient
+        assertEquals(ids.length, loader.getTorrents(null, NAME).size());
+        assertEquals(ids.length, loader.getTorrents(new int[0], NAME).size());
+    }
+}
@@ -0,0 +1,122 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class TorrentMirrorTest {
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+    private TorrentMirror mirror;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeTransmissionServer(50);
+        client = server.createClient();
+        mirror = new TorrentMirror(client, new TorrentField[] { TorrentField.name, TorrentField.percentDone });
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    private static int[] ids(Iterable<Integer> ids) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer id : ids) {
+            list.add(id);
+        }
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    private static Set<Integer> changedIds(TorrentMirror.Snapshot snapshot) throws Exception {
+        Set<Integer> ids = new HashSet<>();
+        for (TorrentStatus curr : snapshot.getChanged()) {
+            ids.add(curr.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testDeltas() throws Exception {
+        TorrentMirror.Snapshot first = mirror.sync();
+        assertEquals(50, first.size());
+        assertEquals(50, first.getChanged().size());
+        assertEquals(0, first.getRemoved().length);
+        int[] before = server.getTorrentIds();
+
+        server.churn(5, 2, 3);
+        int[] after = server.getTorrentIds();
+        TorrentMirror.Snapshot second = mirror.sync();
+        assertEquals(first.getGeneration() + 1, second.getGeneration());
+        assertEquals(49, second.size());
+        // ordered by id
+        assertArrayEquals(after, ids(second.getTorrentsById().keySet()));
+
+        Set<Integer> removed = new HashSet<>();
+        for (int id : before) {
+            removed.add(id);
+        }
+        for (int id : after) {
+            removed.remove(id);
+        }
+        int[] expectedRemoved = ids(removed);
+        Arrays.sort(expectedRemoved);
+        int[] actualRemoved = second.getRemoved();
+        Arrays.sort(actualRemoved);
+        assertArrayEquals(expectedRemoved, actualRemoved);
+
+        Set<Integer> changed = changedIds(second);
+        assertTrue(changed.contains(after[after.length - 1]));
+        assertTrue(changed.contains(after[after.length - 2]));
+        assertTrue(changed.size() <= 7);
+        for (int id : after) {
+            TorrentStatus status = second.getTorrent(id);
+            assertEquals(server.getTorrentField(id, "name"), status.getName());
+            // torrents the sync didn't touch are shared with the last snapshot
+            if (!changed.contains(id))
+                assertSame(first.getTorrent(id), status);
+        }
+
+        // the earlier snapshot is left as it was
+        assertEquals(50, first.size());
+        assertArrayEquals(before, ids(first.getTorrentsById().keySet()));
+    }
+
+    @Test
+    public void testResyncReportsRemovals() throws Exception {
+        mirror.sync();
+        int[] before = server.getTorrentIds();
+        server.churn(0, 0, 2);
+        TorrentMirror.Snapshot snapshot = mirror.resync();
+        assertEquals(48, snapshot.size());
+        assertEquals(48, snapshot.getChanged().size());
+        int[] removed = snapshot.getRemoved();
+        assertEquals(2, removed.length);
+        for (int id : removed) {
+            assertTrue(Arrays.binarySearch(before, id) >= 0);
+            assertTrue(Arrays.binarySearch(server.getTorrentIds(), id) < 0);
+        }
+    }
+}
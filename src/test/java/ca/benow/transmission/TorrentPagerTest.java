@@ -0,0 +1,148 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class TorrentPagerTest {
+
+    private FakeTransmissionServer server;
+    private TransmissionClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeTransmissionServer(1000);
+        client = server.createClient();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.close();
+    }
+
+    @Test
+    public void testStreamInChunks() throws Exception {
+        TorrentField[] fields = { TorrentField.id, TorrentField.name, TorrentField.files };
+        for (boolean prefetch : new boolean[] { false, true }) {
+            int calls = server.getCallCount("torrent-get");
+            try (Stream<TorrentStatus> torrents = client.streamTorrents(fields, 100, prefetch)) {
+                int[] ids = new int[1000];
+                int count = 0;
+                for (TorrentStatus curr : (Iterable<TorrentStatus>) torrents::iterator) {
+                    ids[count++] = curr.getId();
+                }
+                assertArrayEquals(server.getTorrentIds(), Arrays.copyOf(ids, count));
+            }
+            // the ids and ten chunks
+            assertEquals(calls + 11, server.getCallCount("torrent-get"));
+        }
+    }
+
+    @Test
+    public void testRemovedWhilePaging() throws Exception {
+        try (TorrentPager pager = new TorrentPager(client, null, 300, false)) {
+            assertEquals(1000, pager.getTorrentCount());
+            assertEquals(300, pager.nextChunk().size());
+            server.churn(0, 5, 10);
+            int seen = 300;
+            List<TorrentStatus> chunk;
+            while ((chunk = pager.nextChunk()) != null) {
+                seen += chunk.size();
+            }
+            // added torrents aren't seen, removed ones not yet fetched are skipped
+            int removedLater = 0;
+            for (int id = 301; id <= 1000; id++) {
+                if (Arrays.binarySearch(server.getTorrentIds(), id) < 0)
+                    removedLater++;
+            }
+            assertEquals(1000 - removedLater, seen);
+            assertNull(pager.nextChunk());
+        }
+    }
+
+    @Test
+    public void testInOrderOfIds() throws Exception {
+        final List<String> requestedIds = new ArrayList<>();
+        try (CannedHttpServer daemon = new CannedHttpServer((connection, request, body, out) -> {
+            out.write(CannedHttpServer.ok(unsortedDaemon(body, requestedIds)));
+            return true;
+        })) {
+            TransmissionClient canned = new TransmissionClient(daemon.getUrl());
+            try (TorrentPager pager = new TorrentPager(canned, new TorrentField[] { TorrentField.id }, 2, false)) {
+                List<Integer> seen = new ArrayList<>();
+                while (pager.hasNext()) {
+                    seen.add(pager.next().getId());
+                }
+                assertEquals(Arrays.asList(1, 2, 3), seen);
+                assertEquals(Arrays.asList("[1,2]", "[3]"), requestedIds);
+            } finally {
+                canned.getConnectionPool().close();
+            }
+        }
+    }
+
+    /**
+     * Answers like a daemon listing torrents 3, 1, 2 and returning asked for
+     * torrents in the order asked.
+     */
+    private static String unsortedDaemon(byte[] body, List<String> requestedIds) throws IOException {
+        try {
+            JSONObject command = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            JSONObject args = command.optJSONObject("arguments");
+            String reply;
+            if (command.getString("method").equals("session-get")) {
+                reply = "{\"rpc-version\":15}";
+            } else if (!args.has("ids")) {
+                reply = "{\"torrents\":[{\"id\":3},{\"id\":1},{\"id\":2}]}";
+            } else {
+                JSONArray ids = args.getJSONArray("ids");
+                requestedIds.add(ids.toString());
+                JSONArray torrents = new JSONArray();
+                for (int i = 0; i < ids.length(); i++) {
+                    torrents.put(new JSONObject().put("id", ids.getInt(i)));
+                }
+                reply = new JSONObject().put("torrents", torrents).toString();
+            }
+            return "{\"arguments\":" + reply + ",\"result\":\"success\"}";
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Test
+    public void testNoTorrentsAfterClose() throws Exception {
+        TorrentPager pager = new TorrentPager(client, null, 300, true);
+        assertTrue(pager.hasNext());
+        pager.close();
+        assertFalse(pager.hasNext());
+        assertNull(pager.nextChunk());
+        try {
+            pager.next();
+            fail("closed pager has no next torrent");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TorrentPlacementTest {
+
+    // SHA-1 of INFO, computed independently
+    private static final String INFO_HASH = "61750d55676278c4188c5cc9564bb61f8b0779fa";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] bytes(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            byte[] curr = part instanceof byte[] ? (byte[]) part : ((String) part).getBytes(StandardCharsets.ISO_8859_1);
+            out.write(curr, 0, curr.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] pieces() {
+        byte[] pieces = new byte[20];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = (byte) i;
+        }
+        return pieces;
+    }
+
+    private static final byte[] INFO = bytes("d6:lengthi42e4:name8:file.bin12:piece lengthi16384e6:pieces20:", pieces(), "e");
+    private static final byte[] METAINFO = bytes("d8:announce14:http://tracker13:creation datei1322313588e4:info", INFO, "e");
+
+    @Test
+    public void testInfoHash() throws Exception {
+        assertEquals(INFO_HASH, TorrentPlacement.infoHash(METAINFO));
+        // keys after info don't matter
+        assertEquals(INFO_HASH, TorrentPlacement.infoHash(bytes("d4:info", INFO, "7:comment2:hie")));
+        // the info key must be a key, not a value
+        assertNull(TorrentPlacement.infoHash(bytes("d7:comment4:info5:otherle")));
+    }
+
+    @Test
+    public void testInvalidMetainfo() {
+        assertNull(TorrentPlacement.infoHash(new byte[0]));
+        assertNull(TorrentPlacement.infoHash(bytes("l4:infoe")));
+        assertNull(TorrentPlacement.infoHash(bytes("d8:announce3:urle")));
+        assertNull(TorrentPlacement.infoHash(Arrays.copyOf(METAINFO, METAINFO.length - 10)));
+        assertNull(TorrentPlacement.infoHash(bytes("d4:infod4:name99:shortee")));
+        assertNull(TorrentPlacement.infoHash(bytes("d4:infod4:name-1:ee")));
+        assertNull(TorrentPlacement.infoHash(bytes("d4:infod4:namex:ee")));
+    }
+
+    @Test
+    public void testInfoHashOfChannel() throws Exception {
+        File file = tmp.newFile("a.torrent");
+        Files.write(file.toPath(), bytes("garbage", METAINFO));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.position(7);
+            assertEquals(INFO_HASH, TorrentPlacement.infoHash(channel));
+            assertEquals(7, channel.position());
+        }
+    }
+
+    @Test
+    public void testMagnetInfoHash() {
+        String hex = "c3499c2729730a7f807efb8676a92dcb6f8a3f8f";
+        assertEquals(hex, TorrentPlacement.magnetInfoHash("magnet:?xt=urn:btih:" + hex + "&dn=example"));
+        assertEquals(hex, TorrentPlacement.magnetInfoHash("MAGNET:?dn=example&xt=urn:btih:" + hex.toUpperCase()));
+        // base32, as older clients write it
+        assertEquals(hex, TorrentPlacement.magnetInfoHash("magnet:?xt=urn:btih:YNEZYJZJOMFH7AD67ODHNKJNZNXYUP4P"));
+        assertEquals(hex, TorrentPlacement.magnetInfoHash("magnet:?xt=urn:btih:ynezyjzjomfh7ad67odhnkjnznxyup4p&tr=x"));
+
+        assertNull(TorrentPlacement.magnetInfoHash("http://example.com/" + hex + ".torrent"));
+        assertNull(TorrentPlacement.magnetInfoHash("magnet:?dn=example"));
+        assertNull(TorrentPlacement.magnetInfoHash("magnet:?xt=urn:btih:YNEZYJZJOMFH7AD67ODHNKJNZNXYUP41"));
+        assertNull(TorrentPlacement.magnetInfoHash("magnet:?xt=urn:btih:" + hex.substring(1)));
+    }
+
+    @Test
+    public void testSelectWaitsBounded() throws Exception {
+        try (CannedHttpServer server = new CannedHttpServer((connection, request, body, out) -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return false;
+        })) {
+            TransmissionClient client = new TransmissionClient(server.getUrl());
+            try {
+                TransmissionCluster cluster = new TransmissionCluster();
+                cluster.addNode("hung", client).setTimeout(1, TimeUnit.MINUTES);
+                TorrentPlacement placement = new TorrentPlacement(cluster, new PlacementStrategy.ConsistentHash());
+                placement.setRefreshTimeout(200, TimeUnit.MILLISECONDS);
+                long start = System.nanoTime();
+                try {
+                    placement.select(INFO_HASH);
+                    fail("hung node should not be selected");
+                } catch (IOException e) {
+                    // expected
+                }
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+            } finally {
+                client.getConnectionPool().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class TransmissionClientConcurrencyTest {
+
+    private static final int LATENCY_MILLIS = 10;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private volatile String sessionId = "first";
+    private volatile boolean rotateEveryRequest;
+    private final AtomicInteger conflicts = new AtomicInteger();
+    private final Set<String> tags = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger duplicateTags = new AtomicInteger();
+    private TransmissionClient client;
+
+    @BeforeClass
+    public static void disableNagle() {
+        // the JDK server writes headers and body separately, which stalls on delayed acks
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/transmission/rpc", this::handle);
+        server.start();
+        client = new TransmissionClient("127.0.0.1", server.getAddress().getPort(), "transmission", "transmission");
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().close();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] request = readFully(exchange.getRequestBody());
+        String sent = exchange.getRequestHeaders().getFirst("X-Transmission-Session-Id");
+        String current = sessionId;
+        if (rotateEveryRequest)
+            sessionId = current = current + "x";
+        if (!current.equals(sent)) {
+            conflicts.incrementAndGet();
+            exchange.getResponseHeaders().add("X-Transmission-Session-Id", current);
+            exchange.sendResponseHeaders(409, -1);
+            exchange.close();
+            return;
+        }
+        try {
+            Thread.sleep(LATENCY_MILLIS);
+            String tag = new JSONObject(new String(request, StandardCharsets.UTF_8)).getString("tag");
+            if (!tags.add(tag))
+                duplicateTags.incrementAndGet();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        byte[] body = "{\"arguments\":{},\"result\":\"success\"}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buff = new byte[4096];
+        int read = in.read(buff);
+        while (read > 0) {
+            out.write(buff, 0, read);
+            read = in.read(buff);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return milliseconds it took the given number of threads to send the
+     *         given number of requests each
+     */
+    private long hammer(int threads, final int requestsPerThread) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                tasks.add(() -> {
+                    for (int j = 0; j < requestsPerThread; j++) {
+                        client.sendCommand("session-stats", null);
+                    }
+                    return null;
+                });
+            }
+            long start = System.nanoTime();
+            for (Future<Void> curr : pool.invokeAll(tasks)) {
+                curr.get();
+            }
+            return (System.nanoTime() - start) / 1000000;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedClientUsesUniqueTagsAndOneHandshake() throws Exception {
+        client.getConnectionPool().setMaxConnections(16);
+        hammer(64, 10);
+        assertEquals(640, tags.size());
+        assertEquals(0, duplicateTags.get());
+        assertEquals(1, conflicts.get());
+    }
+
+    @Test
+    public void testSessionIdChangeIsRenewedOnce() throws Exception {
+        client.getConnectionPool().setMaxConnections(8);
+        hammer(8, 5);
+        conflicts.set(0);
+        sessionId = "second";
+        hammer(8, 5);
+        // only requests already on the wire with the old id get rejected
+        assertTrue("conflicts: " + conflicts.get(), conflicts.get() <= 8);
+    }
+
+    @Test
+    public void testRetriesAreBounded() throws Exception {
+        rotateEveryRequest = true;
+        try {
+            client.sendCommand("session-stats", null);
+            fail("expected the rejected session id to give up");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Session id still rejected"));
+        }
+        assertEquals(4, conflicts.get());
+    }
+
+    @Test
+    public void testThroughputScalesWithThreads() throws Exception {
+        client.getConnectionPool().setMaxConnections(8);
+        hammer(8, 2); // handshake and connection warm-up
+        int requests = 40;
+        long single = hammer(1, requests);
+        long parallel = hammer(8, requests);
+        double speedup = (8.0 * requests / parallel) / ((double) requests / single);
+        assertTrue("speedup with 8 threads was only " + speedup, speedup > 3);
+    }
+}
@@ -0,0 +1,128 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class TransmissionClientTest {
+
+    private static final String SUCCESS = "{\"arguments\":{},\"result\":\"success\"}";
+
+    private CannedHttpServer server;
+    private TransmissionClient client;
+
+    @After
+    public void tearDown() {
+        if (client != null)
+            client.getConnectionPool().close();
+        if (server != null)
+            server.close();
+    }
+
+    private void start(CannedHttpServer.Responder responder) throws IOException {
+        server = new CannedHttpServer(responder);
+        client = new TransmissionClient(server.getUrl());
+        client.getConnectionPool().setReadTimeout(300);
+    }
+
+    @Test
+    public void testResentWhenIdleConnectionDropped() throws Exception {
+        start((connection, request, body, out) -> {
+            if (connection == 0 && request == 1)
+                return false;
+            out.write(CannedHttpServer.ok(SUCCESS));
+            return true;
+        });
+        client.sendCommand("session-stats", null);
+        client.sendCommand("session-stats", null);
+        assertEquals(2, server.getConnectionCount());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testNotResentAfterPartialResponse() throws Exception {
+        start((connection, request, body, out) -> {
+            if (connection == 0 && request == 1) {
+                out.write("HTTP/1.1 200 OK\r\nContent-Le".getBytes(StandardCharsets.ISO_8859_1));
+                return false;
+            }
+            out.write(CannedHttpServer.ok(SUCCESS));
+            return true;
+        });
+        client.sendCommand("session-stats", null);
+        try {
+            client.sendCommand("torrent-remove", null);
+            fail("cut off response should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testNotResentAfterTimeout() throws Exception {
+        start((connection, request, body, out) -> {
+            if (request == 1) {
+                try {
+                    Thread.sleep(600);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            out.write(CannedHttpServer.ok(SUCCESS));
+            return true;
+        });
+        client.sendCommand("session-stats", null);
+        try {
+            client.sendCommand("torrent-add", null);
+            fail("slow daemon should time out");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        Thread.sleep(700);
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testRequestsGoThroughProxy() throws Exception {
+        start((connection, request, body, out) -> {
+            out.write(CannedHttpServer.ok(SUCCESS));
+            return true;
+        });
+        try (TestProxy proxy = new TestProxy()) {
+            client.sendCommand("session-stats", null);
+            client.sendCommand("session-stats", null);
+            // the daemon's absolute URL, on one kept-alive connection
+            assertEquals(Arrays.asList("POST " + server.getUrl() + " HTTP/1.1"), proxy.getRequestLines());
+            assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testFailureKeepsResponseText() throws Exception {
+        final String failure = "{\"arguments\":{\"torrent-duplicate\":{\"id\":1}},\"result\":\"duplicate torrent\",\"tag\":\"0\"}";
+        start((connection, request, body, out) -> {
+            out.write(CannedHttpServer.ok(failure));
+            return true;
+        });
+        try {
+            client.sendCommand("torrent-add", null);
+            fail("result should have been an error");
+        } catch (TransmissionException e) {
+            assertEquals("duplicate torrent", e.getMessage());
+            JSONObject response = new JSONObject(e.responseText);
+            assertEquals("duplicate torrent", response.getString("result"));
+            assertEquals(1, response.getJSONObject("arguments").getJSONObject("torrent-duplicate").getInt("id"));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ca.benow.transmission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.benow.transmission.TransmissionCluster.Node;
+import ca.benow.transmission.TransmissionCluster.NodeResult;
+import ca.benow.transmission.TransmissionCluster.Results;
+import ca.benow.transmission.TransmissionCluster.Tagged;
+import ca.benow.transmission.model.SessionStatus;
+import ca.benow.transmission.model.TorrentStatus;
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class TransmissionClusterTest {
+
+    private static final TorrentField[] FIELDS = { TorrentField.id, TorrentField.name };
+
+    private FakeTransmissionServer first;
+    private FakeTransmissionServer second;
+    private TransmissionCluster cluster;
+    private Node firstNode;
+    private Node secondNode;
+
+    @Before
+    public void setUp() throws IOException {
+        first = new FakeTransmissionServer(3);
+        second = new FakeTransmissionServer(5);
+        cluster = new TransmissionCluster();
+        firstNode = cluster.addNode("first", first.createClient());
+        secondNode = cluster.addNode("second", second.createClient());
+    }
+
+    @After
+    public void tearDown() {
+        for (Node node : cluster.getNodes()) {
+            node.getClient().getConnectionPool().close();
+        }
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        first.setLatency(300, 300, TimeUnit.MILLISECONDS);
+        second.setLatency(300, 300, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        Results<SessionStatus> results = cluster.getSessionStats().get(10, TimeUnit.SECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // in parallel, not one after the other
+        assertTrue("took " + millis + "ms", millis < 550);
+        assertTrue(results.isComplete());
+        List<NodeResult<SessionStatus>> list = results.getResults();
+        assertEquals(2, list.size());
+        assertSame(firstNode, list.get(0).getNode());
+        assertEquals(3, list.get(0).getValue().getTorrentCount());
+        assertSame(secondNode, list.get(1).getNode());
+        assertEquals(5, list.get(1).getValue().getTorrentCount());
+    }
+
+    @Test
+    public void testFlatten() throws Exception {
+        Results<List<TorrentStatus>> results = cluster.getAllTorrents(FIELDS).get(10, TimeUnit.SECONDS);
+        List<Tagged<TorrentStatus>> torrents = results.flatten(list -> list);
+        assertEquals(8, torrents.size());
+        assertSame(firstNode, torrents.get(0).getNode());
+        assertEquals(first.getTorrentField(torrents.get(0).getValue().getId(), "name"),
+                torrents.get(0).getValue().getName());
+        assertSame(secondNode, torrents.get(7).getNode());
+    }
+
+    @Test
+    public void testPartialFailure() throws Exception {
+        second.setErrorRate(1);
+        Results<List<TorrentStatus>> results = cluster.getAllTorrents(FIELDS).get(10, TimeUnit.SECONDS);
+        assertFalse(results.isComplete());
+        assertEquals(1, results.getSuccesses().size());
+        assertSame(firstNode, results.getSuccesses().get(0).getNode());
+        assertEquals(1, results.getFailures().size());
+        NodeResult<List<TorrentStatus>> failure = results.getFailures().get(0);
+        assertSame(secondNode, failure.getNode());
+        assertTrue(failure.getError() instanceof TransmissionException);
+        assertNull(failure.getValue());
+        assertEquals(3, results.flatten(list -> list).size());
+    }
+
+    @Test
+    public void testNodeTimeout() throws Exception {
+        // open the session first, 409s aren't delayed
+        secondNode.getClient().getSessionStats();
+        second.setLatency(3, 3, TimeUnit.SECONDS);
+        secondNode.setTimeout(100, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        Results<SessionStatus> results = cluster.getSessionStats().get(10, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(3, results.getSuccesses().get(0).getValue().getTorrentCount());
+        assertTrue(results.getFailures().get(0).getError() instanceof TimeoutException);
+    }
+
+    @Test
+    public void testNodeDown() throws Exception {
+        second.close();
+        Results<SessionStatus> results = cluster.getSessionStats().get(10, TimeUnit.SECONDS);
+        assertEquals(1, results.getSuccesses().size());
+        assertTrue(results.getFailures().get(0).getError() instanceof IOException);
+    }
+
+    @Test
+    public void testActionOnEveryNode() throws Exception {
+        String hash = "0123456789abcdef0123456789abcdef01234567";
+        Results<Void> results = cluster.stopTorrents(hash).get(10, TimeUnit.SECONDS);
+        assertTrue(results.isComplete());
+        assertEquals(1, first.getCallCount("torrent-stop"));
+        assertEquals(1, second.getCallCount("torrent-stop"));
+
+        cluster.removeNode("second");
+        cluster.startTorrents(hash).get(10, TimeUnit.SECONDS);
+        assertEquals(1, first.getCallCount("torrent-start"));
+        assertEquals(0, second.getCallCount("torrent-start"));
+        secondNode.getClient().getConnectionPool().close();
+    }
+}
@@ -0,0 +1,33 @@
+package ca.benow.transmission.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class TorrentSettingsTest {
+
+    @Test
+    public void testChangedFromKnownState() throws Exception {
+        TorrentStatus status = new TorrentStatus(new JSONObject(
+                "{\"id\":1,\"downloadLimit\":100,\"downloadLimited\":true,\"seedRatioLimit\":2,\"peer-limit\":50}"));
+        TorrentSettings known = TorrentSettings.of(status);
+        assertEquals(2D, known.get(TorrentField.seedRatioLimit));
+        assertEquals(50, known.get(TorrentField.peerLimit));
+
+        TorrentSettings wanted = new TorrentSettings().downloadLimit(100).downloadLimited(true).seedRatioLimit(1.5)
+                .uploadLimit(20);
+        TorrentSettings changes = wanted.changedFrom(known);
+        assertEquals(new TorrentSettings().seedRatioLimit(1.5).uploadLimit(20), changes);
+        assertNull(changes.get(TorrentField.downloadLimit));
+        assertTrue(wanted.changedFrom(known.merge(changes)).isEmpty());
+
+        JSONObject args = new JSONObject();
+        new TorrentSettings().peerLimit(10).putInto(args);
+        assertEquals(10, args.getInt("peer-limit"));
+    }
+}
@@ -1,7 +1,10 @@
 package ca.benow.transmission.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.StringReader;
 import java.util.Date;
 
 import org.joda.time.DateTime;
@@ -111,4 +114,52 @@ public class TorrentStatusTest {
                 + "}",status.toString());
     }
 
+    @Test
+    public void testReadTyped() throws Exception {
+        TorrentStatus typed = TorrentStatus.read(new JSONStreamReader(new StringReader(
+                "{\"id\":7,\"name\":\"a \\\"b\\\"\",\"percentDone\":0.25,\"totalSize\":5000000000,"
+                + "\"isFinished\":true,\"peersFrom\":{\"fromPex\":3},\"unknown\":[1,{\"x\":null}]}")),
+                TorrentStatus.Layout.of(TorrentField.id, TorrentField.name, TorrentField.percentDone,
+                        TorrentField.totalSize, TorrentField.isFinished, TorrentField.peersFrom, TorrentField.status));
+        assertEquals(7, typed.getId());
+        assertEquals("a \"b\"", typed.getName());
+        assertEquals(0.25D, typed.getPercentDone(), 0.000D);
+        assertEquals(5000000000L, typed.getLong(TorrentField.totalSize));
+        assertEquals(Long.class, typed.getField(TorrentField.totalSize).getClass());
+        assertTrue(typed.getBoolean(TorrentField.isFinished));
+        assertEquals(3, ((JSONObject) typed.getField(TorrentField.peersFrom)).getInt("fromPex"));
+        assertFalse(typed.has(TorrentField.status));
+        assertFalse(typed.getJSONObject().has("unknown"));
+        assertEquals(5000000000L, typed.getJSONObject().getLong("totalSize"));
+        // the accessor every JSONAccessor has materializes typed instances too
+        JSONAccessor accessor = typed;
+        assertEquals(7, accessor.getJSONObject().getInt("id"));
+    }
+
+    @Test
+    public void testReadTypedMatchesJSONObject() throws Exception {
+        TorrentStatus typed = TorrentStatus.read(new JSONStreamReader(new StringReader(JSON)),
+                TorrentStatus.Layout.of(TorrentField.id, TorrentField.status, TorrentField.name,
+                        TorrentField.percentDone, TorrentField.dateCreated));
+        assertEquals(status.getId(), typed.getId());
+        assertEquals(status.getField(TorrentField.dateCreated), typed.getField(TorrentField.dateCreated));
+        assertEquals(status.getDateField(TorrentField.dateCreated), typed.getDateField(TorrentField.dateCreated));
+        assertEquals(status.getPercentDone(), typed.getPercentDone(), 0.000D);
+        assertEquals(jsonObj.toString(), typed.getJSONObject().toString().replace("\"percentDone\":1.0", "\"percentDone\":1"));
+    }
+
+    @Test
+    public void testCombineWrappedAndTyped() throws Exception {
+        TorrentStatus.Layout layout = TorrentStatus.Layout.of(TorrentField.id, TorrentField.name,
+                TorrentField.percentDone, TorrentField.totalSize);
+        TorrentStatus typed = TorrentStatus.read(new JSONStreamReader(new StringReader(
+                "{\"id\":1,\"totalSize\":5000000000}")), layout);
+        TorrentStatus combined = TorrentStatus.combine(layout, status, typed);
+        assertEquals(1, combined.getId());
+        assertEquals(status.getName(), combined.getName());
+        assertEquals(status.getPercentDone(), combined.getPercentDone(), 0.000D);
+        assertEquals(5000000000L, combined.getLong(TorrentField.totalSize));
+        assertFalse(combined.has(TorrentField.status));
+    }
+
 }
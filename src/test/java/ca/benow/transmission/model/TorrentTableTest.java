@@ -0,0 +1,85 @@
+package ca.benow.transmission.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import ca.benow.transmission.model.TorrentStatus.TorrentField;
+
+public class TorrentTableTest {
+
+    private static final String TORRENTS = "[{\"id\":3,\"status\":6,\"downloadDir\":\"/data\",\"rateDownload\":100,\"uploadRatio\":1.5,\"name\":\"a\"},"
+            + "{\"id\":9,\"status\":4,\"downloadDir\":\"/other\",\"rateDownload\":5000000000,\"uploadRatio\":0,\"extra\":{\"x\":[1]}},"
+            + "{\"id\":12,\"status\":6,\"downloadDir\":\"/data\",\"rateDownload\":1,\"uploadRatio\":null,\"name\":\"c\"}]";
+
+    private static TorrentTable read(TorrentTable table, String json) throws Exception {
+        table.read(new JSONStreamReader(new StringReader(json)));
+        return table;
+    }
+
+    @Test
+    public void testColumns() throws Exception {
+        TorrentTable table = read(new TorrentTable(TorrentField.id, TorrentField.status, TorrentField.downloadDir,
+                TorrentField.rateDownload, TorrentField.uploadRatio, TorrentField.name), TORRENTS);
+        assertEquals(3, table.size());
+        assertEquals(9, table.ints(TorrentField.id)[1]);
+        assertEquals(5000000000L, table.longs(TorrentField.rateDownload)[1]);
+        assertEquals(1.5D, table.doubles(TorrentField.uploadRatio)[0], 0D);
+        assertEquals(0D, table.doubles(TorrentField.uploadRatio)[2], 0D);
+        int[] dirs = table.codes(TorrentField.downloadDir);
+        assertEquals(dirs[0], dirs[2]);
+        assertEquals(table.code(TorrentField.downloadDir, "/other"), dirs[1]);
+        assertEquals("/data", table.decode(TorrentField.downloadDir, dirs[0]));
+        assertEquals("c", table.getString(TorrentField.name, 2));
+        assertNull(table.getValue(TorrentField.name, 1));
+        assertEquals(2, table.rowOf(12));
+        assertEquals(-1, table.rowOf(4));
+    }
+
+    @Test
+    public void testRefillKeepsColumns() throws Exception {
+        TorrentTable table = read(new TorrentTable(TorrentField.id, TorrentField.downloadDir), TORRENTS);
+        int[] ids = table.ints(TorrentField.id);
+        int code = table.code(TorrentField.downloadDir, "/other");
+        table.clear();
+        read(table, "[{\"id\":9,\"downloadDir\":\"/other\"}]");
+        assertEquals(1, table.size());
+        assertSame(ids, table.ints(TorrentField.id));
+        assertEquals(code, table.codes(TorrentField.downloadDir)[0]);
+        assertEquals(0, table.rowOf(9));
+    }
+
+    @Test
+    public void testClearDropsUnusedDictionaryValues() throws Exception {
+        TorrentTable table = new TorrentTable(TorrentField.id, TorrentField.downloadDir, TorrentField.errorString);
+        read(table, "[{\"id\":1,\"downloadDir\":\"/data\"}]");
+        int data = table.code(TorrentField.downloadDir, "/data");
+        for (int poll = 0; poll < 100; poll++) {
+            table.clear();
+            read(table, "[{\"id\":1,\"downloadDir\":\"/data\",\"errorString\":\"error " + poll + "\"},"
+                    + "{\"id\":2,\"downloadDir\":\"/poll/" + poll + "\"}]");
+            // a value in every poll keeps its code
+            assertEquals(data, table.codes(TorrentField.downloadDir)[0]);
+        }
+        assertEquals("error 99", table.getString(TorrentField.errorString, 0));
+        assertEquals("/poll/99", table.getString(TorrentField.downloadDir, 1));
+        assertEquals(-1, table.code(TorrentField.downloadDir, "/poll/97"));
+        int last = table.codes(TorrentField.downloadDir)[1];
+        // freed codes are reused, the values of the previous poll and the current one
+        assertTrue(last < 3);
+        assertEquals("/data", table.decode(TorrentField.downloadDir, data));
+        assertEquals(last, table.code(TorrentField.downloadDir, "/poll/99"));
+
+        table.clear();
+        read(table, "[{\"id\":1,\"downloadDir\":\"/data\"}]");
+        table.clear();
+        assertEquals(data, table.code(TorrentField.downloadDir, "/data"));
+        assertEquals(-1, table.code(TorrentField.downloadDir, "/poll/99"));
+        assertNull(table.decode(TorrentField.downloadDir, last));
+    }
+}